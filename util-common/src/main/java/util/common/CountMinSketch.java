@@ -0,0 +1,169 @@
+package util.common;
+
+import java.io.Serializable;
+
+/**
+ * A Count-Min sketch: approximate counts of a stream of values in a fixed
+ * depth x width table of counters. A value is identified by its 64 bit hash,
+ * e.g. from HashUtil, from which one column per row is derived. estimate()
+ * never underestimates, and with probability 1 - e^-depth it overestimates
+ * by at most e / width times the total count added. Sketches of the same
+ * shape can be merged. The sketch is not thread safe.
+ */
+public class CountMinSketch implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int width;
+
+	private final int depth;
+
+	private final long[] table;
+
+	private long total;
+
+	public CountMinSketch(int width, int depth) {
+		if (width < 1 || depth < 1) {
+			throw new IllegalArgumentException("width and depth must be "
+					+ "positive: " + width + " x " + depth);
+		}
+		if ((long) width * depth > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException("sketch too large: " + width
+					+ " x " + depth);
+		}
+		this.width = width;
+		this.depth = depth;
+		this.table = new long[width * depth];
+	}
+
+	/**
+	 * size a sketch for an error bound.
+	 *
+	 * @param epsilon the overestimate allowed, relative to the total count
+	 * @param delta   the probability that an estimate exceeds it
+	 * @return the sketch
+	 */
+	public static CountMinSketch withError(double epsilon, double delta) {
+		if (!(epsilon > 0 && epsilon < 1) || !(delta > 0 && delta < 1)) {
+			throw new IllegalArgumentException("epsilon and delta must be in "
+					+ "(0, 1): " + epsilon + ", " + delta);
+		}
+		return new CountMinSketch((int) Math.ceil(Math.E / epsilon),
+				(int) Math.ceil(Math.log(1 / delta)));
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * @return the sum of all counts added
+	 */
+	public long getTotal() {
+		return total;
+	}
+
+	/**
+	 * @return the overestimate bound relative to the total count
+	 */
+	public double getRelativeError() {
+		return Math.E / width;
+	}
+
+	/**
+	 * @return the probability that an estimate respects the bound
+	 */
+	public double getConfidence() {
+		return 1 - Math.exp(-depth);
+	}
+
+	/**
+	 * @return the current overestimate bound in counts
+	 */
+	public long getError() {
+		return (long) Math.ceil(getRelativeError() * total);
+	}
+
+	/**
+	 * add to the count of a value.
+	 *
+	 * @param hash  the 64 bit hash of the value
+	 * @param count a non-negative count
+	 */
+	public void add(long hash, long count) {
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for (int row = 0; row < depth; row++) {
+			table[row * width + column(h1, h2, row)] += count;
+		}
+		total += count;
+	}
+
+	/**
+	 * add to the count of a value and estimate its new count, in one pass.
+	 *
+	 * @param hash  the 64 bit hash of the value
+	 * @param count a non-negative count
+	 * @return the estimated count after adding
+	 */
+	public long addAndEstimate(long hash, long count) {
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		long min = Long.MAX_VALUE;
+		for (int row = 0; row < depth; row++) {
+			int i = row * width + column(h1, h2, row);
+			long value = table[i] += count;
+			if (value < min) {
+				min = value;
+			}
+		}
+		total += count;
+		return min;
+	}
+
+	/**
+	 * @param hash the 64 bit hash of the value
+	 * @return the estimated count of the value, never below its real count
+	 */
+	public long estimate(long hash) {
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		long min = Long.MAX_VALUE;
+		for (int row = 0; row < depth; row++) {
+			long value = table[row * width + column(h1, h2, row)];
+			if (value < min) {
+				min = value;
+			}
+		}
+		return min;
+	}
+
+	/**
+	 * add the counts of another sketch to this one.
+	 *
+	 * @param other a sketch of the same width and depth
+	 */
+	public void merge(CountMinSketch other) {
+		if (other.width != width || other.depth != depth) {
+			throw new IllegalArgumentException("cannot merge a " + other.width
+					+ " x " + other.depth + " sketch into " + width + " x "
+					+ depth);
+		}
+		for (int i = 0; i < table.length; i++) {
+			table[i] += other.table[i];
+		}
+		total += other.total;
+	}
+
+	/**
+	 * the column of a row, by double hashing the two halves of the hash
+	 */
+	private int column(int h1, int h2, int row) {
+		int combined = h1 + row * h2;
+		return (combined & Integer.MAX_VALUE) % width;
+	}
+}
@@ -0,0 +1,258 @@
+package util.common;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * provide non-cryptographic hash functions (MurmurHash3 x64 128, xxHash64)
+ * for fingerprinting lines and feeding sketches.
+ */
+public class HashUtil {
+
+	private static final long C1 = 0x87c37b91114253d5L;
+
+	private static final long C2 = 0x4cf5ad432745937fL;
+
+	private static final long P1 = 0x9E3779B185EBCA87L;
+
+	private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+
+	private static final long P3 = 0x165667B19E3779F9L;
+
+	private static final long P4 = 0x85EBCA77C2B2AE63L;
+
+	private static final long P5 = 0x27D4EB2F165667C5L;
+
+	/**
+	 * compute the 128 bit MurmurHash3 of a byte range.
+	 *
+	 * @param data the bytes
+	 * @param off  the start offset
+	 * @param len  the number of bytes
+	 * @param seed the seed
+	 * @param out  receives the two 64 bit halves of the hash
+	 */
+	public static void murmur3_128(byte[] data, int off, int len, long seed,
+								   long[] out) {
+		long h1 = seed;
+		long h2 = seed;
+		int blocks = len >>> 4;
+		for (int i = 0; i < blocks; i++) {
+			int p = off + (i << 4);
+			long k1 = getLongLE(data, p);
+			long k2 = getLongLE(data, p + 8);
+			h1 ^= mixK1(k1);
+			h1 = Long.rotateLeft(h1, 27);
+			h1 += h2;
+			h1 = h1 * 5 + 0x52dce729;
+			h2 ^= mixK2(k2);
+			h2 = Long.rotateLeft(h2, 31);
+			h2 += h1;
+			h2 = h2 * 5 + 0x38495ab5;
+		}
+
+		int tail = off + (blocks << 4);
+		int rest = len & 15;
+		long k1 = 0;
+		long k2 = 0;
+		for (int i = rest - 1; i >= 8; i--) {
+			k2 ^= (data[tail + i] & 0xFFL) << ((i - 8) << 3);
+		}
+		for (int i = Math.min(rest, 8) - 1; i >= 0; i--) {
+			k1 ^= (data[tail + i] & 0xFFL) << (i << 3);
+		}
+		if (rest > 8) {
+			h2 ^= mixK2(k2);
+		}
+		if (rest > 0) {
+			h1 ^= mixK1(k1);
+		}
+		finish(h1, h2, len, out);
+	}
+
+	/**
+	 * compute the 128 bit MurmurHash3 of the UTF-16LE encoding of a char
+	 * sequence, without encoding it into a byte array.
+	 *
+	 * @param s    the char sequence
+	 * @param seed the seed
+	 * @param out  receives the two 64 bit halves of the hash
+	 */
+	public static void murmur3_128(CharSequence s, long seed, long[] out) {
+		long h1 = seed;
+		long h2 = seed;
+		int length = s.length();
+		int blocks = length >>> 3;
+		for (int i = 0; i < blocks; i++) {
+			int p = i << 3;
+			long k1 = getCharsLE(s, p, 4);
+			long k2 = getCharsLE(s, p + 4, 4);
+			h1 ^= mixK1(k1);
+			h1 = Long.rotateLeft(h1, 27);
+			h1 += h2;
+			h1 = h1 * 5 + 0x52dce729;
+			h2 ^= mixK2(k2);
+			h2 = Long.rotateLeft(h2, 31);
+			h2 += h1;
+			h2 = h2 * 5 + 0x38495ab5;
+		}
+
+		int tail = blocks << 3;
+		int rest = length & 7;
+		if (rest > 4) {
+			h2 ^= mixK2(getCharsLE(s, tail + 4, rest - 4));
+		}
+		if (rest > 0) {
+			h1 ^= mixK1(getCharsLE(s, tail, Math.min(rest, 4)));
+		}
+		finish(h1, h2, (long) length << 1, out);
+	}
+
+	/**
+	 * the first 64 bits of murmur3_128 of a char sequence
+	 */
+	public static long hash64(CharSequence s) {
+		long[] out = new long[2];
+		murmur3_128(s, 0, out);
+		return out[0];
+	}
+
+	/**
+	 * the first 64 bits of murmur3_128 of a byte range
+	 */
+	public static long hash64(byte[] data, int off, int len) {
+		long[] out = new long[2];
+		murmur3_128(data, off, len, 0, out);
+		return out[0];
+	}
+
+	/**
+	 * compute the 64 bit xxHash (XXH64) of a byte range of a buffer, read
+	 * with absolute gets so that neither the position of the buffer nor its
+	 * content is copied. Direct and mapped buffers are hashed in place.
+	 *
+	 * @param buffer the buffer, in any byte order
+	 * @param off    the index of the first byte
+	 * @param len    the number of bytes
+	 * @param seed   the seed
+	 * @return the hash
+	 */
+	public static long xxHash64(ByteBuffer buffer, int off, int len, long seed) {
+		boolean bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+		int end = off + len;
+		int p = off;
+		long h;
+		if (len >= 32) {
+			long v1 = seed + P1 + P2;
+			long v2 = seed + P2;
+			long v3 = seed;
+			long v4 = seed - P1;
+			for (int limit = end - 32; p <= limit; p += 32) {
+				v1 = xxRound(v1, getLongLE(buffer, p, bigEndian));
+				v2 = xxRound(v2, getLongLE(buffer, p + 8, bigEndian));
+				v3 = xxRound(v3, getLongLE(buffer, p + 16, bigEndian));
+				v4 = xxRound(v4, getLongLE(buffer, p + 24, bigEndian));
+			}
+			h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7)
+					+ Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+			h = xxMerge(h, v1);
+			h = xxMerge(h, v2);
+			h = xxMerge(h, v3);
+			h = xxMerge(h, v4);
+		} else {
+			h = seed + P5;
+		}
+		h += len;
+		for (; p + 8 <= end; p += 8) {
+			h ^= xxRound(0, getLongLE(buffer, p, bigEndian));
+			h = Long.rotateLeft(h, 27) * P1 + P4;
+		}
+		if (p + 4 <= end) {
+			int k = buffer.getInt(p);
+			h ^= ((bigEndian ? Integer.reverseBytes(k) : k) & 0xFFFFFFFFL) * P1;
+			h = Long.rotateLeft(h, 23) * P2 + P3;
+			p += 4;
+		}
+		for (; p < end; p++) {
+			h ^= (buffer.get(p) & 0xFFL) * P5;
+			h = Long.rotateLeft(h, 11) * P1;
+		}
+		h ^= h >>> 33;
+		h *= P2;
+		h ^= h >>> 29;
+		h *= P3;
+		h ^= h >>> 32;
+		return h;
+	}
+
+	/**
+	 * the MurmurHash3 64 bit finalizer, a cheap way to spread the bits of an
+	 * already random-ish long
+	 */
+	public static long fmix64(long k) {
+		k ^= k >>> 33;
+		k *= 0xff51afd7ed558ccdL;
+		k ^= k >>> 33;
+		k *= 0xc4ceb9fe1a85ec53L;
+		k ^= k >>> 33;
+		return k;
+	}
+
+	private static void finish(long h1, long h2, long len, long[] out) {
+		h1 ^= len;
+		h2 ^= len;
+		h1 += h2;
+		h2 += h1;
+		h1 = fmix64(h1);
+		h2 = fmix64(h2);
+		h1 += h2;
+		h2 += h1;
+		out[0] = h1;
+		out[1] = h2;
+	}
+
+	private static long mixK1(long k1) {
+		k1 *= C1;
+		k1 = Long.rotateLeft(k1, 31);
+		k1 *= C2;
+		return k1;
+	}
+
+	private static long mixK2(long k2) {
+		k2 *= C2;
+		k2 = Long.rotateLeft(k2, 33);
+		k2 *= C1;
+		return k2;
+	}
+
+	private static long getLongLE(byte[] data, int p) {
+		return (data[p] & 0xFFL) | (data[p + 1] & 0xFFL) << 8
+				| (data[p + 2] & 0xFFL) << 16 | (data[p + 3] & 0xFFL) << 24
+				| (data[p + 4] & 0xFFL) << 32 | (data[p + 5] & 0xFFL) << 40
+				| (data[p + 6] & 0xFFL) << 48 | (data[p + 7] & 0xFFL) << 56;
+	}
+
+	private static long xxRound(long acc, long input) {
+		acc += input * P2;
+		acc = Long.rotateLeft(acc, 31);
+		return acc * P1;
+	}
+
+	private static long xxMerge(long acc, long value) {
+		acc ^= xxRound(0, value);
+		return acc * P1 + P4;
+	}
+
+	private static long getLongLE(ByteBuffer buffer, int p, boolean bigEndian) {
+		long k = buffer.getLong(p);
+		return bigEndian ? Long.reverseBytes(k) : k;
+	}
+
+	private static long getCharsLE(CharSequence s, int p, int count) {
+		long k = 0;
+		for (int i = 0; i < count; i++) {
+			k |= (long) s.charAt(p + i) << (i << 4);
+		}
+		return k;
+	}
+}
@@ -0,0 +1,367 @@
+package util.common;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Find the K most frequent values of a stream in bounded memory, however
+ * many distinct values it has. A CountMinSketch counts every value
+ * approximately, and a Space-Saving summary monitors the values with the
+ * highest estimates: a value which is not monitored replaces the lowest
+ * monitored one only once its estimate exceeds it, so the summary barely
+ * churns and a value is decoded to a String only when it is admitted.
+ * <p>
+ * Counts are Count-Min estimates: never below the real count, and above it
+ * by at most getError() with probability getConfidence(). Summaries with the
+ * same k and error settings can be merged, e.g. per-thread partial results,
+ * and are Serializable. A summary is not thread safe.
+ */
+public class HeavyHitters implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final int k;
+
+	/**
+	 * number of values monitored, more than k so that values ranked just
+	 * below k are not lost when the counts are close
+	 */
+	private final int capacity;
+
+	private final CountMinSketch sketch;
+
+	private final long[] hashes;
+
+	private final long[] counts;
+
+	private final String[] values;
+
+	private int size;
+
+	/**
+	 * a min-heap of entries by count
+	 */
+	private final int[] heap;
+
+	private final int[] heapPositions;
+
+	/**
+	 * entry + 1 per slot, 0 for an empty slot
+	 */
+	private final int[] slots;
+
+	private transient long[] hash;
+
+	private transient byte[] scratch;
+
+	/**
+	 * @param k       the number of values reported
+	 * @param epsilon the overestimate allowed, relative to the total count
+	 * @param delta   the probability that a count exceeds it
+	 */
+	public HeavyHitters(int k, double epsilon, double delta) {
+		if (k < 1) {
+			throw new IllegalArgumentException("k must be positive: " + k);
+		}
+		this.k = k;
+		this.capacity = Math.max(2 * k, k + 16);
+		this.sketch = CountMinSketch.withError(epsilon, delta);
+		this.hashes = new long[capacity];
+		this.counts = new long[capacity];
+		this.values = new String[capacity];
+		this.heap = new int[capacity];
+		this.heapPositions = new int[capacity];
+		this.slots = new int[Integer.highestOneBit(capacity * 4 - 1) << 1];
+	}
+
+	/**
+	 * a summary whose counts are within 0.01% of the total count with 99%
+	 * confidence
+	 */
+	public HeavyHitters(int k) {
+		this(k, 0.0001, 0.01);
+	}
+
+	public int getK() {
+		return k;
+	}
+
+	/**
+	 * @return the number of values offered
+	 */
+	public long getTotal() {
+		return sketch.getTotal();
+	}
+
+	/**
+	 * @return the bound, in counts, by which a reported count may exceed the
+	 * real one
+	 */
+	public long getError() {
+		return sketch.getError();
+	}
+
+	/**
+	 * @return the probability that a reported count respects getError()
+	 */
+	public double getConfidence() {
+		return sketch.getConfidence();
+	}
+
+	/**
+	 * offer one occurrence of a value given as UTF-8 bytes
+	 */
+	public void offer(byte[] value, int off, int len) {
+		if (hash == null) {
+			hash = new long[2];
+		}
+		HashUtil.murmur3_128(value, off, len, 0, hash);
+		long h = hash[0];
+		long count = sketch.addAndEstimate(h, 1);
+		int slot = find(h);
+		int entry = slots[slot] - 1;
+		if (entry >= 0) {
+			counts[entry] = count;
+			siftDown(heapPositions[entry]);
+		} else if (size < capacity) {
+			entry = size++;
+			set(entry, slot, h, count, new String(value, off, len, UTF_8));
+			heap[entry] = entry;
+			heapPositions[entry] = entry;
+			siftUp(entry);
+		} else if (count > counts[heap[0]]) {
+			replaceMin(h, count, new String(value, off, len, UTF_8));
+		}
+	}
+
+	/**
+	 * offer one occurrence of a value given as the UTF-8 bytes in
+	 * buffer[from, to)
+	 */
+	public void offer(ByteBuffer buffer, int from, int to) {
+		int len = to - from;
+		if (scratch == null || scratch.length < len) {
+			scratch = new byte[Math.max(len, 256)];
+		}
+		for (int i = 0; i < len; i++) {
+			scratch[i] = buffer.get(from + i);
+		}
+		offer(scratch, 0, len);
+	}
+
+	/**
+	 * offer one occurrence of a value
+	 */
+	public void offer(String value) {
+		byte[] bytes = value.getBytes(UTF_8);
+		offer(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * fold another summary into this one, which then covers the values
+	 * offered to either.
+	 *
+	 * @param other a summary built with the same k, epsilon and delta
+	 */
+	public void merge(HeavyHitters other) {
+		if (other.k != k) {
+			throw new IllegalArgumentException("cannot merge k = " + other.k
+					+ " into k = " + k);
+		}
+		sketch.merge(other.sketch);
+		// re-estimate the values monitored by either against the merged sketch
+		for (int i = 0; i < size; i++) {
+			counts[i] = sketch.estimate(hashes[i]);
+		}
+		for (int i = 0; i < size; i++) {
+			heap[i] = i;
+			heapPositions[i] = i;
+		}
+		for (int i = size / 2 - 1; i >= 0; i--) {
+			siftDown(i);
+		}
+		for (int i = 0; i < other.size; i++) {
+			long h = other.hashes[i];
+			int slot = find(h);
+			if (slots[slot] != 0) {
+				continue;
+			}
+			long count = sketch.estimate(h);
+			if (size < capacity) {
+				int entry = size++;
+				set(entry, slot, h, count, other.values[i]);
+				heap[entry] = entry;
+				heapPositions[entry] = entry;
+				siftUp(entry);
+			} else if (count > counts[heap[0]]) {
+				replaceMin(h, count, other.values[i]);
+			}
+		}
+	}
+
+	/**
+	 * @return the k most frequent values found, by descending count
+	 */
+	public List<Item> top() {
+		Integer[] order = new Integer[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				int c = Long.compare(counts[b], counts[a]);
+				return c != 0 ? c : values[a].compareTo(values[b]);
+			}
+		});
+		long error = getError();
+		List<Item> items = new ArrayList<Item>(Math.min(k, size));
+		for (int i = 0; i < order.length && i < k; i++) {
+			items.add(new Item(values[order[i]], counts[order[i]], error));
+		}
+		return Collections.unmodifiableList(items);
+	}
+
+	private void set(int entry, int slot, long h, long count, String value) {
+		hashes[entry] = h;
+		counts[entry] = count;
+		values[entry] = value;
+		slots[slot] = entry + 1;
+	}
+
+	/**
+	 * evict the monitored value with the lowest count for a new one
+	 */
+	private void replaceMin(long h, long count, String value) {
+		int entry = heap[0];
+		remove(hashes[entry]);
+		set(entry, find(h), h, count, value);
+		siftDown(0);
+	}
+
+	/**
+	 * @return the slot holding the hash, or the empty slot where it belongs
+	 */
+	private int find(long h) {
+		int mask = slots.length - 1;
+		int slot = (int) HashUtil.fmix64(h) & mask;
+		while (slots[slot] != 0 && hashes[slots[slot] - 1] != h) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * delete a hash from the table, shifting back the entries probed past it
+	 */
+	private void remove(long h) {
+		int mask = slots.length - 1;
+		int hole = find(h);
+		slots[hole] = 0;
+		int slot = (hole + 1) & mask;
+		while (slots[slot] != 0) {
+			int home = (int) HashUtil.fmix64(hashes[slots[slot] - 1]) & mask;
+			// move the entry if its home is not in (hole, slot]
+			if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+				slots[hole] = slots[slot];
+				slots[slot] = 0;
+				hole = slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private void siftUp(int position) {
+		int entry = heap[position];
+		while (position > 0) {
+			int parent = (position - 1) >>> 1;
+			if (counts[heap[parent]] <= counts[entry]) {
+				break;
+			}
+			place(heap[parent], position);
+			position = parent;
+		}
+		place(entry, position);
+	}
+
+	private void siftDown(int position) {
+		int entry = heap[position];
+		while (true) {
+			int child = 2 * position + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && counts[heap[child + 1]] < counts[heap[child]]) {
+				child++;
+			}
+			if (counts[heap[child]] >= counts[entry]) {
+				break;
+			}
+			place(heap[child], position);
+			position = child;
+		}
+		place(entry, position);
+	}
+
+	private void place(int entry, int position) {
+		heap[position] = entry;
+		heapPositions[entry] = position;
+	}
+
+	/**
+	 * a frequent value and its estimated count
+	 */
+	public static class Item implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String value;
+
+		private final long count;
+
+		private final long error;
+
+		Item(String value, long count, long error) {
+			this.value = value;
+			this.count = count;
+			this.error = error;
+		}
+
+		public String getValue() {
+			return value;
+		}
+
+		/**
+		 * @return the estimated count, never below the real one
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * @return the bound by which the count may exceed the real one
+		 */
+		public long getError() {
+			return error;
+		}
+
+		/**
+		 * @return the lowest the real count can be, within the confidence
+		 */
+		public long getLowerBound() {
+			return Math.max(0, count - error);
+		}
+
+		@Override
+		public String toString() {
+			return value + "\t" + count + " (+/-" + error + ")";
+		}
+	}
+}
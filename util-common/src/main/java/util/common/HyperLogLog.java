@@ -0,0 +1,209 @@
+package util.common;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * A HyperLogLog sketch estimating the number of distinct values offered to
+ * it, in a constant 2^precision bytes whatever the number of values. Values
+ * are hashed with 64 bit MurmurHash3 of their UTF-8 bytes, so that sketches
+ * built from strings and from raw file bytes agree. Sketches of the same
+ * precision can be merged, e.g. those of several files or threads, and
+ * written to bytes to be combined later.
+ * <p>
+ * The standard error of the estimate is about 1.04 / sqrt(2^precision): 1.6%
+ * for the default precision 12 (4KB), 0.4% for precision 16 (64KB). Small
+ * cardinalities are counted by linear counting and are nearly exact. The
+ * sketch is not thread safe; give each thread its own and merge them.
+ */
+public class HyperLogLog implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final int MIN_PRECISION = 4;
+
+	public static final int MAX_PRECISION = 18;
+
+	public static final int DEFAULT_PRECISION = 12;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * leading byte of the serialized form, followed by the precision and the
+	 * registers
+	 */
+	private static final byte FORMAT = 1;
+
+	private final int precision;
+
+	/**
+	 * per register, the largest rank (position of the first 1 bit after the
+	 * index bits) seen
+	 */
+	private final byte[] registers;
+
+	public HyperLogLog(int precision) {
+		if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+			throw new IllegalArgumentException("precision must be from "
+					+ MIN_PRECISION + " to " + MAX_PRECISION + ": " + precision);
+		}
+		this.precision = precision;
+		this.registers = new byte[1 << precision];
+	}
+
+	public HyperLogLog() {
+		this(DEFAULT_PRECISION);
+	}
+
+	public int getPrecision() {
+		return precision;
+	}
+
+	/**
+	 * @return the standard error of the estimate, relative to the cardinality
+	 */
+	public double relativeError() {
+		return 1.04 / Math.sqrt(registers.length);
+	}
+
+	/**
+	 * offer a value by its 64 bit hash, which must be well mixed, e.g. from
+	 * HashUtil.
+	 */
+	public void offerHash(long hash) {
+		int index = (int) (hash >>> (64 - precision));
+		// a sentinel bit keeps the rank within 64 - precision + 1
+		long rest = (hash << precision) | (1L << (precision - 1));
+		byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+		if (registers[index] < rank) {
+			registers[index] = rank;
+		}
+	}
+
+	/**
+	 * offer a value given as bytes
+	 */
+	public void offer(byte[] value, int off, int len) {
+		offerHash(HashUtil.hash64(value, off, len));
+	}
+
+	/**
+	 * offer a value by its UTF-8 bytes
+	 */
+	public void offer(String value) {
+		byte[] bytes = value.getBytes(UTF_8);
+		offerHash(HashUtil.hash64(bytes, 0, bytes.length));
+	}
+
+	/**
+	 * @return the estimated number of distinct values offered
+	 */
+	public long cardinality() {
+		int m = registers.length;
+		double sum = 0;
+		int zeros = 0;
+		for (byte register : registers) {
+			sum += 1.0 / (1L << register);
+			if (register == 0) {
+				zeros++;
+			}
+		}
+		double estimate = alpha(m) * m * m / sum;
+		if (estimate <= 2.5 * m && zeros > 0) {
+			// linear counting is more accurate for small cardinalities
+			estimate = m * Math.log((double) m / zeros);
+		}
+		return Math.round(estimate);
+	}
+
+	/**
+	 * fold another sketch into this one, which then estimates the distinct
+	 * values offered to either.
+	 *
+	 * @param other a sketch of the same precision
+	 */
+	public void merge(HyperLogLog other) {
+		if (other.precision != precision) {
+			throw new IllegalArgumentException("cannot merge precision "
+					+ other.precision + " into " + precision);
+		}
+		for (int i = 0; i < registers.length; i++) {
+			if (registers[i] < other.registers[i]) {
+				registers[i] = other.registers[i];
+			}
+		}
+	}
+
+	public void clear() {
+		Arrays.fill(registers, (byte) 0);
+	}
+
+	/**
+	 * @return the sketch as compact bytes, see fromByteArray()
+	 */
+	public byte[] toByteArray() {
+		byte[] bytes = new byte[2 + registers.length];
+		bytes[0] = FORMAT;
+		bytes[1] = (byte) precision;
+		System.arraycopy(registers, 0, bytes, 2, registers.length);
+		return bytes;
+	}
+
+	/**
+	 * @param bytes bytes from toByteArray()
+	 * @return the sketch
+	 */
+	public static HyperLogLog fromByteArray(byte[] bytes) {
+		if (bytes.length < 2 || bytes[0] != FORMAT) {
+			throw new IllegalArgumentException("not a serialized HyperLogLog");
+		}
+		HyperLogLog sketch = new HyperLogLog(bytes[1]);
+		if (bytes.length != 2 + sketch.registers.length) {
+			throw new IllegalArgumentException("expected "
+					+ (2 + sketch.registers.length) + " bytes, got "
+					+ bytes.length);
+		}
+		System.arraycopy(bytes, 2, sketch.registers, 0, sketch.registers.length);
+		return sketch;
+	}
+
+	/**
+	 * write the sketch to a file, see readFrom()
+	 */
+	public void writeTo(File file) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(toByteArray());
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * read a sketch written by writeTo()
+	 */
+	public static HyperLogLog readFrom(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			byte[] bytes = new byte[(int) file.length()];
+			in.readFully(bytes);
+			return fromByteArray(bytes);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static double alpha(int m) {
+		switch (m) {
+			case 16:
+				return 0.673;
+			case 32:
+				return 0.697;
+			case 64:
+				return 0.709;
+			default:
+				return 0.7213 / (1 + 1.079 / m);
+		}
+	}
+}
@@ -0,0 +1,237 @@
+package util.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A compiled set of keywords which finds all of them in a text in a single
+ * pass (Aho-Corasick automaton), so the cost of a search is linear in the
+ * length of the text whatever the number of keywords. The automaton is kept
+ * in primitive arrays; a matcher is immutable once built and may be shared
+ * between threads.
+ */
+public class KeywordMatcher {
+
+	private static final int ROOT = 0;
+
+	private final String[] keywords;
+
+	/**
+	 * goto transitions, keyed by (state << 16 | char), in an open-addressing
+	 * table
+	 */
+	private long[] edgeKeys;
+
+	private int[] edgeTargets;
+
+	private int edgeMask;
+
+	private int edgeCount;
+
+	private int stateCount;
+
+	private int[] failure;
+
+	/**
+	 * the keyword ending at each state, -1 if none
+	 */
+	private int[] output;
+
+	/**
+	 * the nearest state on the failure chain which ends a keyword, -1 if none
+	 */
+	private int[] outputLink;
+
+	/**
+	 * compile the keywords; empty and duplicate keywords are ignored.
+	 *
+	 * @param keywords the keywords to search for
+	 */
+	public KeywordMatcher(Collection<String> keywords) {
+		List<String> distinct = new ArrayList<String>(keywords.size());
+		int totalLength = 0;
+		for (String keyword : keywords) {
+			if (keyword != null && !keyword.isEmpty()) {
+				totalLength += keyword.length();
+			}
+		}
+		int capacity = 16;
+		while (capacity < (totalLength + 1) * 2) {
+			capacity <<= 1;
+		}
+		edgeKeys = new long[capacity];
+		Arrays.fill(edgeKeys, -1L);
+		edgeTargets = new int[capacity];
+		edgeMask = capacity - 1;
+		output = new int[totalLength + 1];
+		Arrays.fill(output, -1);
+		stateCount = 1;
+
+		for (String keyword : keywords) {
+			if (keyword == null || keyword.isEmpty()) {
+				continue;
+			}
+			int state = ROOT;
+			for (int i = 0; i < keyword.length(); i++) {
+				char c = keyword.charAt(i);
+				int next = edge(state, c);
+				if (next < 0) {
+					next = stateCount++;
+					putEdge(state, c, next);
+				}
+				state = next;
+			}
+			if (output[state] < 0) {
+				output[state] = distinct.size();
+				distinct.add(keyword);
+			}
+		}
+		this.keywords = distinct.toArray(new String[distinct.size()]);
+		buildFailureLinks();
+	}
+
+	/**
+	 * @return the number of distinct keywords
+	 */
+	public int size() {
+		return keywords.length;
+	}
+
+	/**
+	 * check whether the text contains any of the keywords.
+	 *
+	 * @param text the text to search
+	 * @return true as soon as one keyword is found
+	 */
+	public boolean containsAny(CharSequence text) {
+		return findFirst(text) != null;
+	}
+
+	/**
+	 * find the keyword which ends first in the text.
+	 *
+	 * @param text the text to search
+	 * @return the keyword, or null if the text contains none
+	 */
+	public String findFirst(CharSequence text) {
+		int state = ROOT;
+		for (int i = 0; i < text.length(); i++) {
+			state = step(state, text.charAt(i));
+			if (output[state] >= 0) {
+				return keywords[output[state]];
+			}
+			if (outputLink[state] >= 0) {
+				return keywords[output[outputLink[state]]];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * find every occurrence of every keyword in the text, overlapping ones
+	 * included.
+	 *
+	 * @param text the text to search
+	 * @return the keywords found, in the order their occurrences end
+	 */
+	public List<String> findAll(CharSequence text) {
+		List<String> result = new ArrayList<String>();
+		int state = ROOT;
+		for (int i = 0; i < text.length(); i++) {
+			state = step(state, text.charAt(i));
+			int match = output[state] >= 0 ? state : outputLink[state];
+			while (match >= 0) {
+				result.add(keywords[output[match]]);
+				match = outputLink[match];
+			}
+		}
+		return result;
+	}
+
+	private int step(int state, char c) {
+		while (true) {
+			int next = edge(state, c);
+			if (next >= 0) {
+				return next;
+			}
+			if (state == ROOT) {
+				return ROOT;
+			}
+			state = failure[state];
+		}
+	}
+
+	private void buildFailureLinks() {
+		failure = new int[stateCount];
+		outputLink = new int[stateCount];
+		Arrays.fill(outputLink, -1);
+		output = Arrays.copyOf(output, stateCount);
+
+		// children of each state, to walk the trie breadth first
+		int[] childCount = new int[stateCount + 1];
+		for (int i = 0; i < edgeKeys.length; i++) {
+			if (edgeKeys[i] >= 0) {
+				childCount[(int) (edgeKeys[i] >>> 16) + 1]++;
+			}
+		}
+		for (int s = 0; s < stateCount; s++) {
+			childCount[s + 1] += childCount[s];
+		}
+		int[] childEdges = new int[edgeCount];
+		int[] fill = Arrays.copyOf(childCount, stateCount);
+		for (int i = 0; i < edgeKeys.length; i++) {
+			if (edgeKeys[i] >= 0) {
+				childEdges[fill[(int) (edgeKeys[i] >>> 16)]++] = i;
+			}
+		}
+
+		int[] queue = new int[stateCount];
+		int head = 0;
+		int tail = 0;
+		queue[tail++] = ROOT;
+		while (head < tail) {
+			int state = queue[head++];
+			for (int e = childCount[state]; e < childCount[state + 1]; e++) {
+				int slot = childEdges[e];
+				char c = (char) (edgeKeys[slot] & 0xFFFF);
+				int child = edgeTargets[slot];
+				if (state == ROOT) {
+					failure[child] = ROOT;
+				} else {
+					failure[child] = step(failure[state], c);
+				}
+				int f = failure[child];
+				outputLink[child] = output[f] >= 0 ? f : outputLink[f];
+				queue[tail++] = child;
+			}
+		}
+	}
+
+	private int edge(int state, char c) {
+		long key = (long) state << 16 | c;
+		int slot = (int) HashUtil.fmix64(key) & edgeMask;
+		while (true) {
+			long k = edgeKeys[slot];
+			if (k == key) {
+				return edgeTargets[slot];
+			}
+			if (k < 0) {
+				return -1;
+			}
+			slot = (slot + 1) & edgeMask;
+		}
+	}
+
+	private void putEdge(int state, char c, int target) {
+		long key = (long) state << 16 | c;
+		int slot = (int) HashUtil.fmix64(key) & edgeMask;
+		while (edgeKeys[slot] >= 0) {
+			slot = (slot + 1) & edgeMask;
+		}
+		edgeKeys[slot] = key;
+		edgeTargets[slot] = target;
+		edgeCount++;
+	}
+}
@@ -0,0 +1,341 @@
+package util.file;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Append to a file from many threads without opening it for every write.
+ * Writers encode their content and publish it into a bounded lock-free ring
+ * buffer; a single background thread keeps the file channel open, drains
+ * the ring into a direct buffer and writes it in one call once the batch
+ * reaches batchSize bytes or its oldest content is flushInterval old, so
+ * that many small appends become one write (group commit).
+ * <p>
+ * When the ring is full, writers wait for the background thread. Content is
+ * written in the order writers published it, and the content of one call is
+ * never interleaved with another. flush() waits until what was appended is
+ * written, sync() also forces it to the disk, and close() must be called to
+ * write, force and close everything: the background thread is a daemon and
+ * what it has not written is lost if the JVM exits before.
+ */
+public class AsyncFileAppender implements Closeable {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	public static final int DEFAULT_BATCH_SIZE = 1024 * 1024;
+
+	public static final long DEFAULT_FLUSH_INTERVAL = 100;
+
+	public static final int DEFAULT_RING_SIZE = 4096;
+
+	/**
+	 * bit of tail set once the appender is closed
+	 */
+	private static final long CLOSED = 1L << 62;
+
+	/**
+	 * how long a waiting writer parks before it checks the ring again
+	 */
+	private static final long WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+	private final File file;
+
+	private final FileOutputStream out;
+
+	private final FileChannel channel;
+
+	private final int batchSize;
+
+	private final long flushIntervalNanos;
+
+	private final int mask;
+
+	/**
+	 * the content published in each slot
+	 */
+	private final byte[][] entries;
+
+	/**
+	 * per slot, the sequence a writer may claim it at, then that sequence + 1
+	 * once the content is published
+	 */
+	private final AtomicLongArray sequences;
+
+	/**
+	 * the next sequence to claim, with the CLOSED bit
+	 */
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * the next sequence to drain, only touched by the background thread
+	 */
+	private long head;
+
+	/**
+	 * every sequence below this has been written to the channel
+	 */
+	private volatile long written;
+
+	private volatile boolean flushRequested;
+
+	private volatile boolean idle;
+
+	private volatile IOException failure;
+
+	private final Thread worker;
+
+	/**
+	 * @param file          the file to append to
+	 * @param append        false to truncate the file first
+	 * @param batchSize     the bytes gathered before a write
+	 * @param flushInterval the longest time, in milliseconds, content waits
+	 *                      for its batch to fill up
+	 * @param ringSize      the number of appends which can wait for the
+	 *                      background thread, rounded up to a power of two
+	 * @throws IOException
+	 */
+	public AsyncFileAppender(File file, boolean append, int batchSize,
+							 long flushInterval, int ringSize) throws IOException {
+		if (batchSize < 1 || flushInterval < 0 || ringSize < 1
+				|| ringSize > 1 << 30) {
+			throw new IllegalArgumentException("invalid batchSize "
+					+ batchSize + ", flushInterval " + flushInterval
+					+ " or ringSize " + ringSize);
+		}
+		this.file = file;
+		this.batchSize = batchSize;
+		this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushInterval);
+		int capacity = 1;
+		while (capacity < ringSize) {
+			capacity <<= 1;
+		}
+		this.mask = capacity - 1;
+		this.entries = new byte[capacity][];
+		this.sequences = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++) {
+			sequences.set(i, i);
+		}
+		this.out = new FileOutputStream(file, append);
+		this.channel = out.getChannel();
+		this.worker = new Thread(new Runnable() {
+			public void run() {
+				drainLoop();
+			}
+		}, "AsyncFileAppender-" + file.getName());
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	public AsyncFileAppender(File file, boolean append) throws IOException {
+		this(file, append, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL,
+				DEFAULT_RING_SIZE);
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * append a string, encoded as UTF-8.
+	 *
+	 * @throws IOException           if an earlier write failed
+	 * @throws IllegalStateException if the appender is closed
+	 */
+	public void append(String content) throws IOException {
+		append(content.getBytes(UTF_8));
+	}
+
+	/**
+	 * append bytes. The array must not be modified afterwards.
+	 *
+	 * @throws IOException           if an earlier write failed
+	 * @throws IllegalStateException if the appender is closed
+	 */
+	public void append(byte[] content) throws IOException {
+		while (true) {
+			checkFailure();
+			long sequence = tail.get();
+			if ((sequence & CLOSED) != 0) {
+				throw new IllegalStateException(file + " appender is closed");
+			}
+			int slot = (int) sequence & mask;
+			long available = sequences.get(slot);
+			if (available == sequence) {
+				if (tail.compareAndSet(sequence, sequence + 1)) {
+					entries[slot] = content;
+					// a full fence, so that the worker cannot miss it and park
+					sequences.set(slot, sequence + 1);
+					if (idle) {
+						LockSupport.unpark(worker);
+					}
+					return;
+				}
+			} else if (available < sequence) {
+				// the ring is full: let the background thread catch up
+				LockSupport.unpark(worker);
+				LockSupport.parkNanos(this, WAIT_NANOS);
+			}
+		}
+	}
+
+	/**
+	 * wait until everything appended before the call is written to the file.
+	 *
+	 * @throws IOException if a write failed
+	 */
+	public void flush() throws IOException {
+		long target = tail.get() & ~CLOSED;
+		while (written < target) {
+			checkFailure();
+			if (!worker.isAlive()) {
+				throw new IOException(file + " appender stopped");
+			}
+			flushRequested = true;
+			LockSupport.unpark(worker);
+			LockSupport.parkNanos(this, WAIT_NANOS);
+			if (Thread.interrupted()) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("interrupted while flushing "
+						+ file);
+			}
+		}
+		checkFailure();
+	}
+
+	/**
+	 * like flush(), and force the content to the disk.
+	 *
+	 * @throws IOException if a write failed
+	 */
+	public void sync() throws IOException {
+		flush();
+		channel.force(false);
+	}
+
+	/**
+	 * stop accepting appends, write everything appended, force it to the
+	 * disk and close the file. Calling it again has no effect.
+	 *
+	 * @throws IOException if a write failed
+	 */
+	public void close() throws IOException {
+		long sequence;
+		do {
+			sequence = tail.get();
+		} while ((sequence & CLOSED) == 0
+				&& !tail.compareAndSet(sequence, sequence | CLOSED));
+		LockSupport.unpark(worker);
+		boolean interrupted = false;
+		while (worker.isAlive()) {
+			try {
+				worker.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			if (channel.isOpen()) {
+				checkFailure();
+				channel.force(true);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private void checkFailure() throws IOException {
+		IOException e = failure;
+		if (e != null) {
+			throw new IOException("writing " + file + " failed", e);
+		}
+	}
+
+	/**
+	 * the loop of the background thread
+	 */
+	private void drainLoop() {
+		ByteBuffer batch = ByteBuffer.allocateDirect(batchSize);
+		long pendingSince = 0;
+		try {
+			while (true) {
+				long claimed = tail.get();
+				boolean closing = (claimed & CLOSED) != 0;
+				int drained = 0;
+				while (true) {
+					int slot = (int) head & mask;
+					if (sequences.get(slot) != head + 1) {
+						break;
+					}
+					byte[] content = entries[slot];
+					entries[slot] = null;
+					sequences.lazySet(slot, head + mask + 1);
+					head++;
+					drained++;
+					if (batch.position() == 0) {
+						pendingSince = System.nanoTime();
+					}
+					if (content.length > batch.remaining()) {
+						write(batch);
+					}
+					if (content.length > batch.capacity()) {
+						writeFully(ByteBuffer.wrap(content));
+					} else {
+						batch.put(content);
+					}
+				}
+
+				if (batch.position() > 0
+						&& (batch.position() >= batchSize || flushRequested
+						|| closing || System.nanoTime() - pendingSince
+						>= flushIntervalNanos)) {
+					flushRequested = false;
+					write(batch);
+				}
+				if (batch.position() == 0) {
+					written = head;
+				}
+				if (closing && head == (claimed & ~CLOSED)) {
+					return;
+				}
+				if (drained == 0) {
+					idle = true;
+					int slot = (int) head & mask;
+					if (sequences.get(slot) != head + 1 && !flushRequested) {
+						long wait = batch.position() == 0 ? flushIntervalNanos
+								+ WAIT_NANOS : flushIntervalNanos
+								- (System.nanoTime() - pendingSince);
+						LockSupport.parkNanos(this, Math.max(WAIT_NANOS, wait));
+					}
+					idle = false;
+				}
+			}
+		} catch (IOException e) {
+			failure = e;
+		}
+	}
+
+	private void write(ByteBuffer batch) throws IOException {
+		batch.flip();
+		writeFully(batch);
+		batch.clear();
+	}
+
+	private void writeFully(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+}
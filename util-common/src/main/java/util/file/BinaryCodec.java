@@ -0,0 +1,365 @@
+package util.file;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * A compact binary format for the collections we persist most: maps from a
+ * string to a set of strings (e.g. from ResultSetUtil.parseAsMapStringSet),
+ * maps from a string to a count (e.g. from statisticsPredicate) and string
+ * lists. Each distinct string is stored once, as length-prefixed UTF-8, in a
+ * table at the head of the file; the collections then refer to the strings
+ * by index, with every number written as a variable-length integer. A
+ * reader decodes each distinct string once and shares it among all the
+ * places it occurs.
+ * <p>
+ * Files are read back either from the heap or through a memory mapping,
+ * which avoids copying the file first; both are limited to 2GB. Iteration
+ * order is kept for maps and lists.
+ */
+public class BinaryCodec {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final int MAGIC = 0x55544243; // "UTBC"
+
+	private static final int VERSION = 1;
+
+	private static final int STRING_SET_MAP = 1;
+
+	private static final int LONG_MAP = 2;
+
+	private static final int STRING_LIST = 3;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * write a map from strings to sets of strings.
+	 *
+	 * @param file the file to write, replaced if it exists
+	 * @param map  the map, without null keys or values
+	 * @throws IOException
+	 */
+	public static void writeStringSetMap(File file,
+										 Map<String, ? extends Collection<String>> map) throws IOException {
+		StringTable table = new StringTable();
+		for (Map.Entry<String, ? extends Collection<String>> entry : map
+				.entrySet()) {
+			table.add(entry.getKey());
+			for (String value : entry.getValue()) {
+				table.add(value);
+			}
+		}
+		DataOutputStream out = open(file, STRING_SET_MAP, table);
+		try {
+			writeVarInt(out, map.size());
+			for (Map.Entry<String, ? extends Collection<String>> entry : map
+					.entrySet()) {
+				writeVarInt(out, table.index(entry.getKey()));
+				writeVarInt(out, entry.getValue().size());
+				for (String value : entry.getValue()) {
+					writeVarInt(out, table.index(value));
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * write a map from strings to longs.
+	 *
+	 * @param file the file to write, replaced if it exists
+	 * @param map  the map, without null keys or values
+	 * @throws IOException
+	 */
+	public static void writeLongMap(File file, Map<String, Long> map)
+			throws IOException {
+		StringTable table = new StringTable();
+		for (String key : map.keySet()) {
+			table.add(key);
+		}
+		DataOutputStream out = open(file, LONG_MAP, table);
+		try {
+			writeVarInt(out, map.size());
+			for (Map.Entry<String, Long> entry : map.entrySet()) {
+				writeVarInt(out, table.index(entry.getKey()));
+				long value = entry.getValue();
+				// zigzag, so that small negative values stay short
+				writeVarLong(out, (value << 1) ^ (value >> 63));
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * write a list of strings.
+	 *
+	 * @param file the file to write, replaced if it exists
+	 * @param list the strings, without null
+	 * @throws IOException
+	 */
+	public static void writeStringList(File file, Collection<String> list)
+			throws IOException {
+		StringTable table = new StringTable();
+		for (String value : list) {
+			table.add(value);
+		}
+		DataOutputStream out = open(file, STRING_LIST, table);
+		try {
+			writeVarInt(out, list.size());
+			for (String value : list) {
+				writeVarInt(out, table.index(value));
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * read a map written by writeStringSetMap().
+	 *
+	 * @param file   the file to read
+	 * @param mapped true to read through a memory mapping
+	 * @return the map
+	 * @throws IOException if the file is not such a map
+	 */
+	public static HashMap<String, HashSet<String>> readStringSetMap(File file,
+																	boolean mapped) throws IOException {
+		ByteBuffer in = load(file, mapped);
+		String[] strings = readHeader(in, file, STRING_SET_MAP);
+		int size = readCount(in, file);
+		HashMap<String, HashSet<String>> map = new LinkedHashMap<String, HashSet<String>>(
+				capacity(size));
+		for (int i = 0; i < size; i++) {
+			String key = string(strings, readVarInt(in), file);
+			int count = readCount(in, file);
+			HashSet<String> values = new LinkedHashSet<String>(capacity(count));
+			for (int j = 0; j < count; j++) {
+				values.add(string(strings, readVarInt(in), file));
+			}
+			map.put(key, values);
+		}
+		return map;
+	}
+
+	/**
+	 * read a map written by writeLongMap().
+	 *
+	 * @param file   the file to read
+	 * @param mapped true to read through a memory mapping
+	 * @return the map
+	 * @throws IOException if the file is not such a map
+	 */
+	public static LinkedHashMap<String, Long> readLongMap(File file,
+														  boolean mapped) throws IOException {
+		ByteBuffer in = load(file, mapped);
+		String[] strings = readHeader(in, file, LONG_MAP);
+		int size = readCount(in, file);
+		LinkedHashMap<String, Long> map = new LinkedHashMap<String, Long>(
+				capacity(size));
+		for (int i = 0; i < size; i++) {
+			String key = string(strings, readVarInt(in), file);
+			long zigzag = readVarLong(in);
+			map.put(key, (zigzag >>> 1) ^ -(zigzag & 1));
+		}
+		return map;
+	}
+
+	/**
+	 * read a list written by writeStringList().
+	 *
+	 * @param file   the file to read
+	 * @param mapped true to read through a memory mapping
+	 * @return the list
+	 * @throws IOException if the file is not such a list
+	 */
+	public static ArrayList<String> readStringList(File file, boolean mapped)
+			throws IOException {
+		ByteBuffer in = load(file, mapped);
+		String[] strings = readHeader(in, file, STRING_LIST);
+		int size = readCount(in, file);
+		ArrayList<String> list = new ArrayList<String>(size);
+		for (int i = 0; i < size; i++) {
+			list.add(string(strings, readVarInt(in), file));
+		}
+		return list;
+	}
+
+	/**
+	 * create the file and write the header and the string table
+	 */
+	private static DataOutputStream open(File file, int kind, StringTable table)
+			throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file), BUFFER_SIZE));
+		try {
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			out.writeByte(kind);
+			writeVarInt(out, table.strings.size());
+			for (String string : table.strings) {
+				byte[] bytes = string.getBytes(UTF_8);
+				writeVarInt(out, bytes.length);
+				out.write(bytes);
+			}
+			return out;
+		} catch (IOException e) {
+			out.close();
+			throw e;
+		}
+	}
+
+	private static ByteBuffer load(File file, boolean mapped)
+			throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException(file + " is larger than 2GB");
+			}
+			if (mapped) {
+				return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			}
+			ByteBuffer buffer = ByteBuffer.allocate((int) size);
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) < 0) {
+					throw new EOFException("unexpected end of " + file);
+				}
+			}
+			buffer.flip();
+			return buffer;
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * check the header and decode the string table
+	 */
+	private static String[] readHeader(ByteBuffer in, File file, int kind)
+			throws IOException {
+		try {
+			if (in.remaining() < 6 || in.getInt() != MAGIC) {
+				throw new IOException(file + " is not a binary codec file");
+			}
+			int version = in.get();
+			if (version != VERSION) {
+				throw new IOException(file + " has unsupported version "
+						+ version);
+			}
+			int actual = in.get();
+			if (actual != kind) {
+				throw new IOException(file + " holds kind " + actual
+						+ ", expected " + kind);
+			}
+			String[] strings = new String[readCount(in, file)];
+			byte[] scratch = new byte[256];
+			for (int i = 0; i < strings.length; i++) {
+				int length = readCount(in, file);
+				if (in.hasArray()) {
+					strings[i] = new String(in.array(), in.arrayOffset()
+							+ in.position(), length, UTF_8);
+					in.position(in.position() + length);
+				} else {
+					if (scratch.length < length) {
+						scratch = new byte[Math.max(length, scratch.length * 2)];
+					}
+					in.get(scratch, 0, length);
+					strings[i] = new String(scratch, 0, length, UTF_8);
+				}
+			}
+			return strings;
+		} catch (RuntimeException e) {
+			// BufferUnderflowException or IllegalArgumentException on truncation
+			throw new IOException(file + " is truncated or corrupt", e);
+		}
+	}
+
+	private static String string(String[] strings, int index, File file)
+			throws IOException {
+		if (index < 0 || index >= strings.length) {
+			throw new IOException(file + " refers to string " + index
+					+ " of " + strings.length);
+		}
+		return strings[index];
+	}
+
+	/**
+	 * read a count, which cannot exceed the bytes left
+	 */
+	private static int readCount(ByteBuffer in, File file) throws IOException {
+		int count = readVarInt(in);
+		if (count < 0 || count > in.remaining()) {
+			throw new IOException(file + " is truncated or corrupt");
+		}
+		return count;
+	}
+
+	private static int capacity(int size) {
+		return Math.max(16, (int) (size / 0.75f) + 1);
+	}
+
+	private static void writeVarInt(DataOutput out, int value)
+			throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	static void writeVarLong(DataOutput out, long value)
+			throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	private static int readVarInt(ByteBuffer in) throws IOException {
+		return (int) readVarLong(in);
+	}
+
+	static long readVarLong(ByteBuffer in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			if (!in.hasRemaining()) {
+				throw new EOFException("unexpected end of data");
+			}
+			byte b = in.get();
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+		throw new IOException("malformed variable-length number");
+	}
+
+	/**
+	 * the distinct strings in order of first occurrence
+	 */
+	private static class StringTable {
+
+		final List<String> strings = new ArrayList<String>();
+
+		private final HashMap<String, Integer> indexes = new HashMap<String, Integer>();
+
+		void add(String string) {
+			if (!indexes.containsKey(string)) {
+				indexes.put(string, strings.size());
+				strings.add(string);
+			}
+		}
+
+		int index(String string) {
+			return indexes.get(string);
+		}
+	}
+}
@@ -0,0 +1,171 @@
+package util.file;
+
+import util.common.HashUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * An open-addressing map from byte strings to long counts built on primitive
+ * arrays: the key bytes live in one growing arena and no object is created
+ * per key or per increment. Each key also remembers the smallest position it
+ * was first seen at, so that merged results can be ordered like a
+ * single-threaded LinkedHashMap would be.
+ */
+class ByteKeyCounter {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private byte[] arena = new byte[4096];
+
+	private int arenaSize;
+
+	private int[] offsets = new int[64];
+
+	private int[] lengths = new int[64];
+
+	private int[] hashes = new int[64];
+
+	private long[] counts = new long[64];
+
+	private long[] firstSeen = new long[64];
+
+	private int size;
+
+	/**
+	 * entry index + 1 per slot, 0 for an empty slot
+	 */
+	private int[] slots = new int[128];
+
+	private byte[] scratch = new byte[256];
+
+	int size() {
+		return size;
+	}
+
+	long count(int entry) {
+		return counts[entry];
+	}
+
+	long firstSeen(int entry) {
+		return firstSeen[entry];
+	}
+
+	String key(int entry) {
+		return new String(arena, offsets[entry], lengths[entry], UTF_8);
+	}
+
+	/**
+	 * add delta to the count of the key held in buffer[from, to).
+	 *
+	 * @param position where the key was seen, only the smallest one is kept
+	 */
+	void add(ByteBuffer buffer, int from, int to, long position, long delta) {
+		int length = to - from;
+		if (scratch.length < length) {
+			scratch = new byte[Math.max(length, scratch.length * 2)];
+		}
+		for (int i = 0; i < length; i++) {
+			scratch[i] = buffer.get(from + i);
+		}
+		add(scratch, 0, length, position, delta);
+	}
+
+	/**
+	 * add delta to the count of the key held in key[off, off + len).
+	 *
+	 * @param position where the key was seen, only the smallest one is kept
+	 */
+	void add(byte[] key, int off, int len, long position, long delta) {
+		add(key, off, len, hash(key, off, len), position, delta);
+	}
+
+	/**
+	 * add all the counts of another counter into this one.
+	 */
+	void merge(ByteKeyCounter other) {
+		for (int i = 0; i < other.size; i++) {
+			add(other.arena, other.offsets[i], other.lengths[i],
+					other.hashes[i], other.firstSeen[i], other.counts[i]);
+		}
+	}
+
+	private void add(byte[] key, int off, int len, int hash, long position,
+					 long delta) {
+		int mask = slots.length - 1;
+		int slot = hash & mask;
+		while (true) {
+			int entry = slots[slot] - 1;
+			if (entry < 0) {
+				break;
+			}
+			if (hashes[entry] == hash && lengths[entry] == len
+					&& equals(offsets[entry], key, off, len)) {
+				counts[entry] += delta;
+				if (position < firstSeen[entry]) {
+					firstSeen[entry] = position;
+				}
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		int entry = size++;
+		if (entry == offsets.length) {
+			int capacity = entry * 2;
+			offsets = Arrays.copyOf(offsets, capacity);
+			lengths = Arrays.copyOf(lengths, capacity);
+			hashes = Arrays.copyOf(hashes, capacity);
+			counts = Arrays.copyOf(counts, capacity);
+			firstSeen = Arrays.copyOf(firstSeen, capacity);
+		}
+		if (arenaSize + len > arena.length) {
+			long capacity = Math.max((long) arena.length * 2, (long) arenaSize + len);
+			if (capacity > Integer.MAX_VALUE - 8) {
+				throw new IllegalStateException("key arena exceeds 2GB");
+			}
+			arena = Arrays.copyOf(arena, (int) capacity);
+		}
+		System.arraycopy(key, off, arena, arenaSize, len);
+		offsets[entry] = arenaSize;
+		lengths[entry] = len;
+		hashes[entry] = hash;
+		counts[entry] = delta;
+		firstSeen[entry] = position;
+		arenaSize += len;
+		slots[slot] = entry + 1;
+		if (size * 4L > slots.length * 3L) {
+			rehash(slots.length * 2);
+		}
+	}
+
+	private boolean equals(int offset, byte[] key, int off, int len) {
+		for (int i = 0; i < len; i++) {
+			if (arena[offset + i] != key[off + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void rehash(int capacity) {
+		slots = new int[capacity];
+		int mask = capacity - 1;
+		for (int entry = 0; entry < size; entry++) {
+			int slot = hashes[entry] & mask;
+			while (slots[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = entry + 1;
+		}
+	}
+
+	static int hash(byte[] key, int off, int len) {
+		long h = len;
+		for (int i = 0; i < len; i++) {
+			h = h * 31 + key[off + i];
+		}
+		return (int) HashUtil.fmix64(h);
+	}
+}
@@ -0,0 +1,329 @@
+package util.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Find the lines of a UTF-8 file which contain a given string, working on
+ * the memory mapped bytes without decoding them. Candidates are located
+ * eight bytes at a time by testing the first and the last byte of the
+ * pattern together within a long word, and only candidates are compared in
+ * full. Files are cut into line-aligned chunks searched in parallel; only the
+ * matching lines are ever turned into Strings. Compressed files are searched
+ * block by block as they are decoded, see InputFiles.
+ */
+public class ContentSearcher {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final long LOW7 = 0x7F7F7F7F7F7F7F7FL;
+
+	static final long CHUNK_SIZE = 64L * 1024 * 1024;
+
+	private final byte[] pattern;
+
+	private final boolean multiLine;
+
+	private final ForkJoinPool pool;
+
+	/**
+	 * @param content the string to look for, matched against UTF-8 bytes
+	 * @param pool    the pool running the search
+	 */
+	public ContentSearcher(String content, ForkJoinPool pool) {
+		this.pattern = content.getBytes(UTF_8);
+		this.multiLine = content.indexOf('\n') >= 0;
+		this.pool = pool;
+	}
+
+	public ContentSearcher(String content) {
+		this(content, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * count the lines of the file which contain the content.
+	 *
+	 * @param file the file to search
+	 * @return the number of matching lines
+	 * @throws IOException
+	 */
+	public long countLines(File file) throws IOException {
+		if (pattern.length == 0) {
+			return new LineCounter(pool).count(file);
+		}
+		final long[] count = new long[1];
+		search(file, false, new ChunkHandler() {
+			public void chunk(Matches matches) {
+				count[0] += matches.count;
+			}
+		});
+		return count[0];
+	}
+
+	/**
+	 * pass the lines of the file which contain the content to the handler,
+	 * in file order.
+	 *
+	 * @param file    the file to search
+	 * @param handler receives the matching lines, decoded as UTF-8
+	 * @return the number of matching lines
+	 * @throws IOException
+	 */
+	public long findLines(File file, final LineHandler handler)
+			throws IOException {
+		final long[] count = new long[1];
+		search(file, true, new ChunkHandler() {
+			public void chunk(Matches matches) throws IOException {
+				for (int i = 0; i < matches.count; i++) {
+					handler.handle(new String(matches.line(i), UTF_8));
+				}
+				count[0] += matches.count;
+			}
+		});
+		return count[0];
+	}
+
+	/**
+	 * write the bytes of the lines of the file which contain the content to
+	 * the output stream, each followed by '\n', in file order.
+	 *
+	 * @param file the file to search
+	 * @param out  receives the matching lines
+	 * @return the number of matching lines
+	 * @throws IOException
+	 */
+	public long findLines(File file, final OutputStream out)
+			throws IOException {
+		final long[] count = new long[1];
+		search(file, true, new ChunkHandler() {
+			public void chunk(Matches matches) throws IOException {
+				for (int i = 0; i < matches.count; i++) {
+					out.write(matches.line(i));
+					out.write('\n');
+				}
+				count[0] += matches.count;
+			}
+		});
+		return count[0];
+	}
+
+	/**
+	 * search the chunks of the file in parallel and pass the matches of each
+	 * to the handler in file order, as soon as the chunks before it are
+	 * done. At most twice the parallelism of the pool chunks are searched
+	 * ahead of the handler, so only their matches are held at a time.
+	 */
+	private void search(File file, final boolean collect,
+						final ChunkHandler handler) throws IOException {
+		if (InputFiles.isCompressed(file)) {
+			InputFiles.forEachBlock(file, new InputFiles.BlockHandler() {
+				public boolean block(ByteBuffer block, long offset)
+						throws IOException {
+					handler.chunk(search(block, collect));
+					return true;
+				}
+			});
+			return;
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		ArrayDeque<ChunkTask> tasks = new ArrayDeque<ChunkTask>();
+		try {
+			FileChannel channel = raf.getChannel();
+			List<Long> boundaries = FileSplitter.lineAlignedChunks(channel,
+					channel.size(), CHUNK_SIZE);
+			int window = 2 * pool.getParallelism();
+			int next = 0;
+			while (next + 1 < boundaries.size() || !tasks.isEmpty()) {
+				while (next + 1 < boundaries.size() && tasks.size() < window) {
+					ChunkTask task = new ChunkTask(channel, boundaries.get(next),
+							boundaries.get(next + 1), collect);
+					tasks.add(task);
+					pool.execute(task);
+					next++;
+				}
+				Matches matches;
+				try {
+					matches = tasks.poll().join();
+				} catch (UncheckedIOException e) {
+					throw e.getCause();
+				}
+				handler.chunk(matches);
+			}
+		} finally {
+			for (ChunkTask task : tasks) {
+				task.cancel(false);
+			}
+			raf.close();
+		}
+	}
+
+	/**
+	 * receives the matches of the chunks in file order
+	 */
+	private interface ChunkHandler {
+
+		void chunk(Matches matches) throws IOException;
+	}
+
+	/**
+	 * search one chunk, mapped or decoded. The chunk starts at a line start
+	 * and ends after a '\n' or at the end of the file.
+	 */
+	Matches search(ByteBuffer buffer, boolean collect) {
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		Matches matches = new Matches(buffer, collect);
+		if (multiLine) {
+			// a line never contains its own terminator
+			return matches;
+		}
+		int limit = buffer.limit();
+		int i = 0;
+		while (i < limit) {
+			int match = pattern.length == 0 ? i : indexOf(buffer, i, limit);
+			if (match < 0) {
+				break;
+			}
+			int end = match + pattern.length;
+			while (end < limit && buffer.get(end) != '\n') {
+				end++;
+			}
+			if (collect) {
+				int start = match;
+				while (start > 0 && buffer.get(start - 1) != '\n') {
+					start--;
+				}
+				matches.add(start, end > start && buffer.get(end - 1) == '\r'
+						? end - 1 : end);
+			} else {
+				matches.count++;
+			}
+			i = end + 1;
+		}
+		return matches;
+	}
+
+	/**
+	 * find the first occurrence of the pattern in buffer[from, limit) which
+	 * does not cross a line end.
+	 */
+	private int indexOf(ByteBuffer buffer, int from, int limit) {
+		int m = pattern.length;
+		long first = broadcast(pattern[0]);
+		long last = broadcast(pattern[m - 1]);
+		int i = from;
+		for (; i + m - 1 + 8 <= limit; i += 8) {
+			long candidates = zeroBytes(buffer.getLong(i) ^ first)
+					& zeroBytes(buffer.getLong(i + m - 1) ^ last);
+			while (candidates != 0) {
+				int p = i + (Long.numberOfTrailingZeros(candidates) >>> 3);
+				if (matchesAt(buffer, p)) {
+					return p;
+				}
+				candidates &= candidates - 1;
+			}
+		}
+		for (; i + m <= limit; i++) {
+			if (buffer.get(i) == pattern[0] && matchesAt(buffer, i)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private boolean matchesAt(ByteBuffer buffer, int p) {
+		for (int j = pattern.length - 1; j >= 0; j--) {
+			if (buffer.get(p + j) != pattern[j]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static long broadcast(byte b) {
+		return (b & 0xFFL) * 0x0101010101010101L;
+	}
+
+	/**
+	 * set the high bit of each byte of x which is zero, and only of those
+	 */
+	private static long zeroBytes(long x) {
+		return ~(((x & LOW7) + LOW7) | x | LOW7);
+	}
+
+	/**
+	 * the matching lines of one chunk, as byte ranges of its buffer
+	 */
+	static class Matches {
+
+		private final ByteBuffer buffer;
+
+		private int[] ranges;
+
+		int count;
+
+		Matches(ByteBuffer buffer, boolean collect) {
+			this.buffer = buffer;
+			this.ranges = collect ? new int[32] : null;
+		}
+
+		void add(int start, int end) {
+			if (count * 2 == ranges.length) {
+				ranges = Arrays.copyOf(ranges, ranges.length * 2);
+			}
+			ranges[count * 2] = start;
+			ranges[count * 2 + 1] = end;
+			count++;
+		}
+
+		byte[] line(int i) {
+			int start = ranges[i * 2];
+			byte[] bytes = new byte[ranges[i * 2 + 1] - start];
+			for (int j = 0; j < bytes.length; j++) {
+				bytes[j] = buffer.get(start + j);
+			}
+			return bytes;
+		}
+	}
+
+	private class ChunkTask extends RecursiveTask<Matches> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final FileChannel channel;
+
+		private final long from;
+
+		private final long to;
+
+		private final boolean collect;
+
+		ChunkTask(FileChannel channel, long from, long to, boolean collect) {
+			this.channel = channel;
+			this.from = from;
+			this.to = to;
+			this.collect = collect;
+		}
+
+		@Override
+		protected Matches compute() {
+			try {
+				return search(channel.map(FileChannel.MapMode.READ_ONLY, from,
+						to - from), collect);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+}
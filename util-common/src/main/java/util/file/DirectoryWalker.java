@@ -0,0 +1,374 @@
+package util.file;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+/**
+ * Walk a directory tree in parallel: every directory is listed by its own
+ * ForkJoin task through a DirectoryStream, so that the latency of slow
+ * (e.g. network) file systems is overlapped. Regular files which pass the
+ * filter are reported with their size, either to a handler called from the
+ * pool threads or through an iterator. Directories which cannot be read are
+ * logged and skipped; symbolic links to directories are not followed.
+ */
+public class DirectoryWalker {
+
+	private static final Log LOG = LogFactory.getLog(DirectoryWalker.class);
+
+	/**
+	 * how often a walk blocked on the queue of an iterator checks whether
+	 * the iterator was closed
+	 */
+	private static final long POLL_MILLIS = 50;
+
+	private final int maxDepth;
+
+	private final Predicate<Path> filter;
+
+	private final ForkJoinPool pool;
+
+	/**
+	 * @param maxDepth the deepest level to report, 1 for the direct children
+	 *                 of the root only, Integer.MAX_VALUE for no limit
+	 * @param filter   accepts the files to report, null for all of them
+	 * @param pool     the pool running the walk
+	 */
+	public DirectoryWalker(int maxDepth, Predicate<Path> filter,
+						   ForkJoinPool pool) {
+		if (maxDepth < 1) {
+			throw new IllegalArgumentException("maxDepth must be positive: "
+					+ maxDepth);
+		}
+		this.maxDepth = maxDepth;
+		this.filter = filter;
+		this.pool = pool;
+	}
+
+	public DirectoryWalker(int maxDepth, Predicate<Path> filter) {
+		this(maxDepth, filter, ForkJoinPool.commonPool());
+	}
+
+	public DirectoryWalker() {
+		this(Integer.MAX_VALUE, null);
+	}
+
+	/**
+	 * a filter accepting the files whose name matches a glob pattern, e.g.
+	 * "*.nt" or "part-*.{nt,ttl}"
+	 *
+	 * @param glob the pattern, see FileSystem.getPathMatcher()
+	 * @return the filter
+	 */
+	public static Predicate<Path> glob(String glob) {
+		final PathMatcher matcher = FileSystems.getDefault().getPathMatcher(
+				"glob:" + glob);
+		return new Predicate<Path>() {
+			public boolean test(Path path) {
+				Path name = path.getFileName();
+				return name != null && matcher.matches(name);
+			}
+		};
+	}
+
+	/**
+	 * walk the tree and pass every accepted file to the handler. The handler
+	 * is called concurrently from several threads.
+	 *
+	 * @param root    the directory to walk
+	 * @param handler receives the files, must be thread safe
+	 */
+	public void walk(Path root, Handler handler) {
+		pool.invoke(new DirectoryTask(root, 1, handler));
+	}
+
+	/**
+	 * walk the tree and collect the accepted files.
+	 *
+	 * @param root the directory to walk
+	 * @return the files sorted by path
+	 */
+	public List<Entry> list(Path root) {
+		final List<Entry> entries = Collections.synchronizedList(
+				new ArrayList<Entry>());
+		walk(root, new Handler() {
+			public void handle(Path file, long size) {
+				entries.add(new Entry(file, size));
+			}
+		});
+		List<Entry> result = new ArrayList<Entry>(entries);
+		Collections.sort(result, new Comparator<Entry>() {
+			public int compare(Entry a, Entry b) {
+				return a.getPath().compareTo(b.getPath());
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * walk the tree in the background and hand out the accepted files as
+	 * they are found. At most queueSize files wait for the consumer, after
+	 * which the walk blocks.
+	 * <p>
+	 * The iterator must be closed, in a finally block or try-with-resources,
+	 * when the consumer stops before the end: the pool threads of the walk
+	 * stay blocked on the full queue until then.
+	 *
+	 * @param root      the directory to walk
+	 * @param queueSize the number of files buffered for the consumer
+	 * @return the files, in no particular order
+	 */
+	public EntryIterator iterator(Path root, int queueSize) {
+		final BlockingQueue<Entry> queue = new LinkedBlockingQueue<Entry>(
+				queueSize);
+		final Entry end = new Entry(null, -1);
+		final AtomicBoolean closed = new AtomicBoolean();
+		final ForkJoinTask<?> walk = pool.submit(new DirectoryTask(root, 1,
+				new Handler() {
+					public void handle(Path file, long size) {
+						if (closed.get()) {
+							// abort the tasks of the walk, see close()
+							throw new CancellationException();
+						}
+						put(queue, new Entry(file, size), closed);
+					}
+				}));
+		pool.execute(new Runnable() {
+			public void run() {
+				try {
+					walk.join();
+				} catch (CancellationException e) {
+					if (!closed.get()) {
+						throw e;
+					}
+				} finally {
+					put(queue, end, closed);
+				}
+			}
+		});
+		return new EntryIterator() {
+
+			private Entry next;
+
+			public boolean hasNext() {
+				if (next == null) {
+					try {
+						next = queue.take();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new IllegalStateException("interrupted while walking "
+								+ "the directory", e);
+					}
+				}
+				return next != end;
+			}
+
+			public Entry next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				Entry entry = next;
+				next = null;
+				return entry;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+
+			/**
+			 * stop the walk: the tasks still running drop their files and
+			 * give up at the next one, and those waiting on the full queue
+			 * return within POLL_MILLIS
+			 */
+			public void close() {
+				closed.set(true);
+				next = end;
+				queue.clear();
+			}
+		};
+	}
+
+	private static void put(BlockingQueue<Entry> queue, Entry entry,
+							AtomicBoolean closed) {
+		try {
+			ForkJoinPool.managedBlock(new QueuePut(queue, entry, closed));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * receives the files found by a walk
+	 */
+	public interface Handler {
+
+		/**
+		 * @param file the regular file found
+		 * @param size its size in bytes
+		 */
+		void handle(Path file, long size);
+	}
+
+	/**
+	 * the files of a walk running in the background, which must be closed
+	 * to stop the walk if they are not read to the end
+	 */
+	public interface EntryIterator extends Iterator<Entry>, Closeable {
+
+		/**
+		 * stop the walk and release the pool threads blocked on the queue.
+		 * Closing again or after the end does nothing.
+		 */
+		void close();
+	}
+
+	/**
+	 * a file found by a walk and its size
+	 */
+	public static class Entry {
+
+		private final Path path;
+
+		private final long size;
+
+		Entry(Path path, long size) {
+			this.path = path;
+			this.size = size;
+		}
+
+		public Path getPath() {
+			return path;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		@Override
+		public String toString() {
+			return path + "\t" + size;
+		}
+	}
+
+	/**
+	 * lets a pool thread block on a full queue without starving the pool,
+	 * until the entry is queued or the iterator is closed
+	 */
+	private static class QueuePut implements ForkJoinPool.ManagedBlocker {
+
+		private final BlockingQueue<Entry> queue;
+
+		private final Entry entry;
+
+		private final AtomicBoolean closed;
+
+		private boolean done;
+
+		QueuePut(BlockingQueue<Entry> queue, Entry entry, AtomicBoolean closed) {
+			this.queue = queue;
+			this.entry = entry;
+			this.closed = closed;
+		}
+
+		public boolean block() throws InterruptedException {
+			while (!done && !closed.get()) {
+				done = queue.offer(entry, POLL_MILLIS, TimeUnit.MILLISECONDS);
+			}
+			return true;
+		}
+
+		public boolean isReleasable() {
+			if (!done) {
+				done = queue.offer(entry);
+			}
+			return done || closed.get();
+		}
+	}
+
+	private class DirectoryTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Path directory;
+
+		private final int depth;
+
+		private final Handler handler;
+
+		DirectoryTask(Path directory, int depth, Handler handler) {
+			this.directory = directory;
+			this.depth = depth;
+			this.handler = handler;
+		}
+
+		@Override
+		protected void compute() {
+			List<DirectoryTask> subdirectories = new ArrayList<DirectoryTask>();
+			DirectoryStream<Path> stream = null;
+			try {
+				stream = Files.newDirectoryStream(directory);
+				for (Path child : stream) {
+					BasicFileAttributes attributes;
+					try {
+						attributes = Files.readAttributes(child,
+								BasicFileAttributes.class,
+								LinkOption.NOFOLLOW_LINKS);
+						if (attributes.isSymbolicLink()) {
+							// a link to a file is reported, a link to a directory is not walked
+							attributes = Files.readAttributes(child,
+									BasicFileAttributes.class);
+							if (attributes.isDirectory()) {
+								continue;
+							}
+						}
+					} catch (IOException e) {
+						LOG.warn("cannot read attributes of " + child + ": " + e);
+						continue;
+					}
+					if (attributes.isDirectory()) {
+						if (depth < maxDepth) {
+							subdirectories.add(new DirectoryTask(child, depth + 1,
+									handler));
+						}
+					} else if (attributes.isRegularFile()
+							&& (filter == null || filter.test(child))) {
+						handler.handle(child, attributes.size());
+					}
+				}
+			} catch (IOException e) {
+				LOG.warn("cannot list directory " + directory + ": " + e);
+			} catch (DirectoryIteratorException e) {
+				LOG.warn("cannot list directory " + directory + ": "
+						+ e.getCause());
+			} finally {
+				if (stream != null) {
+					try {
+						stream.close();
+					} catch (IOException e) {
+					}
+				}
+			}
+			invokeAll(subdirectories);
+		}
+	}
+}
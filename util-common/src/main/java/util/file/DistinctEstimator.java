@@ -0,0 +1,213 @@
+package util.file;
+
+import util.common.HashUtil;
+import util.common.HyperLogLog;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Estimate the number of distinct lines or entities of files with
+ * HyperLogLog sketches, in constant memory whatever their size. The files
+ * are memory mapped in line-aligned chunks which are sketched in parallel,
+ * each chunk into its own sketch, and the sketches are merged. The returned
+ * sketch can be merged further with those of other files, or saved.
+ * Compressed files are sketched as they are decoded, see InputFiles.
+ * <p>
+ * Lines are compared as bytes without their "\n" or "\r\n" terminator, so a
+ * line and the same String offered to a HyperLogLog hash alike.
+ */
+public class DistinctEstimator {
+
+	static final long CHUNK_SIZE = 64L * 1024 * 1024;
+
+	private final int precision;
+
+	private final ForkJoinPool pool;
+
+	/**
+	 * @param precision the precision of the sketches, see HyperLogLog
+	 * @param pool      the pool running the scan
+	 */
+	public DistinctEstimator(int precision, ForkJoinPool pool) {
+		if (precision < HyperLogLog.MIN_PRECISION
+				|| precision > HyperLogLog.MAX_PRECISION) {
+			throw new IllegalArgumentException("precision must be from "
+					+ HyperLogLog.MIN_PRECISION + " to "
+					+ HyperLogLog.MAX_PRECISION + ": " + precision);
+		}
+		this.precision = precision;
+		this.pool = pool;
+	}
+
+	public DistinctEstimator(int precision) {
+		this(precision, ForkJoinPool.commonPool());
+	}
+
+	public DistinctEstimator() {
+		this(HyperLogLog.DEFAULT_PRECISION);
+	}
+
+	/**
+	 * sketch the distinct lines of the files.
+	 *
+	 * @param files the files to scan
+	 * @return a sketch of all their lines
+	 * @throws IOException
+	 */
+	public HyperLogLog lines(List<File> files) throws IOException {
+		return sketch(files, false);
+	}
+
+	/**
+	 * sketch the distinct entities (subjects and objects) of the files, taken
+	 * as EntityIndex does.
+	 *
+	 * @param files the files of space separated triples to scan
+	 * @return a sketch of all their entities
+	 * @throws IOException
+	 */
+	public HyperLogLog entities(List<File> files) throws IOException {
+		return sketch(files, true);
+	}
+
+	private HyperLogLog sketch(List<File> files, final boolean entities)
+			throws IOException {
+		List<RandomAccessFile> opened = new ArrayList<RandomAccessFile>();
+		try {
+			List<ChunkTask> tasks = new ArrayList<ChunkTask>();
+			final Sketcher decoded = new Sketcher(new HyperLogLog(precision));
+			for (File file : files) {
+				if (InputFiles.isCompressed(file)) {
+					InputFiles.forEachBlock(file, new InputFiles.BlockHandler() {
+						public boolean block(ByteBuffer block, long offset) {
+							decoded.scan(block, entities);
+							return true;
+						}
+					});
+					continue;
+				}
+				RandomAccessFile raf = new RandomAccessFile(file, "r");
+				opened.add(raf);
+				FileChannel channel = raf.getChannel();
+				List<Long> boundaries = FileSplitter.lineAlignedChunks(channel,
+						channel.size(), CHUNK_SIZE);
+				for (int i = 0; i + 1 < boundaries.size(); i++) {
+					ChunkTask task = new ChunkTask(channel, boundaries.get(i),
+							boundaries.get(i + 1), entities);
+					tasks.add(task);
+					pool.execute(task);
+				}
+			}
+			HyperLogLog result = decoded.sketch;
+			for (ChunkTask task : tasks) {
+				try {
+					result.merge(task.join());
+				} catch (UncheckedIOException e) {
+					throw e.getCause();
+				}
+			}
+			return result;
+		} finally {
+			for (RandomAccessFile raf : opened) {
+				try {
+					raf.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * hashes byte ranges of a buffer into a sketch
+	 */
+	private static class Sketcher implements EntityIndex.EntityHandler {
+
+		final HyperLogLog sketch;
+
+		private final long[] hash = new long[2];
+
+		private byte[] scratch = new byte[256];
+
+		Sketcher(HyperLogLog sketch) {
+			this.sketch = sketch;
+		}
+
+		public void entity(ByteBuffer buffer, int from, int to) {
+			int len = to - from;
+			if (scratch.length < len) {
+				scratch = new byte[Math.max(len, scratch.length * 2)];
+			}
+			for (int i = 0; i < len; i++) {
+				scratch[i] = buffer.get(from + i);
+			}
+			HashUtil.murmur3_128(scratch, 0, len, 0, hash);
+			sketch.offerHash(hash[0]);
+		}
+
+		void scan(ByteBuffer buffer, boolean entities) {
+			if (entities) {
+				EntityIndex.scan(buffer, this);
+			} else {
+				lines(buffer);
+			}
+		}
+
+		void lines(ByteBuffer buffer) {
+			int limit = buffer.limit();
+			int start = 0;
+			while (start < limit) {
+				int end = start;
+				while (end < limit && buffer.get(end) != '\n') {
+					end++;
+				}
+				int next = end + 1;
+				if (end > start && buffer.get(end - 1) == '\r') {
+					end--;
+				}
+				entity(buffer, start, end);
+				start = next;
+			}
+		}
+	}
+
+	private class ChunkTask extends RecursiveTask<HyperLogLog> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final FileChannel channel;
+
+		private final long from;
+
+		private final long to;
+
+		private final boolean entities;
+
+		ChunkTask(FileChannel channel, long from, long to, boolean entities) {
+			this.channel = channel;
+			this.from = from;
+			this.to = to;
+			this.entities = entities;
+		}
+
+		@Override
+		protected HyperLogLog compute() {
+			Sketcher sketcher = new Sketcher(new HyperLogLog(precision));
+			try {
+				sketcher.scan(channel.map(FileChannel.MapMode.READ_ONLY, from,
+						to - from), entities);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return sketcher.sketch;
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package util.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Find the lines which occur more than once in a file, with the number of
+ * their first occurrence and how often they occur, in heap space independent
+ * of the size of the file. The file is read as LineSlices straight from its
+ * mappings (or decoded if it is compressed) into an OffHeapLineSet, so no
+ * line is turned into a String unless it is reported. For inputs with more
+ * distinct lines than the direct memory allowed by -XX:MaxDirectMemorySize,
+ * give a directory: the set is then kept in mapped temporary files there and
+ * paged to disk by the operating system.
+ */
+public class DuplicateLineFinder {
+
+	private final File directory;
+
+	/**
+	 * @param directory the directory of the temporary files backing the set,
+	 *                  null to keep it in direct memory
+	 */
+	public DuplicateLineFinder(File directory) {
+		this.directory = directory;
+	}
+
+	public DuplicateLineFinder() {
+		this(null);
+	}
+
+	/**
+	 * report the repeated lines of a file, in the order of their first
+	 * occurrence, once the whole file is read.
+	 *
+	 * @param file    the file to scan
+	 * @param charset the charset the lines are decoded with when reported
+	 * @param handler receives every repeated line
+	 * @return the number of distinct lines which are repeated
+	 * @throws IOException
+	 */
+	public long find(File file, final Charset charset, final Handler handler)
+			throws IOException {
+		OffHeapLineSet set = new OffHeapLineSet(directory);
+		try {
+			LineSource source = LineSource.open(file, charset);
+			try {
+				LineSlice line;
+				while ((line = source.next()) != null) {
+					set.add(line.buffer(), line.start(), line.length(),
+							line.lineNumber());
+				}
+			} finally {
+				source.close();
+			}
+			final long[] repeated = new long[1];
+			set.forEach(new OffHeapLineSet.Visitor() {
+				public void visit(long firstLine, long count, byte[] bytes,
+								  int length) throws IOException {
+					if (count > 1) {
+						repeated[0]++;
+						handler.handle(new String(bytes, 0, length, charset),
+								firstLine, count);
+					}
+				}
+			});
+			return repeated[0];
+		} finally {
+			set.close();
+		}
+	}
+
+	/**
+	 * receives the repeated lines
+	 */
+	public interface Handler {
+
+		/**
+		 * @param line      the line, without its terminator
+		 * @param firstLine the number of its first occurrence, from 1
+		 * @param count     the number of its occurrences, at least 2
+		 * @throws IOException if the line cannot be written out
+		 */
+		void handle(String line, long firstLine, long count) throws IOException;
+	}
+}
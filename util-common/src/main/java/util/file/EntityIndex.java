@@ -0,0 +1,151 @@
+package util.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Collect the entities (subjects and objects) of triple files as sets of
+ * dictionary IDs. All files added to one index share its TermDictionary, so
+ * an entity has the same ID in every file and the sets can be combined with
+ * BitSet.and(), andNot() and or() instead of hashing strings. Each distinct
+ * entity is kept once as bytes, and no String is created until terms() is
+ * called.
+ * <p>
+ * Lines are separated by '\n' or "\r\n" and the entities are taken the same
+ * way as line.split(" ")[0] and line.split(" ")[2]; a line which does not
+ * have one of these columns contributes only the other one. Compressed
+ * files are scanned as they are decoded, see InputFiles.
+ */
+public class EntityIndex {
+
+	static final long CHUNK_SIZE = 64L * 1024 * 1024;
+
+	private final TermDictionary dictionary;
+
+	public EntityIndex(TermDictionary dictionary) {
+		this.dictionary = dictionary;
+	}
+
+	public EntityIndex() {
+		this(new TermDictionary());
+	}
+
+	public TermDictionary getDictionary() {
+		return dictionary;
+	}
+
+	/**
+	 * add the entities of a file to the dictionary.
+	 *
+	 * @param file a file of space separated triples
+	 * @return the IDs of the entities of the file
+	 * @throws IOException
+	 */
+	public BitSet add(File file) throws IOException {
+		final BitSet ids = new BitSet();
+		final EntityHandler handler = new EntityHandler() {
+			public void entity(ByteBuffer buffer, int from, int to) {
+				ids.set(dictionary.add(buffer, from, to));
+			}
+		};
+		if (InputFiles.isCompressed(file)) {
+			InputFiles.forEachBlock(file, new InputFiles.BlockHandler() {
+				public boolean block(ByteBuffer block, long offset) {
+					scan(block, handler);
+					return true;
+				}
+			});
+			return ids;
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			List<Long> boundaries = FileSplitter.lineAlignedChunks(channel,
+					channel.size(), CHUNK_SIZE);
+			for (int i = 0; i + 1 < boundaries.size(); i++) {
+				long from = boundaries.get(i);
+				scan(channel.map(FileChannel.MapMode.READ_ONLY, from,
+						boundaries.get(i + 1) - from), handler);
+			}
+		} finally {
+			raf.close();
+		}
+		return ids;
+	}
+
+	/**
+	 * @param ids IDs of this index
+	 * @return the entities of the IDs, in ID order, which is the order they
+	 * were first seen
+	 */
+	public List<String> terms(BitSet ids) {
+		List<String> terms = new ArrayList<String>(ids.cardinality());
+		for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+			terms.add(dictionary.term(id));
+		}
+		return terms;
+	}
+
+	/**
+	 * receives the entities found in a buffer
+	 */
+	interface EntityHandler {
+
+		void entity(ByteBuffer buffer, int from, int to);
+	}
+
+	/**
+	 * find the entities of the lines of one chunk, which starts at a line
+	 * start
+	 */
+	static void scan(ByteBuffer buffer, EntityHandler handler) {
+		int limit = buffer.limit();
+		int start = 0;
+		while (start < limit) {
+			int end = start;
+			while (end < limit && buffer.get(end) != '\n') {
+				end++;
+			}
+			int next = end + 1;
+			if (end > start && buffer.get(end - 1) == '\r') {
+				end--;
+			}
+
+			int column = 0;
+			int tokenStart = start;
+			for (int i = start; i <= end && column <= 2; i++) {
+				if (i == end || buffer.get(i) == ' ') {
+					if ((column == 0 || column == 2)
+							&& present(buffer, tokenStart, i, end)) {
+						handler.entity(buffer, tokenStart, i);
+					}
+					column++;
+					tokenStart = i + 1;
+				}
+			}
+			start = next;
+		}
+	}
+
+	/**
+	 * split() drops empty columns which nothing but spaces follows
+	 */
+	private static boolean present(ByteBuffer buffer, int from, int to,
+								   int lineEnd) {
+		if (from < to) {
+			return true;
+		}
+		for (int i = to; i < lineEnd; i++) {
+			if (buffer.get(i) != ' ') {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,300 @@
+package util.file;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sort the lines of a text file whose size may exceed the heap. Lines are
+ * collected into sorted runs bounded by a memory budget, each run is spilled
+ * to a temporary file, and the runs are finally k-way merged with a heap,
+ * at most MAX_FAN_IN at a time, in several passes if there are more.
+ * Lines are compared by their natural String order, the same as a TreeSet.
+ */
+public class ExternalSorter {
+
+	private static final Log LOG = LogFactory.getLog(ExternalSorter.class);
+
+	/**
+	 * default memory budget for one in-memory run: 64MB
+	 */
+	public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+
+	private static final Charset RUN_CHARSET = Charset.forName("UTF-8");
+
+	private static final int BUFFER_SIZE = 8192 * 100;
+
+	/**
+	 * the most runs merged at once, bounding the open files and read buffers
+	 */
+	private static final int MAX_FAN_IN = 100;
+
+	private final long memoryBudget;
+
+	private final boolean keepDuplicates;
+
+	private final File tempDirectory;
+
+	/**
+	 * @param memoryBudget   approximate heap bytes one run may occupy before it
+	 *                       is spilled to disk
+	 * @param keepDuplicates whether duplicate lines are kept in the output; the
+	 *                       TreeSet based sort drops them
+	 * @param tempDirectory  directory for the spilled runs, null for the
+	 *                       default temporary-file directory
+	 */
+	public ExternalSorter(long memoryBudget, boolean keepDuplicates,
+						  File tempDirectory) {
+		if (memoryBudget <= 0) {
+			throw new IllegalArgumentException("memoryBudget must be positive: "
+					+ memoryBudget);
+		}
+		this.memoryBudget = memoryBudget;
+		this.keepDuplicates = keepDuplicates;
+		this.tempDirectory = tempDirectory;
+	}
+
+	public ExternalSorter(long memoryBudget, boolean keepDuplicates) {
+		this(memoryBudget, keepDuplicates, null);
+	}
+
+	public ExternalSorter() {
+		this(DEFAULT_MEMORY_BUDGET, false, null);
+	}
+
+	/**
+	 * sort the lines of the input file into the output file.
+	 *
+	 * @param input  the file to be sorted
+	 * @param output the file to write the sorted lines, overwritten if exists
+	 * @return the number of lines written
+	 * @throws IOException
+	 */
+	public long sort(File input, File output) throws IOException {
+		List<File> runs = new ArrayList<File>();
+		BufferedReader br = null;
+		try {
+			br = InputFiles.newReader(input, BUFFER_SIZE);
+			ArrayList<String> buffer = new ArrayList<String>();
+			long bufferBytes = 0;
+			while (true) {
+				String line = br.readLine();
+				if (line == null) {
+					break;
+				}
+				buffer.add(line);
+				bufferBytes += estimateSize(line);
+				if (bufferBytes >= memoryBudget) {
+					runs.add(spill(buffer));
+					buffer.clear();
+					bufferBytes = 0;
+				}
+			}
+			br.close();
+			br = null;
+
+			if (runs.isEmpty()) {
+				// everything fits in memory, no need to touch the disk twice
+				Collections.sort(buffer);
+				return writeLines(buffer, output);
+			}
+			if (!buffer.isEmpty()) {
+				runs.add(spill(buffer));
+				buffer.clear();
+			}
+			buffer = null;
+			LOG.debug("merging " + runs.size() + " sorted runs of " + input);
+			return merge(runs, output);
+		} finally {
+			if (br != null) {
+				try {
+					br.close();
+				} catch (IOException e) {
+				}
+			}
+			for (File run : runs) {
+				if (!run.delete()) {
+					run.deleteOnExit();
+				}
+			}
+		}
+	}
+
+	/**
+	 * rough heap footprint of a line held in the run buffer: the String
+	 * object, its char array and the list slot.
+	 */
+	private static long estimateSize(String line) {
+		return 64 + 2L * line.length();
+	}
+
+	private File spill(ArrayList<String> buffer) throws IOException {
+		Collections.sort(buffer);
+		File run = File.createTempFile("sort-run", ".tmp", tempDirectory);
+		BufferedWriter bw = null;
+		try {
+			bw = new BufferedWriter(new OutputStreamWriter(
+					new FileOutputStream(run), RUN_CHARSET), BUFFER_SIZE);
+			String last = null;
+			for (String line : buffer) {
+				if (keepDuplicates || last == null || !last.equals(line)) {
+					bw.write(line);
+					bw.newLine();
+				}
+				last = line;
+			}
+		} finally {
+			if (bw != null) {
+				bw.close();
+			}
+		}
+		return run;
+	}
+
+	private long writeLines(List<String> sorted, File output)
+			throws IOException {
+		long written = 0;
+		BufferedWriter bw = null;
+		try {
+			bw = new BufferedWriter(new FileWriter(output, false), BUFFER_SIZE);
+			String last = null;
+			for (String line : sorted) {
+				if (keepDuplicates || last == null || !last.equals(line)) {
+					bw.write(line);
+					bw.newLine();
+					written++;
+				}
+				last = line;
+			}
+		} finally {
+			if (bw != null) {
+				bw.close();
+			}
+		}
+		return written;
+	}
+
+	/**
+	 * merge the runs into the output, first merging them by groups of
+	 * MAX_FAN_IN into longer runs until one pass is enough. The runs list
+	 * always holds every run file left on disk, so the caller can delete them.
+	 */
+	private long merge(List<File> runs, File output) throws IOException {
+		while (runs.size() > MAX_FAN_IN) {
+			List<File> pass = new ArrayList<File>(runs);
+			for (int i = 0; i < pass.size(); i += MAX_FAN_IN) {
+				List<File> group = pass.subList(i, Math.min(i + MAX_FAN_IN,
+						pass.size()));
+				if (group.size() == 1) {
+					continue;
+				}
+				File merged = File.createTempFile("sort-run", ".tmp",
+						tempDirectory);
+				runs.add(merged);
+				BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(
+						new FileOutputStream(merged), RUN_CHARSET), BUFFER_SIZE);
+				try {
+					merge(group, bw);
+				} finally {
+					bw.close();
+				}
+				for (File run : group) {
+					runs.remove(run);
+					if (!run.delete()) {
+						run.deleteOnExit();
+					}
+				}
+			}
+			LOG.debug("merged " + pass.size() + " sorted runs into "
+					+ runs.size());
+		}
+		BufferedWriter bw = new BufferedWriter(new FileWriter(output, false),
+				BUFFER_SIZE);
+		try {
+			return merge(runs, bw);
+		} finally {
+			bw.close();
+		}
+	}
+
+	/**
+	 * k-way merge the runs with a heap.
+	 *
+	 * @param runs at most MAX_FAN_IN runs
+	 * @param bw   receives the merged lines, left open
+	 * @return the number of lines written
+	 */
+	private long merge(List<File> runs, BufferedWriter bw) throws IOException {
+		PriorityQueue<RunCursor> heap = new PriorityQueue<RunCursor>(runs.size());
+		List<RunCursor> cursors = new ArrayList<RunCursor>(runs.size());
+		long written = 0;
+		try {
+			// split the read buffers so that k open runs stay within budget
+			int readBuffer = (int) Math.max(8192,
+					Math.min(BUFFER_SIZE, memoryBudget / 2 / runs.size()));
+			for (File run : runs) {
+				RunCursor cursor = new RunCursor(run, readBuffer);
+				cursors.add(cursor);
+				if (cursor.advance()) {
+					heap.add(cursor);
+				}
+			}
+			String last = null;
+			while (!heap.isEmpty()) {
+				RunCursor cursor = heap.poll();
+				String line = cursor.current;
+				if (keepDuplicates || last == null || !last.equals(line)) {
+					bw.write(line);
+					bw.newLine();
+					written++;
+				}
+				last = line;
+				if (cursor.advance()) {
+					heap.add(cursor);
+				}
+			}
+		} finally {
+			for (RunCursor cursor : cursors) {
+				cursor.close();
+			}
+		}
+		return written;
+	}
+
+	/**
+	 * the head line of one sorted run during the merge
+	 */
+	private static class RunCursor implements Comparable<RunCursor> {
+
+		private final BufferedReader reader;
+
+		private String current;
+
+		RunCursor(File run, int bufferSize) throws IOException {
+			reader = new BufferedReader(new InputStreamReader(
+					new FileInputStream(run), RUN_CHARSET), bufferSize);
+		}
+
+		boolean advance() throws IOException {
+			current = reader.readLine();
+			return current != null;
+		}
+
+		public int compareTo(RunCursor other) {
+			return current.compareTo(other.current);
+		}
+
+		void close() {
+			try {
+				reader.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+}
@@ -0,0 +1,219 @@
+package util.file;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Split a text file into parts at byte offsets aligned to line boundaries.
+ * The input is read only once: the boundaries are found by probing near the
+ * nominal offsets, and each byte range is copied into its part file with
+ * FileChannel.transferTo, all parts in parallel. Part files are named like
+ * divideByLines() does: "name_part1.ext", "name_part2.ext", ...
+ */
+public class FileSplitter {
+
+	private static final int PROBE_SIZE = 64 * 1024;
+
+	private final ForkJoinPool pool;
+
+	public FileSplitter(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	public FileSplitter() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * split the file into the given number of parts of roughly equal size.
+	 * Fewer parts are written if the file has too few lines.
+	 *
+	 * @param input  the file to split
+	 * @param pieces the number of parts
+	 * @return the part files written
+	 * @throws IOException
+	 */
+	public List<File> splitInto(File input, int pieces) throws IOException {
+		if (pieces <= 0) {
+			throw new IllegalArgumentException("pieces must be positive: "
+					+ pieces);
+		}
+		long size = input.length();
+		long[] nominal = new long[pieces - 1];
+		for (int i = 1; i < pieces; i++) {
+			nominal[i - 1] = size / pieces * i + size % pieces * i / pieces;
+		}
+		return split(input, nominal);
+	}
+
+	/**
+	 * split the file into parts of about the given size each; a part only
+	 * exceeds it by the rest of its last line.
+	 *
+	 * @param input         the file to split
+	 * @param bytesPerPiece the target size of each part
+	 * @return the part files written
+	 * @throws IOException
+	 */
+	public List<File> splitBySize(File input, long bytesPerPiece)
+			throws IOException {
+		if (bytesPerPiece <= 0) {
+			throw new IllegalArgumentException("bytesPerPiece must be positive: "
+					+ bytesPerPiece);
+		}
+		long size = input.length();
+		int pieces = (int) Math.max(1, (size + bytesPerPiece - 1) / bytesPerPiece);
+		long[] nominal = new long[pieces - 1];
+		for (int i = 1; i < pieces; i++) {
+			nominal[i - 1] = bytesPerPiece * i;
+		}
+		return split(input, nominal);
+	}
+
+	private List<File> split(File input, long[] nominal) throws IOException {
+		if (InputFiles.isCompressed(input)) {
+			throw new IOException("cannot split compressed " + input
+					+ " at byte offsets, split it by lines instead");
+		}
+		String path = input.getPath();
+		int pointIndex = path.lastIndexOf(".");
+		String fileSuffix = pointIndex < 0 ? "" : path.substring(pointIndex);
+		String filePathTruncated = pointIndex < 0 ? path : path.substring(0,
+				pointIndex);
+
+		RandomAccessFile raf = new RandomAccessFile(input, "r");
+		try {
+			final FileChannel channel = raf.getChannel();
+			long size = channel.size();
+			List<Long> boundaries = new ArrayList<Long>();
+			boundaries.add(0L);
+			for (long offset : nominal) {
+				long aligned = alignToLineStart(channel, offset, size);
+				if (aligned > boundaries.get(boundaries.size() - 1)
+						&& aligned < size) {
+					boundaries.add(aligned);
+				}
+			}
+			boundaries.add(size);
+
+			List<File> parts = new ArrayList<File>();
+			List<Future<?>> copies = new ArrayList<Future<?>>();
+			for (int i = 0; i + 1 < boundaries.size(); i++) {
+				final File part = new File(filePathTruncated + "_part" + (i + 1)
+						+ fileSuffix);
+				final long from = boundaries.get(i);
+				final long to = boundaries.get(i + 1);
+				parts.add(part);
+				copies.add(pool.submit(new Runnable() {
+					public void run() {
+						try {
+							copyRange(channel, from, to, part);
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
+					}
+				}));
+			}
+			for (Future<?> copy : copies) {
+				await(copy);
+			}
+			return parts;
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static void await(Future<?> future) throws IOException {
+		try {
+			future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while splitting", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) cause).getCause();
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * cut a file into consecutive ranges of about chunkSize bytes, each of
+	 * them starting at the beginning of a line.
+	 *
+	 * @return the boundaries, from 0 to the file size; empty for an empty file
+	 */
+	static List<Long> lineAlignedChunks(FileChannel channel, long size,
+										long chunkSize) throws IOException {
+		List<Long> boundaries = new ArrayList<Long>();
+		if (size == 0) {
+			return boundaries;
+		}
+		long from = 0;
+		boundaries.add(from);
+		while (from < size) {
+			from = from + chunkSize >= size ? size : alignToLineStart(channel,
+					from + chunkSize, size);
+			boundaries.add(from);
+		}
+		return boundaries;
+	}
+
+	/**
+	 * find the first offset at or after the given one which starts a line,
+	 * or the file size if no line starts there.
+	 */
+	static long alignToLineStart(FileChannel channel, long offset, long size)
+			throws IOException {
+		if (offset <= 0) {
+			return 0;
+		}
+		ByteBuffer probe = ByteBuffer.allocate(PROBE_SIZE);
+		// the line starts at offset if the byte before it is '\n'
+		long pos = offset - 1;
+		while (pos < size) {
+			probe.clear();
+			int n = channel.read(probe, pos);
+			if (n <= 0) {
+				break;
+			}
+			for (int i = 0; i < n; i++) {
+				if (probe.get(i) == '\n') {
+					return pos + i + 1;
+				}
+			}
+			pos += n;
+		}
+		return size;
+	}
+
+	private static void copyRange(FileChannel channel, long from, long to,
+								  File part) throws IOException {
+		FileOutputStream fos = new FileOutputStream(part, false);
+		try {
+			FileChannel out = fos.getChannel();
+			long position = from;
+			while (position < to) {
+				long n = channel.transferTo(position, to - position, out);
+				if (n <= 0) {
+					throw new IOException("no progress copying " + part
+							+ " at offset " + position);
+				}
+				position += n;
+			}
+		} finally {
+			fos.close();
+		}
+	}
+}
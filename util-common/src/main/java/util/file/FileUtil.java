@@ -2,11 +2,24 @@ package util.file;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import util.common.HeavyHitters;
+import util.common.KeywordMatcher;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * This class is used to deal with files, provides lots of methods. [for JavaSE
@@ -17,102 +30,243 @@ public class FileUtil {
 	private static final Log LOG = LogFactory.getLog(FileUtil.class);
 
 	/**
-	 * append the content of a file to the end of another.
+	 * size of the blocks tail() reads backwards
+	 */
+	private static final int TAIL_BLOCK_SIZE = 64 * 1024;
+
+	private static final String LINE_SEPARATOR = System.getProperty(
+			"line.separator");
+
+	/**
+	 * the appenders registered by openAsyncAppender(), by absolute path
+	 */
+	private static final Map<String, AsyncFileAppender> APPENDERS =
+			new ConcurrentHashMap<String, AsyncFileAppender>();
+
+	/**
+	 * prints each line to the standard output
+	 */
+	private static final LineHandler PRINT_LINE = new LineHandler() {
+		public void handle(String line) {
+			System.out.println(line);
+		}
+	};
+
+	private static final Function<String, String> TRIM = new Function<String, String>() {
+		public String apply(String line) {
+			return line.trim();
+		}
+	};
+
+	/**
+	 * append the content of a file to the end of another, making sure that
+	 * it starts and ends on a line of its own, see append(String, List,
+	 * boolean).
 	 *
 	 * @param to   the file which will be appended to
 	 * @param from the file whose content will be appended
 	 */
 	public static void append(String to, String from) {
-		FileReader fr = null;
-		BufferedReader br = null;
-		FileWriter fw = null;
-		BufferedWriter bw = null;
+		append(to, from, true);
+	}
+
+	/**
+	 * append the content of a file to the end of another, see
+	 * append(String, List, boolean).
+	 *
+	 * @param to          the file which will be appended to
+	 * @param from        the file whose content will be appended
+	 * @param fixNewlines whether to add a '\n' where a file lacks a trailing
+	 *                    one
+	 */
+	public static void append(String to, String from, boolean fixNewlines) {
+		append(to, Collections.singletonList(from), fixNewlines);
+	}
+
+	/**
+	 * append the content of files, e.g. the parts of a dump, to the end of
+	 * another. The bytes are copied as they are by the kernel through
+	 * FileChannel.transferTo() into the target opened in append mode: nothing
+	 * is decoded and line endings are kept.
+	 *
+	 * @param to          the file which will be appended to, created if
+	 *                    missing
+	 * @param sources     the files whose content will be appended, in order
+	 * @param fixNewlines whether to add a '\n' after the target and after
+	 *                    each source which does not end with one, so that
+	 *                    the last line of a file is never joined with the
+	 *                    first line of the next
+	 * @return the number of bytes appended, or -1 on error
+	 */
+	public static long append(String to, List<String> sources,
+							  boolean fixNewlines) {
+		File target = new File(to);
+		for (String source : sources) {
+			if (target.exists() && new File(source).exists()) {
+				try {
+					if (Files.isSameFile(target.toPath(),
+							new File(source).toPath())) {
+						LOG.error("cannot append " + source + " to itself");
+						return -1;
+					}
+				} catch (IOException e) {
+					e.printStackTrace();
+					return -1;
+				}
+			}
+		}
+
+		long appended = 0;
+		FileOutputStream out = null;
 		try {
-			fr = new FileReader(from);
-			br = new BufferedReader(fr);
-			fw = new FileWriter(to, true);
-			bw = new BufferedWriter(fw, 8192 * 100);
-			while (true) {
-				String line = br.readLine();
-				if (line != null) {
-					bw.write(line);
-					bw.newLine();
-				} else
-					break;
+			boolean endsWithNewline = !fixNewlines || endsWithNewline(target);
+			out = new FileOutputStream(target, true);
+			FileChannel channel = out.getChannel();
+			ByteBuffer newline = ByteBuffer.allocate(1);
+			for (String source : sources) {
+				FileInputStream in = new FileInputStream(source);
+				try {
+					FileChannel sourceChannel = in.getChannel();
+					long size = sourceChannel.size();
+					if (size == 0) {
+						continue;
+					}
+					if (!endsWithNewline) {
+						appended += writeNewline(channel, newline);
+					}
+					long position = 0;
+					while (position < size) {
+						long n = sourceChannel.transferTo(position, size
+								- position, channel);
+						if (n <= 0) {
+							throw new IOException("no progress appending "
+									+ source + " at offset " + position);
+						}
+						position += n;
+					}
+					appended += size;
+					endsWithNewline = !fixNewlines || endsWithNewline(
+							sourceChannel, size);
+				} finally {
+					in.close();
+				}
+			}
+			if (!endsWithNewline) {
+				appended += writeNewline(channel, newline);
 			}
+			return appended;
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
 		} catch (IOException e) {
 			e.printStackTrace();
 		} finally {
-			try {
-				if (bw != null) {
-					bw.close();
-				}
-				if (fw != null) {
-					fw.close();
-				}
-				if (br != null) {
-					br.close();
-				}
-				if (fr != null) {
-					fr.close();
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					e.printStackTrace();
 				}
-			} catch (IOException e) {
-				e.printStackTrace();
 			}
 		}
+		return -1;
 	}
 
-	public static void checkSpecialChar(String filePath) {
+	/**
+	 * @return true if the file is missing, empty or ends with '\n'
+	 */
+	private static boolean endsWithNewline(File file) throws IOException {
+		if (!file.exists()) {
+			return true;
+		}
+		FileInputStream in = new FileInputStream(file);
 		try {
-			FileReader fileReader;
-			fileReader = new FileReader(filePath);
-			LineNumberReader lnr = new LineNumberReader(fileReader);
-			while (true) {
-				String line = lnr.readLine();
-				if (line != null) {
-					char[] chars = line.toCharArray();
-					for (char c : chars) {
-						if (c < 32 || c > 126) {
-							LOG.info("special char in line#"
-									+ lnr.getLineNumber() + ": ");
-							LOG.info(line);
-							break;
-						}
-					}
-				} else
-					break;
+			FileChannel channel = in.getChannel();
+			return endsWithNewline(channel, channel.size());
+		} finally {
+			in.close();
+		}
+	}
+
+	private static boolean endsWithNewline(FileChannel channel, long size)
+			throws IOException {
+		if (size == 0) {
+			return true;
+		}
+		ByteBuffer last = ByteBuffer.allocate(1);
+		readFully(channel, last, size - 1, 1);
+		return last.get(0) == '\n';
+	}
+
+	private static int writeNewline(FileChannel channel, ByteBuffer newline)
+			throws IOException {
+		newline.clear();
+		newline.put((byte) '\n');
+		newline.flip();
+		while (newline.hasRemaining()) {
+			channel.write(newline);
+		}
+		return 1;
+	}
+
+	/**
+	 * log the lines of a file which hold a char outside printable ASCII (32 to
+	 * 126), see scanSpecialChars().
+	 *
+	 * @param filePath the file to check
+	 */
+	public static void checkSpecialChar(String filePath) {
+		SpecialCharScanner.Report report = scanSpecialChars(filePath, 0);
+		if (report != null) {
+			for (SpecialCharScanner.Hit hit : report.getHits()) {
+				LOG.info("special char in " + hit);
 			}
-			lnr.close();
-			fileReader.close();
+		}
+	}
+
+	/**
+	 * find the lines of a file which hold a byte outside printable ASCII (32
+	 * to 126) other than the line terminators. The mapped bytes are scanned
+	 * in parallel chunks without decoding.
+	 *
+	 * @param filePath the file to check
+	 * @param maxHits  stop after this many lines, 0 for no limit
+	 * @return the line number and byte offset of the first special char of
+	 * each such line, or null if the file cannot be read
+	 */
+	public static SpecialCharScanner.Report scanSpecialChars(String filePath,
+															 int maxHits) {
+		try {
+			return new SpecialCharScanner(maxHits).scan(new File(filePath));
 		} catch (FileNotFoundException e) {
-			e.printStackTrace();
+			LOG.error(e.getMessage(), e);
+			return null;
 		} catch (IOException e) {
-			e.printStackTrace();
+			LOG.error(e.getMessage(), e);
+			return null;
 		}
 	}
 
+	/**
+	 * print the lines of a file which contain any of the strings to check.
+	 *
+	 * @param filePath the file to check
+	 * @param checkSet the strings to look for
+	 */
 	public static void checkStringSet(String filePath,
 									  Collection<String> checkSet) {
+		KeywordMatcher matcher = new KeywordMatcher(checkSet);
 		try {
-			FileReader fileReader;
-			fileReader = new FileReader(filePath);
-			BufferedReader br = new BufferedReader(fileReader);
+			BufferedReader br = InputFiles.newReader(new File(filePath));
 			while (true) {
 				String line = br.readLine();
 				if (line != null) {
-					for (String checkItem : checkSet) {
-						if (line.contains(checkItem)) {
-							System.out.println(line);
-							continue;
-						}
+					if (matcher.containsAny(line)) {
+						System.out.println(line);
 					}
 				} else
 					break;
 			}
 			br.close();
-			fileReader.close();
 
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
@@ -121,87 +275,52 @@ public class FileUtil {
 		}
 	}
 
+	/**
+	 * remove the duplicate lines of a file after trimming them, the first
+	 * occurrences are written to the "_clean" file next to it in their
+	 * original order. Only line fingerprints are kept in memory, and they are
+	 * partitioned to disk if they exceed the default memory budget.
+	 *
+	 * @param filePath the file to be cleaned
+	 */
 	public static void cleanDuplicateLines(String filePath) {
-		FileReader fr = null;
-		BufferedReader br = null;
-		FileWriter fw = null;
-		BufferedWriter bw = null;
-		HashSet<String> all = new HashSet<String>();
-		try {
-			fr = new FileReader(filePath);
-			br = new BufferedReader(fr);
-
-			String[] part = filePath.split("\\.");
-			fw = new FileWriter(part[0] + "_clean." + part[1], false);
-			bw = new BufferedWriter(fw, 8192 * 100);
+		cleanDuplicateLines(filePath, LineDeduplicator.DEFAULT_MEMORY_BUDGET);
+	}
 
-			while (true) {
-				String line = br.readLine();
-				if (line != null) {
-					line = line.trim();
-					if (!all.contains(line)) {
-						bw.write(line);
-						bw.newLine();
-						all.add(line);
-					}
-				} else
-					break;
-			}
-			bw.flush();
+	/**
+	 * remove the duplicate lines of a file after trimming them, the first
+	 * occurrences are written to the "_clean" file next to it in their
+	 * original order.
+	 *
+	 * @param filePath     the file to be cleaned
+	 * @param memoryBudget approximate heap bytes for the line fingerprints
+	 */
+	public static void cleanDuplicateLines(String filePath, long memoryBudget) {
+		String[] part = filePath.split("\\.");
+		File output = new File(part[0] + "_clean." + part[1]);
+		try {
+			new LineDeduplicator(memoryBudget, true).deduplicate(new File(
+					filePath), output);
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
 		} catch (IOException e) {
 			e.printStackTrace();
-		} finally {
-			try {
-				bw.close();
-				fw.close();
-				br.close();
-				fr.close();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
 		}
 	}
 
+	/**
+	 * print the entities (subjects and objects) of the second file which are
+	 * not in the first one, in the order they occur. Both files are encoded
+	 * against one dictionary and compared as bitmaps of entity IDs.
+	 */
 	public static void compareEntities(String path1, String path2) {
 		try {
-			FileReader fileReader;
-			fileReader = new FileReader(path1);
-			BufferedReader br = new BufferedReader(fileReader);
-			Set<String> set = new HashSet<String>();
-			while (true) {
-				String line = br.readLine();
-				if (line != null) {
-					String[] entity = line.split(" ");
-					set.add(entity[0]);
-					set.add(entity[2]);
-				} else
-					break;
-			}
-			br.close();
-			fileReader.close();
-
-			FileReader fileReader2;
-			fileReader2 = new FileReader(path2);
-			BufferedReader br2 = new BufferedReader(fileReader2);
-			Set<String> set2 = new HashSet<String>();
-			while (true) {
-				String line = br2.readLine();
-				if (line != null) {
-					String[] entity = line.split(" ");
-					set2.add(entity[0]);
-					set2.add(entity[2]);
-				} else
-					break;
-			}
-			br2.close();
-			fileReader2.close();
-
-			for (String string : set2) {
-				if (!set.contains(string)) {
-					System.out.println(string);
-				}
+			EntityIndex index = new EntityIndex();
+			BitSet set = index.add(new File(path1));
+			BitSet set2 = index.add(new File(path2));
+			set2.andNot(set);
+			for (String string : index.terms(set2)) {
+				System.out.println(string);
 			}
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
@@ -211,23 +330,16 @@ public class FileUtil {
 
 	}
 
+	/**
+	 * collect the entities (subjects and objects) of a file.
+	 */
 	public static Set<String> countEntities(String aaa) {
 		try {
-			FileReader fileReader;
-			fileReader = new FileReader(aaa);
-			BufferedReader a = new BufferedReader(fileReader);
-			Set<String> result = new HashSet<String>();
-			while (true) {
-				String line = a.readLine();
-				if (line != null) {
-					String[] entity = line.split(" ");
-					result.add(entity[0]);
-					result.add(entity[2]);
-				} else
-					break;
-			}
-			a.close();
-			fileReader.close();
+			EntityIndex index = new EntityIndex();
+			List<String> entities = index.terms(index.add(new File(aaa)));
+			Set<String> result = new HashSet<String>(
+					Math.max(16, (int) (entities.size() / 0.75f) + 1));
+			result.addAll(entities);
 			return result;
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
@@ -238,149 +350,140 @@ public class FileUtil {
 		return null;
 	}
 
-	public static long countLines(List<?> paths) {
-		long totalLines = 0L;
-		FileReader fileReader = null;
-		BufferedReader a = null;
-		// long begin = System.currentTimeMillis();
+	/**
+	 * count the distinct entities (subjects and objects) of a file, without
+	 * creating a String per entity.
+	 *
+	 * @return the number of entities, or -1 if the file cannot be read
+	 */
+	public static int countDistinctEntities(String filePath) {
 		try {
-			for (Object path : paths) {
-				long currentFileLines = 0L;
-				System.out.println("counting file: " + path);
-
-				if (path instanceof String) {
-					fileReader = new FileReader((String) path);
-				} else if (path instanceof File) {
-					fileReader = new FileReader((File) path);
-				}
-
-				a = new BufferedReader(fileReader);
+			return new EntityIndex().add(new File(filePath)).cardinality();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return -1;
+	}
 
-				while (true) {
-					String line = a.readLine();
-					if (line != null) {
-						currentFileLines++;
-					} else {
-						break;
-					}
-				}
+	/**
+	 * estimate the number of distinct entities (subjects and objects) of a
+	 * file in constant memory, see DistinctEstimator.
+	 *
+	 * @param precision the HyperLogLog precision, 12 gives about 1.6% error
+	 * @return the estimate, or -1 if the file cannot be read
+	 */
+	public static long estimateDistinctEntities(String filePath, int precision) {
+		try {
+			return new DistinctEstimator(precision).entities(
+					Collections.singletonList(new File(filePath))).cardinality();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return -1;
+	}
 
-				System.out.println("current file lines: " + currentFileLines);
-				System.out.println();
-				totalLines += currentFileLines;
-			}
-			a.close();
-			fileReader.close();
-		} catch (FileNotFoundException e) {
+	/**
+	 * estimate the number of distinct lines of a file in constant memory, see
+	 * DistinctEstimator.
+	 *
+	 * @param precision the HyperLogLog precision, 12 gives about 1.6% error
+	 * @return the estimate, or -1 if the file cannot be read
+	 */
+	public static long estimateDistinctLines(String filePath, int precision) {
+		try {
+			return new DistinctEstimator(precision).lines(
+					Collections.singletonList(new File(filePath))).cardinality();
+		} catch (IOException e) {
 			e.printStackTrace();
+		}
+		return -1;
+	}
+
+	/**
+	 * estimate how many lines of a file repeat an earlier line, i.e. how many
+	 * lines findDuplicateLines() would print, without holding the lines.
+	 *
+	 * @param precision the HyperLogLog precision, 12 gives about 1.6% error
+	 *                  of the distinct lines
+	 * @return the estimate, or -1 if the file cannot be read
+	 */
+	public static long estimateDuplicateLines(String filePath, int precision) {
+		try {
+			File file = new File(filePath);
+			long lines = new LineCounter().count(file);
+			long distinct = new DistinctEstimator(precision).lines(
+					Collections.singletonList(file)).cardinality();
+			return Math.max(0, lines - distinct);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
-		System.out.println("total lines: " + totalLines);
-		// long end = System.currentTimeMillis();
-		// System.out.println("\ntotal count time:" + (end - begin) + "ms");
-		return totalLines;
+		return -1;
 	}
 
-	public static long countLines2(List<?> paths) {
-		long totalLines = 0L;
-		// long begin = System.currentTimeMillis();
+	/**
+	 * count the lines of the files. The files are memory mapped and counted
+	 * concurrently, each of them split into byte ranges counted in parallel.
+	 *
+	 * @param paths the files to count, as String, File or Path
+	 * @return the total lines of all the files
+	 */
+	public static long countLines(List<?> paths) {
+		List<File> files = new ArrayList<File>(paths.size());
 		for (Object path : paths) {
-			FileInputStream fis = null;
-			InputStreamReader isr = null;
-			LineNumberReader lnr = null;
-			try {
-				System.out.println("counting file: " + path);
-
-				long fileLength = 0;
-				if (path instanceof String) {
-					fileLength = (new File((String) path)).length();
-					fis = new FileInputStream((String) path);
-				} else if (path instanceof File) {
-					fileLength = ((File) path).length();
-					fis = new FileInputStream((File) path);
-				}
-				isr = new InputStreamReader(fis, Charset.forName("UTF-8"));
-				lnr = new LineNumberReader(isr);
-				lnr.skip(fileLength);
-				long currentFileLines = lnr.getLineNumber();
-
-				System.out.println("current file lines: " + currentFileLines);
-				// System.out.println();
-				totalLines += currentFileLines;
-			} catch (FileNotFoundException e) {
-				e.printStackTrace();
-			} catch (IOException e) {
-				e.printStackTrace();
-			} finally {
-				if (lnr != null) {
-					try {
-						lnr.close();
-					} catch (IOException e) {
-					}
-				}
-				if (isr != null) {
-					try {
-						isr.close();
-					} catch (IOException e) {
-					}
-				}
-				if (fis != null) {
-					try {
-						fis.close();
-					} catch (IOException e) {
-					}
-				}
+			File file = fileOf(path);
+			if (file != null) {
+				files.add(file);
 			}
 		}
 
-		System.out.println("total lines: " + totalLines);
-		// long end = System.currentTimeMillis();
-		// System.out.println("\ntotal count time:" + (end - begin) + "ms");
-
-		return totalLines;
-	}
-
-	public static void countSpecifiedContent(String filePath, String content) {
+		long totalLines = 0L;
 		try {
-			FileReader fileReader;
-			fileReader = new FileReader(filePath);
-			BufferedReader br = new BufferedReader(fileReader);
-
-			long count = 0;
-
-			while (true) {
-				String line = br.readLine();
-				if (line != null) {
-					if (line.contains(content)) {
-						count++;
-					}
-				} else
-					break;
+			long[] lines = new LineCounter().count(files);
+			for (int i = 0; i < lines.length; i++) {
+				System.out.println("counting file: " + files.get(i));
+				System.out.println("current file lines: " + lines[i]);
+				totalLines += lines[i];
 			}
-			System.out.println(count);
-			br.close();
-			fileReader.close();
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
 		} catch (IOException e) {
 			e.printStackTrace();
-		} finally {
 		}
+		System.out.println("total lines: " + totalLines);
+		return totalLines;
+	}
 
+	/**
+	 * same as countLines(), kept for the callers of the former
+	 * LineNumberReader based implementation.
+	 *
+	 * @param paths the files to count, as String, File or Path
+	 * @return the total lines of all the files
+	 */
+	public static long countLines2(List<?> paths) {
+		return countLines(paths);
+	}
+
+	/**
+	 * print the number of lines of a UTF-8 file which contain the content.
+	 * The mapped bytes are searched in parallel without decoding the lines.
+	 *
+	 * @param filePath the file to search
+	 * @param content  the content to look for
+	 */
+	public static void countSpecifiedContent(String filePath, String content) {
+		System.out.println(getSpecificLineCount(filePath, content));
 	}
 
 	public static void divideByLines(String filePath, long linePerPiece) {
 		FileWriter fw = null;
 		BufferedWriter bw = null;
 
-		int pointIndex = filePath.lastIndexOf(".");
-		String fileSuffix = filePath.substring(pointIndex);
-		String filePathTruncated = filePath.substring(0, pointIndex);
 		try {
-			FileReader fileReader;
-			fileReader = new FileReader(filePath);
-			BufferedReader br = new BufferedReader(fileReader);
+			// the parts of a compressed file are written decoded
+			String plainPath = InputFiles.plainPath(filePath);
+			int pointIndex = plainPath.lastIndexOf(".");
+			String fileSuffix = plainPath.substring(pointIndex);
+			String filePathTruncated = plainPath.substring(0, pointIndex);
+			BufferedReader br = InputFiles.newReader(new File(filePath));
 
 			String line = null;
 			int part = 1;
@@ -403,7 +506,7 @@ public class FileUtil {
 				bw.flush();
 				part++;
 			}
-			fileReader.close();
+			br.close();
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
 		} catch (IOException e) {
@@ -418,82 +521,67 @@ public class FileUtil {
 		}
 	}
 
+	/**
+	 * divide a file into the given number of parts of roughly equal size,
+	 * named "name_part1.ext", "name_part2.ext"... Part boundaries are aligned
+	 * to line starts and the parts are copied in parallel.
+	 *
+	 * @param filePath the file to divide
+	 * @param pieces   the number of parts
+	 */
 	public static void divideInto(String filePath, int pieces) {
-		long totalLines = countLines2(Arrays.asList(filePath));
-		long linePerPiece = totalLines / pieces + 1;
-		System.out.println("lines per piece: " + linePerPiece);
-		divideByLines(filePath, linePerPiece);
-	}
-
-	public static void filterKeywords(String filePath, HashSet<String> keywords) {
-		FileReader fr = null;
-		BufferedReader br = null;
-		FileWriter fw = null;
-		BufferedWriter bw = null;
 		try {
-			fr = new FileReader(filePath);
-			br = new BufferedReader(fr);
-
-			String[] part = filePath.split("\\.");
-			fw = new FileWriter(part[0] + "_filtered." + part[1], false);
-			bw = new BufferedWriter(fw, 8192 * 100);
-
-			while (true) {
-				String line = br.readLine();
-				if (line != null) {
-					line = line.trim();
-					for (String keyword : keywords) {
-						if (!line.contains(keyword)) {
-							bw.write(line);
-							bw.newLine();
-						}
-					}
-
-				} else
-					break;
-			}
-			bw.flush();
+			List<File> parts = new FileSplitter().splitInto(new File(filePath),
+					pieces);
+			System.out.println("divided into " + parts.size() + " pieces");
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
 		} catch (IOException e) {
 			e.printStackTrace();
-		} finally {
-			try {
-				bw.close();
-				fw.close();
-				br.close();
-				fr.close();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
 		}
 	}
 
-	public static void findDuplicateCities(String path) {
-		HashSet<String> all = new HashSet<String>();
+	/**
+	 * divide a file into parts of about the given size, named
+	 * "name_part1.ext", "name_part2.ext"... Part boundaries are aligned to
+	 * line starts and the parts are copied in parallel.
+	 *
+	 * @param filePath      the file to divide
+	 * @param bytesPerPiece the target size of each part
+	 */
+	public static void divideBySize(String filePath, long bytesPerPiece) {
 		try {
-			FileReader fileReader;
-			fileReader = new FileReader(path);
-			BufferedReader a = new BufferedReader(fileReader);
+			List<File> parts = new FileSplitter().splitBySize(new File(
+					filePath), bytesPerPiece);
+			System.out.println("divided into " + parts.size() + " pieces");
+		} catch (FileNotFoundException e) {
+			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
 
-			while (true) {
-				String line = a.readLine();
-				if (line != null) {
-					if (line.startsWith("US.")) {
-						String city = line.substring(0, 9);
-						if (all.contains(city)) {
-							System.out.println(city);
-						} else {
-							all.add(city);
+	/**
+	 * write the trimmed lines of a file which contain none of the keywords to
+	 * the "_filtered" file next to it, in file order. All the keywords are
+	 * searched in one pass over each line, and the lines are filtered in
+	 * parallel by a LinePipeline.
+	 *
+	 * @param filePath the file to filter
+	 * @param keywords the keywords of the lines to drop
+	 */
+	public static void filterKeywords(String filePath, HashSet<String> keywords) {
+		final KeywordMatcher matcher = new KeywordMatcher(keywords);
+		try {
+			String[] part = filePath.split("\\.");
+			LinePipeline.of(new File(filePath)).map(TRIM)
+					.filter(new Predicate<String>() {
+						public boolean test(String line) {
+							return !matcher.containsAny(line);
 						}
-					}
-				} else {
-					break;
-				}
-			}
-
-			a.close();
-			fileReader.close();
+					})
+					.writeTo(new File(part[0] + "_filtered." + part[1]), false,
+							true);
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
 		} catch (IOException e) {
@@ -501,115 +589,174 @@ public class FileUtil {
 		}
 	}
 
-	public static void findDuplicateLines(String path) {
+	/**
+	 * print the repeated city codes, the first 9 chars of the lines starting
+	 * with "US.". Only the lines with that prefix are decoded.
+	 *
+	 * @param path the file of cities
+	 */
+	public static void findDuplicateCities(String path) {
 		HashSet<String> all = new HashSet<String>();
+		Charset charset = Charset.defaultCharset();
+		byte[] prefix = "US.".getBytes(charset);
+		LineSource source = null;
 		try {
-			FileReader fileReader;
-			fileReader = new FileReader(path);
-			BufferedReader a = new BufferedReader(fileReader);
-
-			while (true) {
-				String line = a.readLine();
-				if (line != null) {
-					if (all.contains(line)) {
-						System.out.println(line);
-					} else {
-						all.add(line);
+			source = LineSource.open(new File(path), charset);
+			LineSlice line;
+			while ((line = source.next()) != null) {
+				if (line.startsWith(prefix)) {
+					String city = line.toString().substring(0, 9);
+					if (!all.add(city)) {
+						System.out.println(city);
 					}
-				} else {
-					break;
 				}
 			}
-			a.close();
-			fileReader.close();
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
 		} catch (IOException e) {
 			e.printStackTrace();
-		}
-	}
-
-	public static void findLostLines(String pathCheckSetFile,
-									 String pathTargetFile) {
-		HashSet<String> checkSet = new HashSet<String>();
-		try {
-			FileReader fileReader;
-			fileReader = new FileReader(pathCheckSetFile);
-			BufferedReader a = new BufferedReader(fileReader);
-
-			while (true) {
-				String line = a.readLine();
-				if (line != null) {
-					checkSet.add(line);
-				} else {
-					break;
+		} finally {
+			try {
+				if (source != null) {
+					source.close();
 				}
+			} catch (IOException e) {
+				e.printStackTrace();
 			}
-			a.close();
-			fileReader.close();
+		}
+	}
 
-			fileReader = new FileReader(pathTargetFile);
-			a = new BufferedReader(fileReader);
+	/**
+	 * print the lines of a file which occur more than once, each once after
+	 * the whole file is read, as the number of its first occurrence, its
+	 * number of occurrences and the line, tab separated. The distinct lines
+	 * are kept off the heap, see DuplicateLineFinder.
+	 *
+	 * @param path the file to check
+	 */
+	public static void findDuplicateLines(String path) {
+		findDuplicateLines(path, null);
+	}
 
-			while (true) {
-				String line = a.readLine();
-				if (line != null) {
-					if (checkSet.contains(line)) {
-						checkSet.remove(line);
-					}
-				} else {
-					break;
+	/**
+	 * like findDuplicateLines(String), keeping the distinct lines in mapped
+	 * temporary files in a directory instead of direct memory, for files
+	 * with more distinct lines than fit in memory.
+	 *
+	 * @param path      the file to check
+	 * @param directory the directory of the temporary files, null for direct
+	 *                  memory
+	 */
+	public static void findDuplicateLines(String path, String directory) {
+		try {
+			long repeated = new DuplicateLineFinder(directory == null ? null
+					: new File(directory)).find(new File(path),
+					Charset.defaultCharset(), new DuplicateLineFinder.Handler() {
+				public void handle(String line, long firstLine, long count) {
+					System.out.println(firstLine + "\t" + count + "\t" + line);
 				}
-			}
-			a.close();
-			fileReader.close();
-
+			});
+			System.out.println("repeated lines: " + repeated);
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
+	}
 
-		for (String string : checkSet) {
-			System.out.println(string);
-		}
+	/**
+	 * print the lines of the check file which are missing from the target
+	 * file, each once and in sorted order.
+	 *
+	 * @param pathCheckSetFile the file holding the expected lines
+	 * @param pathTargetFile   the file to be checked
+	 */
+	public static void findLostLines(String pathCheckSetFile,
+									 String pathTargetFile) {
+		compareLines(pathCheckSetFile, pathTargetFile,
+				LineSetOperations.Operation.DIFFERENCE, PRINT_LINE);
+	}
+
+	/**
+	 * write the lines of the check file which are missing from the target
+	 * file to the output file, each once and in sorted order.
+	 *
+	 * @param pathCheckSetFile the file holding the expected lines
+	 * @param pathTargetFile   the file to be checked
+	 * @param output           the result file, overwritten if exists
+	 */
+	public static void findLostLines(String pathCheckSetFile,
+									 String pathTargetFile, String output) {
+		compareLines(pathCheckSetFile, pathTargetFile,
+				LineSetOperations.Operation.DIFFERENCE, output);
 	}
 
+	/**
+	 * print the lines of the target file which are not in the check file,
+	 * each once and in sorted order.
+	 *
+	 * @param pathCheckSetFile the file holding the known lines
+	 * @param pathTargetFile   the file to be checked
+	 */
 	public static void findNewLines(String pathCheckSetFile,
 									String pathTargetFile) {
-		HashSet<String> checkSet = new HashSet<String>();
-		try {
-			FileReader fileReader;
-			fileReader = new FileReader(pathCheckSetFile);
-			BufferedReader a = new BufferedReader(fileReader);
+		compareLines(pathTargetFile, pathCheckSetFile,
+				LineSetOperations.Operation.DIFFERENCE, PRINT_LINE);
+	}
 
-			while (true) {
-				String line = a.readLine();
-				if (line != null) {
-					checkSet.add(line);
-				} else {
-					break;
-				}
-			}
-			a.close();
-			fileReader.close();
+	/**
+	 * write the lines of the target file which are not in the check file to
+	 * the output file, each once and in sorted order.
+	 *
+	 * @param pathCheckSetFile the file holding the known lines
+	 * @param pathTargetFile   the file to be checked
+	 * @param output           the result file, overwritten if exists
+	 */
+	public static void findNewLines(String pathCheckSetFile,
+									String pathTargetFile, String output) {
+		compareLines(pathTargetFile, pathCheckSetFile,
+				LineSetOperations.Operation.DIFFERENCE, output);
+	}
 
-			fileReader = new FileReader(pathTargetFile);
-			a = new BufferedReader(fileReader);
+	/**
+	 * print the lines which are in both files, each once and in sorted order.
+	 *
+	 * @param path1 one file
+	 * @param path2 the other file
+	 */
+	public static void findSameLines(String path1, String path2) {
+		compareLines(path1, path2, LineSetOperations.Operation.INTERSECTION,
+				PRINT_LINE);
+	}
 
-			while (true) {
-				String line = a.readLine();
-				if (line != null) {
-					if (!checkSet.contains(line)) {
-						System.out.println(line);
-					}
-				} else {
-					break;
-				}
-			}
-			a.close();
-			fileReader.close();
+	/**
+	 * write the lines which are in both files to the output file, each once
+	 * and in sorted order.
+	 *
+	 * @param path1  one file
+	 * @param path2  the other file
+	 * @param output the result file, overwritten if exists
+	 */
+	public static void findSameLines(String path1, String path2, String output) {
+		compareLines(path1, path2, LineSetOperations.Operation.INTERSECTION,
+				output);
+	}
 
+	/**
+	 * run a set operation between the lines of two files and pass the result
+	 * lines to the handler. Both files are sorted externally if needed, so
+	 * they may be larger than the heap.
+	 *
+	 * @param left      the left file
+	 * @param right     the right file
+	 * @param operation the set operation
+	 * @param handler   receives each result line once, in sorted order
+	 */
+	public static void compareLines(String left, String right,
+									LineSetOperations.Operation operation, LineHandler handler) {
+		try {
+			new LineSetOperations().compute(new File(left), new File(right),
+					operation, handler);
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
 		} catch (IOException e) {
@@ -617,40 +764,20 @@ public class FileUtil {
 		}
 	}
 
-	public static void findSameLines(String path1, String path2) {
-		HashSet<String> lines1 = new HashSet<String>();
+	/**
+	 * run a set operation between the lines of two files and write the result
+	 * lines to the output file.
+	 *
+	 * @param left      the left file
+	 * @param right     the right file
+	 * @param operation the set operation
+	 * @param output    the result file, overwritten if exists
+	 */
+	public static void compareLines(String left, String right,
+									LineSetOperations.Operation operation, String output) {
 		try {
-			FileReader fileReader;
-			fileReader = new FileReader(path1);
-			BufferedReader a = new BufferedReader(fileReader);
-
-			while (true) {
-				String line = a.readLine();
-				if (line != null) {
-					lines1.add(line);
-				} else {
-					break;
-				}
-			}
-			a.close();
-			fileReader.close();
-
-			fileReader = new FileReader(path2);
-			a = new BufferedReader(fileReader);
-
-			while (true) {
-				String line = a.readLine();
-				if (line != null) {
-					if (lines1.contains(line)) {
-						System.out.println(line);
-					}
-				} else {
-					break;
-				}
-			}
-			a.close();
-			fileReader.close();
-
+			new LineSetOperations().compute(new File(left), new File(right),
+					operation, new File(output));
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
 		} catch (IOException e) {
@@ -658,112 +785,136 @@ public class FileUtil {
 		}
 	}
 
+	/**
+	 * append the lines of a UTF-8 file which contain the content to the
+	 * output file and print their number. The mapped bytes are searched in
+	 * parallel and only the matching lines are copied.
+	 *
+	 * @param filePath the file to search
+	 * @param content  the content to look for
+	 * @param output   the file the matching lines are appended to
+	 */
 	public static void findSpecifiedContent(String filePath, String content,
 											String output) {
-		FileWriter fw = null;
-		BufferedWriter bw = null;
+		FileOutputStream fos = null;
+		BufferedOutputStream bos = null;
 		try {
-			FileReader fileReader;
-			fileReader = new FileReader(filePath);
-			BufferedReader a = new BufferedReader(fileReader);
-
-			fw = new FileWriter(output, true);
-			bw = new BufferedWriter(fw, 8192 * 100);
-			long count = 0;
-
-			while (true) {
-				String line = a.readLine();
-				if (line != null) {
-					if (line.contains(content)) {
-						bw.write(line);
-						bw.newLine();
-						count++;
-					}
-				} else
-					break;
-			}
+			fos = new FileOutputStream(output, true);
+			bos = new BufferedOutputStream(fos, 8192 * 100);
+			long count = new ContentSearcher(content).findLines(new File(
+					filePath), bos);
 			System.out.println(count);
-			bw.flush();
-			a.close();
-			fileReader.close();
+			bos.flush();
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
 		} catch (IOException e) {
 			e.printStackTrace();
 		} finally {
 			try {
-				bw.close();
-				fw.close();
+				if (bos != null) {
+					bos.close();
+				}
+				if (fos != null) {
+					fos.close();
+				}
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
 		}
 	}
 
+	/**
+	 * print a line of a file and the 100 lines after it. The line is found
+	 * through the LineIndex of the file, which is built and saved next to it
+	 * on the first call, so that later calls seek to the line directly. A
+	 * compressed file cannot be indexed and is decoded up to the line.
+	 *
+	 * @param filePath   the file
+	 * @param lineNumber the number of the line, from 1
+	 */
 	public static void findSpecifiedLinebyLineNumber(String filePath,
 													 int lineNumber) {
+		LineIndex index = null;
 		try {
-			FileReader fileReader;
-			fileReader = new FileReader(filePath);
-			BufferedReader br = new BufferedReader(fileReader);
-
-			for (int i = 1; i < lineNumber; i++) {
-				br.readLine();
+			File file = new File(filePath);
+			List<String> lines;
+			if (InputFiles.isCompressed(file)) {
+				lines = readDecodedLines(file, lineNumber, 101);
+			} else {
+				index = LineIndex.open(file);
+				lines = index.readLines(lineNumber, 101);
 			}
 
-			String line = br.readLine();
-			System.out.println(line);
+			System.out.println(lines.isEmpty() ? null : lines.get(0));
 
 			System.out.println();
 			System.out.println("Next 100 lines:");
-			for (int i = 0; i < 100; i++) {
-				line = br.readLine();
-				if (line != null) {
-					System.out.println(line);
-				}
-
+			for (int i = 1; i < lines.size(); i++) {
+				System.out.println(lines.get(i));
 			}
-
-			fileReader.close();
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
 		} catch (IOException e) {
 			e.printStackTrace();
 		} finally {
+			if (index != null) {
+				try {
+					index.close();
+				} catch (IOException e) {
+				}
+			}
 		}
 
 	}
 
+	/**
+	 * read count lines of a compressed file from a line number, reading it
+	 * from its start without decoding the lines before.
+	 */
+	private static List<String> readDecodedLines(File file, long first,
+												 int count) throws IOException {
+		List<String> lines = new ArrayList<String>(count);
+		LineSource source = LineSource.open(file, Charset.forName("UTF-8"));
+		try {
+			source.skip(first - 1);
+			LineSlice line;
+			while (lines.size() < count && (line = source.next()) != null) {
+				lines.add(line.toString());
+			}
+		} finally {
+			source.close();
+		}
+		return lines;
+	}
+
+	/**
+	 * get the absolute paths of all the files under a directory, in any
+	 * depth. Unreadable directories are skipped.
+	 *
+	 * @param file the directory
+	 * @return the file paths, sorted
+	 */
 	public static ArrayList<String> getChildrenFilePath(File file) {
 		ArrayList<String> result = new ArrayList<String>();
-		File[] children = file.listFiles();
-		for (int i = 0; i < children.length; i++) {
-			if (children[i].isFile()) {
-				result.add(children[i].getAbsolutePath());
-			} else {
-				result.addAll(getChildrenFilePath(children[i]));
-			}
+		for (DirectoryWalker.Entry entry : new DirectoryWalker().list(file
+				.toPath())) {
+			result.add(entry.getPath().toAbsolutePath().toString());
 		}
 		return result;
 	}
 
+	/**
+	 * count the lines of a UTF-8 file which contain the string. The mapped
+	 * bytes are searched in parallel without decoding the lines.
+	 *
+	 * @param path the file to search
+	 * @param str  the string to look for
+	 * @return the number of matching lines
+	 */
 	public static long getSpecificLineCount(String path, String str) {
 		long result = 0;
 		try {
-			FileReader fileReader;
-			fileReader = new FileReader(path);
-			BufferedReader a = new BufferedReader(fileReader);
-
-			while (true) {
-				String line = a.readLine();
-				if (line != null) {
-					if (line.contains(str))
-						result++;
-				} else
-					break;
-			}
-			a.close();
-			fileReader.close();
+			result = new ContentSearcher(str).countLines(new File(path));
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
 		} catch (IOException e) {
@@ -773,23 +924,37 @@ public class FileUtil {
 		return result;
 	}
 
+	/**
+	 * list all the files under a directory, in any depth. Directories are
+	 * listed in parallel and unreadable ones are skipped.
+	 *
+	 * @param directory the directory
+	 * @return the files, sorted by path
+	 */
 	public static ArrayList<File> listAllFiles(File directory) {
 		ArrayList<File> files = new ArrayList<File>();
-		LinkedList<File> waitingLine = new LinkedList<File>();
-		waitingLine.addAll(Arrays.asList(directory.listFiles()));
-		while (!waitingLine.isEmpty()) {
-			File file = waitingLine.poll();
-			if (file != null) {
-				if (file.isFile()) {
-					files.add(file);
-				} else {
-					waitingLine.addAll(Arrays.asList(file.listFiles()));
-				}
-			}
+		for (DirectoryWalker.Entry entry : new DirectoryWalker().list(directory
+				.toPath())) {
+			files.add(entry.getPath().toFile());
 		}
 		return files;
 	}
 
+	/**
+	 * list the files under a directory whose name matches a glob pattern,
+	 * with their sizes, e.g. to balance the work over the files.
+	 *
+	 * @param directory the directory
+	 * @param glob      the pattern of the file names, e.g. "*.nt", null for all
+	 * @param maxDepth  the deepest level to list, 1 for the direct children
+	 * @return the files and their sizes, sorted by path
+	 */
+	public static List<DirectoryWalker.Entry> listFiles(File directory,
+														String glob, int maxDepth) {
+		return new DirectoryWalker(maxDepth, glob == null ? null
+				: DirectoryWalker.glob(glob)).list(directory.toPath());
+	}
+
 	public static ArrayList<File> listChildFiles(File directory) {
 		ArrayList<File> files = new ArrayList<File>();
 		ArrayList<File> checkList = new ArrayList<File>();
@@ -802,104 +967,156 @@ public class FileUtil {
 		return files;
 	}
 
+	/**
+	 * print the lines of a city list in a normalized form, in file order: the
+	 * first letter of every word is capitalized and a parenthesized part, e.g.
+	 * the country, is moved to a tab-separated column without its commas.
+	 * Blank lines are skipped.
+	 *
+	 * @param path the file of cities, one per line
+	 */
 	public static void pretreatmentForFactualCities(String path) {
 		try {
-			FileReader fileReader;
-			fileReader = new FileReader(path);
-			BufferedReader a = new BufferedReader(fileReader);
-
-			while (true) {
-				String line = a.readLine();
-				if (line != null) {
-					if (!line.isEmpty()) {
-						line = line.trim();
-						String firstLetter = line.substring(0, 1);
-						line = line.replaceFirst(firstLetter,
-								firstLetter.toUpperCase());
-
-						int indexOfBlank = 0;
-						while (line.substring(indexOfBlank + 1).contains(" ")) {
-							int newBlank = line.substring(indexOfBlank + 1)
-									.indexOf(" ");
-							indexOfBlank = indexOfBlank + 1 + newBlank;
-							String afterBlank = line.substring(
-									indexOfBlank + 1, indexOfBlank + 2);
-							line = line.substring(0, indexOfBlank) + " "
-									+ afterBlank.toUpperCase()
-									+ line.substring(indexOfBlank + 2);
-						}
-
-						int indexOfBracket = line.indexOf("(");
-						if (indexOfBracket != -1) {
-							line = line.substring(0, indexOfBracket)
-									+ line.substring(indexOfBracket).replace(
-									",", "");
+			LinePipeline.of(new File(path)).map(TRIM)
+					.filter(new Predicate<String>() {
+						public boolean test(String line) {
+							return !line.isEmpty();
 						}
-						line = line.replace("(", "\t");
-
-						if (line.endsWith(")")) {
-							line = line.substring(0, line.length() - 1);
+					})
+					.map(new Function<String, String>() {
+						public String apply(String line) {
+							return normalizeCity(line);
 						}
+					})
+					.forEach(PRINT_LINE, true);
+		} catch (FileNotFoundException e) {
+			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
 
-						System.out.println(line);
-					}
-
-				} else {
-					break;
-				}
+	/**
+	 * @param line a trimmed, non-empty line
+	 */
+	private static String normalizeCity(String line) {
+		StringBuilder sb = new StringBuilder(line.length() + 8);
+		sb.append(line.substring(0, 1).toUpperCase());
+		for (int i = 1; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (line.charAt(i - 1) == ' ') {
+				sb.append(String.valueOf(c).toUpperCase());
+			} else {
+				sb.append(c);
 			}
-			a.close();
-			fileReader.close();
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
 		}
+		line = sb.toString();
+
+		int indexOfBracket = line.indexOf("(");
+		if (indexOfBracket != -1) {
+			line = line.substring(0, indexOfBracket)
+					+ line.substring(indexOfBracket).replace(",", "");
+		}
+		line = line.replace("(", "\t");
+
+		if (line.endsWith(")")) {
+			line = line.substring(0, line.length() - 1);
+		}
+		return line;
 	}
 
+	/**
+	 * page through a UTF-8 file on the console: enter shows the next line,
+	 * blank + enter the next 10 lines, b + enter the previous 10 lines, g N +
+	 * enter jumps to line N and q + enter quits. Paging back scans backwards
+	 * from the current page; jumping goes through the LineIndex of the file.
+	 * A compressed file can only be paged forwards.
+	 *
+	 * @param fileObj the file, as String, File or Path
+	 */
 	public static void preview(Object fileObj) {
-		File file = null;
-		FileReader fileReader = null;
-		BufferedReader br = null;
+		File file = fileOf(fileObj);
+		if (file == null) {
+			return;
+		}
+		Charset utf8 = Charset.forName("UTF-8");
+		MappedFileView view = null;
+		LineSource source = null;
+		LineIndex index = null;
 		try {
-			if (fileObj instanceof String) {
-				file = new File((String) fileObj);
-			} else if (fileObj instanceof File) {
-				file = (File) fileObj;
+			if (InputFiles.isCompressed(file)) {
+				source = LineSource.open(file, utf8);
 			} else {
-				LOG.error("only String or File accepted for parameter fileObj");
-				return;
+				view = new MappedFileView(file);
+				source = LineSource.open(view, 0, view.size(), utf8);
 			}
-			fileReader = new FileReader(file);
-			br = new BufferedReader(fileReader);
+			BufferedReader brConsole = new BufferedReader(new InputStreamReader(
+					System.in));
 			int previewLines = 10;
-			eof:
-			while (true) {
-				for (int i = 0; i < previewLines; i++) {
-					String line = br.readLine();
-					if (line != null) {
-						System.out.println(line);
-					} else {
-						break eof;
+			long pageStart = 0;
+			// read one line ahead, so that a page ending the input is the last
+			LineSlice line = source.next();
+			while (line != null) {
+				for (int i = 0; i < previewLines && line != null; i++) {
+					if (i == 0 && view != null) {
+						pageStart = line.offset();
 					}
+					System.out.println(line);
+					line = source.next();
+				}
+				if (line == null) {
+					break;
 				}
 
-				BufferedReader brConsole = new BufferedReader(
-						new InputStreamReader(System.in));
 				String command = brConsole.readLine();
-				if (command.equals(" ")) {
+				long position = -1;
+				if (command == null || command.equalsIgnoreCase("q")) {
+					System.out.println("<quit preview..>");
+					break;
+				} else if (command.equals(" ")) {
 					previewLines = 10;
 				} else if (command.isEmpty()) {
 					previewLines = 1;
-				} else if (command.equalsIgnoreCase("q")) {
-					System.out.println("<quit preview..>");
-					break eof;
+				} else if (command.equalsIgnoreCase("b")) {
+					previewLines = 10;
+					if (view == null) {
+						LOG.debug("cannot page back in compressed " + file);
+					} else {
+						position = LineIndex.backLines(view, pageStart,
+								previewLines);
+					}
+				} else if (command.toLowerCase().startsWith("g ")) {
+					previewLines = 10;
+					try {
+						long lineNumber = Long.parseLong(command.substring(2)
+								.trim());
+						if (view == null) {
+							// forwards only, without decoding the lines skipped
+							long skip = lineNumber - 1 - source.lineNumber();
+							if (skip >= 0) {
+								source.skip(skip);
+								line = source.next();
+							}
+						} else {
+							if (index == null) {
+								index = LineIndex.open(file);
+							}
+							position = index.offsetOf(Math.max(1, Math.min(
+									lineNumber, index.lineCount())));
+						}
+					} catch (NumberFormatException e) {
+						LOG.debug("unexpected line number: " + command);
+					}
 				} else {
 					LOG.debug("unexpected input: "
 							+ command
-							+ ", please input blank+enter or enter to continue, or q+enter to quit");
+							+ ", please input blank+enter or enter to continue, b+enter to go back, g N+enter to jump to line N, or q+enter to quit");
 					previewLines = 10;
 				}
+				if (position >= 0) {
+					source = LineSource.open(view, position, view.size(), utf8);
+					line = source.next();
+				}
 			}
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
@@ -909,52 +1126,65 @@ public class FileUtil {
 			return;
 		} finally {
 			try {
-				br.close();
-				fileReader.close();
+				if (index != null) {
+					index.close();
+				}
+				if (source != null) {
+					source.close();
+				}
+				if (view != null) {
+					view.close();
+				}
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
 		}
 	}
 
+	/**
+	 * read a whole file in the platform charset, as FileReader does, see
+	 * readFile(Object, Charset).
+	 */
 	public static String readFile(Object fileObj) {
-		File file = null;
-		FileReader fileReader = null;
-		BufferedReader br = null;
+		return readFile(fileObj, Charset.defaultCharset());
+	}
+
+	/**
+	 * read a whole file into a String, decoding it if it is compressed.
+	 *
+	 * @param fileObj the file, as String, File or Path
+	 * @param charset the charset of the file
+	 * @return the trimmed content, or null if the file cannot be read or is
+	 * larger than 2GB
+	 */
+	public static String readFile(Object fileObj, Charset charset) {
+		File file = fileOf(fileObj);
+		if (file == null) {
+			return null;
+		}
+		Reader reader = null;
 		try {
-			// LOG.debug("fileObj: " + fileObj);
-			if (fileObj instanceof String) {
-				file = new File((String) fileObj);
-			} else if (fileObj instanceof File) {
-				file = (File) fileObj;
-			} else {
-				LOG.error("only String or File accepted for parameter fileObj");
+			boolean compressed = InputFiles.isCompressed(file);
+			if (!compressed && file.length() > Integer.MAX_VALUE - 16) {
+				LOG.error("file larger than 2GB cannot be read as a String, "
+						+ "use readFileView() or lines() instead: " + file);
 				return null;
 			}
-			// LOG.debug("file: " + fileObj);
-			long length = file.length();
-			// LOG.debug("file length: " + length);
-			// System.out.println(length);
-			fileReader = new FileReader(file);
-			br = new BufferedReader(fileReader);
-
-			if (length <= Integer.MAX_VALUE) {
-				int lengthI = (int) length;
-				char[] cbuf = new char[lengthI];
-				br.read(cbuf);
-				return new String(cbuf).trim();
-			} else {
-				StringBuffer sb = new StringBuffer();
-				while (true) {
-					String line = br.readLine();
-					if (line != null) {
-						sb.append(line);
-						sb.append("\n");
-					} else
-						break;
+			reader = new InputStreamReader(InputFiles.open(file), charset);
+			// the decoded length of a compressed file is only known once read
+			StringBuilder content = new StringBuilder((int) Math.min(
+					file.length(), 1024 * 1024));
+			char[] buffer = new char[8192 * 8];
+			int n;
+			while ((n = reader.read(buffer)) >= 0) {
+				if (content.length() > Integer.MAX_VALUE - 16 - n) {
+					LOG.error("file larger than 2GB cannot be read as a String, "
+							+ "use readFileView() or lines() instead: " + file);
+					return null;
 				}
-				return null;
+				content.append(buffer, 0, n);
 			}
+			return content.toString().trim();
 		} catch (FileNotFoundException e) {
 			LOG.error(e.getMessage(), e);
 			return null;
@@ -963,11 +1193,8 @@ public class FileUtil {
 			return null;
 		} finally {
 			try {
-				if (br != null) {
-					br.close();
-				}
-				if (fileReader != null) {
-					fileReader.close();
+				if (reader != null) {
+					reader.close();
 				}
 			} catch (IOException e) {
 				e.printStackTrace();
@@ -975,57 +1202,258 @@ public class FileUtil {
 		}
 	}
 
+	/**
+	 * get a read-only view of a file through memory mappings, without
+	 * copying its content onto the heap. Files larger than 2GB are supported.
+	 * The view should be closed after use.
+	 *
+	 * @param fileObj the file, as String, File or Path
+	 * @return the view, or null if the file cannot be mapped
+	 */
+	public static MappedFileView readFileView(Object fileObj) {
+		File file = fileOf(fileObj);
+		if (file == null) {
+			return null;
+		}
+		try {
+			return new MappedFileView(file);
+		} catch (FileNotFoundException e) {
+			LOG.error(e.getMessage(), e);
+			return null;
+		} catch (IOException e) {
+			LOG.error(e.getMessage(), e);
+			return null;
+		}
+	}
+
+	/**
+	 * @param fileObj a file as String, File or Path
+	 * @return the file, or null after logging an error if fileObj is of
+	 * another type
+	 */
+	private static File fileOf(Object fileObj) {
+		if (fileObj instanceof String) {
+			return new File((String) fileObj);
+		} else if (fileObj instanceof File) {
+			return (File) fileObj;
+		} else if (fileObj instanceof Path) {
+			return ((Path) fileObj).toFile();
+		}
+		LOG.error("only String, File or Path accepted for a file: " + fileObj);
+		return null;
+	}
+
+	/**
+	 * open the lines of a file as a LineSource, mapping it if it is plain and
+	 * decoding it if it is compressed. The source should be closed after use.
+	 *
+	 * @param fileObj the file, as String, File or Path
+	 * @param charset the charset of the file
+	 * @return the source, or null if the file cannot be read
+	 */
+	public static LineSource readLineSource(Object fileObj, Charset charset) {
+		File file = fileOf(fileObj);
+		if (file == null) {
+			return null;
+		}
+		try {
+			return LineSource.open(file, charset);
+		} catch (FileNotFoundException e) {
+			LOG.error(e.getMessage(), e);
+			return null;
+		} catch (IOException e) {
+			LOG.error(e.getMessage(), e);
+			return null;
+		}
+	}
+
+	/**
+	 * read all the lines of a file in the platform charset, as FileReader
+	 * does, into a list, see readAsLines(Object, Charset).
+	 */
 	public static ArrayList<String> readAsLines(Object file) {
+		return readAsLines(file, Charset.defaultCharset());
+	}
+
+	/**
+	 * read all the lines of a file into a list. Prefer lines() for large
+	 * files, which does not hold them all in memory. Lines end with '\n' or
+	 * "\r\n", see LineSource.
+	 *
+	 * @param file    the file, as String, File or Path
+	 * @param charset the charset of the file, which must encode '\n' and '\r'
+	 *                as single bytes, like UTF-8 or ISO-8859-1
+	 * @return the lines, empty if the file cannot be read
+	 */
+	public static ArrayList<String> readAsLines(Object file, Charset charset) {
 		ArrayList<String> lines = new ArrayList<String>();
-		FileReader fileReader = null;
-		BufferedReader br = null;
+		LineSource source = readLineSource(file, charset);
+		if (source == null) {
+			return lines;
+		}
 		try {
-			if (file instanceof String) {
-				fileReader = new FileReader((String) file);
-			} else if (file instanceof File) {
-				fileReader = new FileReader((File) file);
-			}
-			br = new BufferedReader(fileReader);
-			while (true) {
-				String line = br.readLine();
-				if (line != null) {
-					lines.add(line);
-				} else
-					break;
+			LineSlice line;
+			while ((line = source.next()) != null) {
+				lines.add(line.toString());
 			}
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
 		} catch (IOException e) {
-			e.printStackTrace();
+			LOG.error(e.getMessage(), e);
 		} finally {
 			try {
-				br.close();
-				fileReader.close();
+				source.close();
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
 		}
-
 		return lines;
 	}
 
+	/**
+	 * stream the lines of a file in the platform charset, as FileReader
+	 * does, see lines(Object, Charset).
+	 */
+	public static Stream<String> lines(Object file) {
+		return lines(file, Charset.defaultCharset());
+	}
+
+	/**
+	 * stream the lines of a file lazily. The file is memory mapped and the
+	 * stream splits at line starts near the middle of each byte range, so a
+	 * parallel() stream scales with the cores. A compressed file is decoded
+	 * sequentially instead, see InputFiles. The file is released when the
+	 * stream is closed. Lines end with '\n' or "\r\n", see LineSource.
+	 *
+	 * @param file    the file, as String, File or Path
+	 * @param charset the charset of the file, which must encode '\n' and '\r'
+	 *                as single bytes, like UTF-8 or ISO-8859-1
+	 * @return the lines, empty if the file cannot be read
+	 */
+	public static Stream<String> lines(Object file, Charset charset) {
+		File path = fileOf(file);
+		if (path == null) {
+			return Stream.empty();
+		}
+		try {
+			if (InputFiles.isCompressed(path)) {
+				final LineSource source = LineSource.open(path, charset);
+				return StreamSupport.stream(new Spliterators
+						.AbstractSpliterator<String>(Long.MAX_VALUE,
+						Spliterator.ORDERED | Spliterator.NONNULL) {
+					public boolean tryAdvance(Consumer<? super String> action) {
+						LineSlice line;
+						try {
+							line = source.next();
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
+						if (line == null) {
+							return false;
+						}
+						action.accept(line.toString());
+						return true;
+					}
+				}, false).onClose(closer(source));
+			}
+		} catch (IOException e) {
+			LOG.error(e.getMessage(), e);
+			return Stream.empty();
+		}
+		MappedFileView view = readFileView(path);
+		if (view == null) {
+			return Stream.empty();
+		}
+		return StreamSupport.stream(new LineSpliterator(view, charset), false)
+				.onClose(closer(view));
+	}
+
+	/**
+	 * @return an onClose() action closing the resource
+	 */
+	private static Runnable closer(final Closeable closeable) {
+		return new Runnable() {
+			public void run() {
+				try {
+					closeable.close();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		};
+	}
+
+	/**
+	 * print a uniform random sample of the lines of a file, each with its
+	 * line number. Unlike preview(), which shows the top of the file, the
+	 * sample represents the whole file, see LineSampler.
+	 *
+	 * @param fileObj the file, as String, File or Path
+	 * @param lines   the number of lines wanted
+	 * @return the sampled lines in file order, or null if the file cannot be
+	 * read
+	 */
+	public static List<LineSampler.Line> sample(Object fileObj, int lines) {
+		return sample(fileObj, lines, new LineSampler());
+	}
+
+	/**
+	 * like sample(Object, int), drawing the same sample of the same file for
+	 * the same seed.
+	 */
+	public static List<LineSampler.Line> sample(Object fileObj, int lines,
+												long seed) {
+		return sample(fileObj, lines, new LineSampler(seed));
+	}
+
+	private static List<LineSampler.Line> sample(Object fileObj, int lines,
+												 LineSampler sampler) {
+		File file = fileOf(fileObj);
+		if (file == null) {
+			return null;
+		}
+
+		List<LineSampler.Line> result = null;
+		try {
+			result = sampler.sample(file, lines);
+		} catch (FileNotFoundException e) {
+			e.printStackTrace();
+			return null;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+
+		for (LineSampler.Line line : result) {
+			System.out.println(line);
+		}
+
+		return result;
+	}
+
+	/**
+	 * split the lines of a file into words and append the distinct words, in
+	 * sorted order, to the "_words" file next to it. The lines are split in
+	 * parallel by a LinePipeline.
+	 *
+	 * @param filePath the file to split
+	 * @param regex    the separator of the words
+	 */
 	public static void separateToWords(String filePath, String regex) {
+		final Pattern separator = Pattern.compile(regex);
+		final TreeSet<String> words = new TreeSet<String>();
 		FileWriter fw = null;
 		BufferedWriter bw = null;
 		try {
-			FileReader fileReader;
-			fileReader = new FileReader(filePath);
-			BufferedReader a = new BufferedReader(fileReader);
-			TreeSet<String> words = new TreeSet<String>();
-			while (true) {
-				String line = a.readLine();
-				if (line != null) {
-					words.addAll(Arrays.asList(line.split(regex)));
-				} else
-					break;
-			}
-			a.close();
-			fileReader.close();
+			LinePipeline.of(new File(filePath))
+					.flatMap(new Function<String, List<String>>() {
+						public List<String> apply(String line) {
+							return Arrays.asList(separator.split(line));
+						}
+					})
+					.forEach(new LineHandler() {
+						public void handle(String word) {
+							words.add(word);
+						}
+					}, false);
 
 			String[] part = filePath.split("\\.");
 			fw = new FileWriter(part[0] + "_words." + part[1], true);
@@ -1041,161 +1469,323 @@ public class FileUtil {
 			e.printStackTrace();
 		} finally {
 			try {
-				bw.close();
-				fw.close();
+				if (bw != null) {
+					bw.close();
+				}
+				if (fw != null) {
+					fw.close();
+				}
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
 		}
 	}
 
+	/**
+	 * sort the lines of a file and drop the duplicate ones, the result is
+	 * written to the "_sorted" file next to it. Files larger than the default
+	 * memory budget are sorted externally.
+	 *
+	 * @param filePath the file to be sorted
+	 */
 	public static void sortLines(String filePath) {
-		FileWriter fw = null;
-		BufferedWriter bw = null;
-		try {
-			FileReader fileReader;
-			fileReader = new FileReader(filePath);
-			BufferedReader a = new BufferedReader(fileReader);
-			TreeSet<String> lines = new TreeSet<String>();
-			while (true) {
-				String line = a.readLine();
-				if (line != null) {
-					lines.add(line);
-				} else
-					break;
-			}
-			a.close();
-			fileReader.close();
+		sortLines(filePath, ExternalSorter.DEFAULT_MEMORY_BUDGET, false);
+	}
 
-			String[] part = filePath.split("\\.");
-			fw = new FileWriter(part[0] + "_sorted." + part[1], false);
-			bw = new BufferedWriter(fw, 8192 * 100);
-			for (String line : lines) {
-				bw.write(line);
-				bw.newLine();
-			}
-			bw.flush();
+	/**
+	 * sort the lines of a file, the result is written to the "_sorted" file
+	 * next to it. Lines are kept in sorted runs of at most memoryBudget bytes,
+	 * spilled to temporary files and merged, so the file may be larger than
+	 * the heap.
+	 *
+	 * @param filePath       the file to be sorted
+	 * @param memoryBudget   approximate heap bytes used for one sorted run
+	 * @param keepDuplicates whether duplicate lines are kept in the result
+	 */
+	public static void sortLines(String filePath, long memoryBudget,
+								 boolean keepDuplicates) {
+		String[] part = filePath.split("\\.");
+		File output = new File(part[0] + "_sorted." + part[1]);
+		try {
+			new ExternalSorter(memoryBudget, keepDuplicates).sort(new File(
+					filePath), output);
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
 		} catch (IOException e) {
 			e.printStackTrace();
-		} finally {
-			try {
-				bw.close();
-				fw.close();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
 		}
 	}
 
+	/**
+	 * count the predicates of N-Triples files and print each with its count.
+	 * The files are scanned in parallel, see TokenStatistics.
+	 *
+	 * @param paths the files to scan
+	 * @return the count of each predicate, in first occurrence order
+	 */
 	public static LinkedHashMap<String, Long> statisticsPredicate(
 			List<String> paths) {
+		return statisticsPredicate(paths, false);
+	}
+
+	/**
+	 * count the predicates of N-Triples files and print each with its count.
+	 * The files are scanned in parallel, see TokenStatistics.
+	 *
+	 * @param paths       the files to scan
+	 * @param sortByCount whether the result is ordered by descending count
+	 *                    instead of first occurrence
+	 * @return the count of each predicate
+	 */
+	public static LinkedHashMap<String, Long> statisticsPredicate(
+			List<String> paths, boolean sortByCount) {
+		List<File> files = new ArrayList<File>(paths.size());
+		for (String path : paths) {
+			System.out.println("statistics file: " + path);
+			files.add(new File(path));
+		}
+
 		LinkedHashMap<String, Long> result = new LinkedHashMap<String, Long>();
-		// HashSet<String> all = new HashSet<String>();
-		FileReader fileReader = null;
-		BufferedReader br = null;
 		try {
-			for (String path : paths) {
-				System.out.println("statistics file: " + path);
-				fileReader = new FileReader(path);
-				br = new BufferedReader(fileReader);
-				while (true) {
-					String line = br.readLine();
-					if (line != null) {
-						// if
-						// (line.startsWith("<http://data.samsung.com/ontology/dining/person/"))
-						// {
-						// continue;
-						// }
-
-						// if (all.contains(line)) {
-						// System.out.println("Duplicate line: " + line);
-						// } else {
-						// all.add(line);
-						String[] parts = line.split(" ");
-						if (result.keySet().contains(parts[1])) {
-							result.put(parts[1], result.get(parts[1]) + 1);
-						} else {
-							result.put(parts[1], 1L);
-						}
-						// }
-					} else {
-						break;
-					}
-				}
-			}
-			br.close();
-			fileReader.close();
+			result = new TokenStatistics(TokenStatistics.PREDICATE).count(files,
+					sortByCount);
+		} catch (FileNotFoundException e) {
+			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		for (Entry<String, Long> entry : result.entrySet()) {
+			System.out.println(entry.getKey() + "\t" + entry.getValue());
+		}
+
+		return result;
+	}
+
+	/**
+	 * find the k most frequent predicates of N-Triples files in bounded
+	 * memory and print each with its estimated count, see topTokens().
+	 *
+	 * @param paths the files to scan
+	 * @param k     the number of predicates wanted
+	 * @return the predicates by descending count
+	 */
+	public static List<HeavyHitters.Item> topPredicates(List<String> paths,
+														int k) {
+		return topTokens(paths, TokenStatistics.PREDICATE, k);
+	}
+
+	/**
+	 * find the k most frequent values of a column of N-Triples files and
+	 * print each with its estimated count. Unlike statisticsPredicate() the
+	 * memory used does not grow with the number of distinct values: counts
+	 * are estimated with a Count-Min sketch, overestimating by at most 0.01%
+	 * of the lines with 99% confidence, see HeavyHitters.
+	 *
+	 * @param paths  the files to scan
+	 * @param column TokenStatistics.SUBJECT, PREDICATE or OBJECT
+	 * @param k      the number of values wanted
+	 * @return the values by descending count
+	 */
+	public static List<HeavyHitters.Item> topTokens(List<String> paths,
+													int column, int k) {
+		List<File> files = new ArrayList<File>(paths.size());
+		for (String path : paths) {
+			System.out.println("statistics file: " + path);
+			files.add(new File(path));
+		}
+
+		List<HeavyHitters.Item> result = new ArrayList<HeavyHitters.Item>();
+		try {
+			HeavyHitters summary = new TokenStatistics(column).top(files, k,
+					0.0001, 0.01);
+			result = summary.top();
+			System.out.println("total: " + summary.getTotal() + ", error: +"
+					+ summary.getError());
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 
-		for (String predicate : result.keySet()) {
-			System.out.println(predicate + "\t" + result.get(predicate));
+		for (HeavyHitters.Item item : result) {
+			System.out.println(item.getValue() + "\t" + item.getCount());
 		}
 
 		return result;
 	}
 
+	/**
+	 * print the last lines of a file.
+	 *
+	 * @param fileObj the file, as String, File or Path
+	 * @param lines   the number of lines to print
+	 */
 	public static void tail(Object fileObj, long lines) {
-		File file = null;
+		List<String> tail = tailLines(fileObj,
+				(int) Math.min(lines, Integer.MAX_VALUE));
+		if (tail != null) {
+			for (String line : tail) {
+				System.out.println(line);
+			}
+		}
+	}
+
+	/**
+	 * get the last lines of a UTF-8 file. The file is scanned backwards in
+	 * 64KB blocks to find where the tail starts, then the tail is read and
+	 * decoded once. A compressed file is decoded from its start instead.
+	 *
+	 * @param fileObj the file, as String, File or Path
+	 * @param lines   the number of lines to get
+	 * @return the last lines in file order, without line terminators, or null
+	 * if the file cannot be read
+	 */
+	public static List<String> tailLines(Object fileObj, int lines) {
+		File file = fileOf(fileObj);
+		if (file == null) {
+			return null;
+		}
+
+		List<String> result = new ArrayList<String>();
 		RandomAccessFile raf = null;
 		try {
-			if (fileObj instanceof String) {
-				file = new File((String) fileObj);
-			} else if (fileObj instanceof File) {
-				file = (File) fileObj;
-			} else {
-				LOG.error("only String or File accepted for parameter fileObj");
-				return;
+			if (InputFiles.isCompressed(file)) {
+				return tailDecoded(file, lines);
 			}
-
 			raf = new RandomAccessFile(file, "r");
-			long len = raf.length();
-			if (len != 0L) {
-				long tailLines = 0;
-				long pos = len - 1;
-				while (pos > 0 && tailLines < lines) {
-					pos--;
-					raf.seek(pos);
-					/*
-					 * if we still get here when the pos is 0, no need to check
-					 * if it is '\n' at the first byte, and avoid to lost the
-					 * byte by readByte()
-					 */
-					if (pos != 0 && raf.readByte() == '\n') {
-						tailLines++;
+			FileChannel channel = raf.getChannel();
+			long size = channel.size();
+			if (size == 0 || lines <= 0) {
+				return result;
+			}
+
+			ByteBuffer block = ByteBuffer.allocate(TAIL_BLOCK_SIZE);
+			// a terminator at the very end does not start another line
+			long end = size;
+			readFully(channel, block, size - 1, 1);
+			if (block.get(0) == '\n') {
+				end--;
+			}
+
+			long start = 0;
+			int found = 0;
+			long pos = end;
+			search:
+			while (pos > 0) {
+				int n = (int) Math.min(TAIL_BLOCK_SIZE, pos);
+				pos -= n;
+				readFully(channel, block, pos, n);
+				for (int i = n - 1; i >= 0; i--) {
+					if (block.get(i) == '\n' && ++found == lines) {
+						start = pos + i + 1;
+						break search;
 					}
 				}
 			}
 
-			for (int i = 0; i < lines; i++) {
-				String line = raf.readLine();
-				if (line != null) {
-					System.out.println(new String(line.getBytes("8859_1"),
-							"UTF-8"));
+			if (end - start > Integer.MAX_VALUE) {
+				LOG.error("tail of " + file + " is larger than 2GB");
+				return null;
+			}
+			ByteBuffer tail = ByteBuffer.allocate((int) (end - start));
+			while (tail.hasRemaining()) {
+				if (channel.read(tail, start + tail.position()) < 0) {
+					break;
+				}
+			}
+			String content = new String(tail.array(), 0, tail.position(),
+					Charset.forName("UTF-8"));
+			int from = 0;
+			while (true) {
+				int newline = content.indexOf('\n', from);
+				int to = newline < 0 ? content.length() : newline;
+				if (to > from && content.charAt(to - 1) == '\r') {
+					result.add(content.substring(from, to - 1));
 				} else {
+					result.add(content.substring(from, to));
+				}
+				if (newline < 0) {
 					break;
 				}
+				from = newline + 1;
 			}
+			return result;
 		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-			return;
+			LOG.error(e.getMessage(), e);
+			return null;
 		} catch (IOException e) {
-			e.printStackTrace();
-			return;
+			LOG.error(e.getMessage(), e);
+			return null;
 		} finally {
-			try {
-				raf.close();
-			} catch (IOException e) {
-				e.printStackTrace();
+			if (raf != null) {
+				try {
+					raf.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * get the last lines of a compressed file, which can only be read from
+	 * its start: the bytes of the last lines are kept as the file is read,
+	 * and only they are decoded.
+	 */
+	private static List<String> tailDecoded(File file, int lines)
+			throws IOException {
+		List<String> result = new ArrayList<String>();
+		if (lines <= 0) {
+			return result;
+		}
+		// the bytes of the last lines, in arrays reused round robin
+		byte[][] tail = new byte[lines][];
+		int[] lengths = new int[lines];
+		long count = 0;
+		LineSource source = LineSource.open(file, Charset.forName("UTF-8"));
+		try {
+			LineSlice line;
+			while ((line = source.next()) != null) {
+				int slot = (int) (count++ % lines);
+				if (tail[slot] == null || tail[slot].length < line.length()) {
+					tail[slot] = new byte[Math.max(line.length(), 64)];
+				}
+				line.copyTo(tail[slot], 0);
+				lengths[slot] = line.length();
+			}
+		} finally {
+			source.close();
+		}
+		Charset utf8 = Charset.forName("UTF-8");
+		for (long i = Math.max(0, count - lines); i < count; i++) {
+			int slot = (int) (i % lines);
+			result.add(new String(tail[slot], 0, lengths[slot], utf8));
+		}
+		return result;
+	}
+
+	/**
+	 * read length bytes at position into the start of the reused buffer
+	 */
+	private static void readFully(FileChannel channel, ByteBuffer buffer,
+								  long position, int length) throws IOException {
+		buffer.clear();
+		buffer.limit(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new EOFException("unexpected end of file at "
+						+ (position + buffer.position()));
 			}
 		}
 	}
 
+	/**
+	 * write an object with Java serialization. The maps and lists of strings
+	 * we persist are much smaller and faster to load with
+	 * writeMapStringSetToFile(), writeMapStringLongToFile() and
+	 * writeStringListToFile().
+	 */
 	public static void writeObjectSerializationToFile(String filePath,
 													  Serializable serializableObject) {
 		FileOutputStream fos = null;
@@ -1222,8 +1812,163 @@ public class FileUtil {
 		}
 	}
 
+	/**
+	 * write a map from strings to sets of strings, e.g. a cached schema map,
+	 * in the compact format of BinaryCodec. Read it back with
+	 * readMapStringSetFromFile().
+	 */
+	public static void writeMapStringSetToFile(String filePath,
+											   Map<String, ? extends Collection<String>> map) {
+		try {
+			BinaryCodec.writeStringSetMap(new File(filePath), map);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * read a map written by writeMapStringSetToFile(), through a memory
+	 * mapping.
+	 *
+	 * @return the map, or null if the file cannot be read
+	 */
+	public static HashMap<String, HashSet<String>> readMapStringSetFromFile(
+			String filePath) {
+		try {
+			return BinaryCodec.readStringSetMap(new File(filePath), true);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/**
+	 * write a map from strings to counts, e.g. from statisticsPredicate(), in
+	 * the compact format of BinaryCodec. Read it back with
+	 * readMapStringLongFromFile().
+	 */
+	public static void writeMapStringLongToFile(String filePath,
+												Map<String, Long> map) {
+		try {
+			BinaryCodec.writeLongMap(new File(filePath), map);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * read a map written by writeMapStringLongToFile(), through a memory
+	 * mapping.
+	 *
+	 * @return the map in its original order, or null if the file cannot be
+	 * read
+	 */
+	public static LinkedHashMap<String, Long> readMapStringLongFromFile(
+			String filePath) {
+		try {
+			return BinaryCodec.readLongMap(new File(filePath), true);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/**
+	 * write a list of strings in the compact format of BinaryCodec. Read it
+	 * back with readStringListFromFile().
+	 */
+	public static void writeStringListToFile(String filePath,
+											 Collection<String> list) {
+		try {
+			BinaryCodec.writeStringList(new File(filePath), list);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * read a list written by writeStringListToFile(), through a memory
+	 * mapping.
+	 *
+	 * @return the list, or null if the file cannot be read
+	 */
+	public static ArrayList<String> readStringListFromFile(String filePath) {
+		try {
+			return BinaryCodec.readStringList(new File(filePath), true);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/**
+	 * open an AsyncFileAppender on a file and register it, so that
+	 * writeStringToFile(filePath, content, true) goes through it until
+	 * closeAsyncAppender() is called. Truncating writes to the file are
+	 * refused in the meantime.
+	 *
+	 * @param filePath the file to append to
+	 * @return the appender, or null if the file cannot be opened
+	 */
+	public static AsyncFileAppender openAsyncAppender(String filePath) {
+		String key = new File(filePath).getAbsolutePath();
+		synchronized (APPENDERS) {
+			AsyncFileAppender appender = APPENDERS.get(key);
+			if (appender == null) {
+				try {
+					appender = new AsyncFileAppender(new File(filePath), true);
+				} catch (IOException e) {
+					e.printStackTrace();
+					return null;
+				}
+				APPENDERS.put(key, appender);
+			}
+			return appender;
+		}
+	}
+
+	/**
+	 * unregister the AsyncFileAppender of a file, then write everything
+	 * appended through it, force it to the disk and close it.
+	 *
+	 * @param filePath the file given to openAsyncAppender()
+	 */
+	public static void closeAsyncAppender(String filePath) {
+		AsyncFileAppender appender = APPENDERS.remove(new File(filePath)
+				.getAbsolutePath());
+		if (appender != null) {
+			try {
+				appender.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * write a string to a file as UTF-8. If the file has an appender
+	 * registered by openAsyncAppender(), appends are queued to it instead
+	 * of opening the file.
+	 */
 	public static void writeStringToFile(String filePath, String content,
 										 boolean append) {
+		if (!APPENDERS.isEmpty()) {
+			AsyncFileAppender appender = APPENDERS.get(new File(filePath)
+					.getAbsolutePath());
+			if (appender != null) {
+				if (!append) {
+					LOG.error("cannot truncate " + filePath
+							+ ", it is open for asynchronous appends");
+					return;
+				}
+				try {
+					appender.append(content);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+				return;
+			}
+		}
 		FileOutputStream fos = null;
 		OutputStreamWriter osw = null;
 		BufferedWriter bw = null;
@@ -1256,8 +2001,37 @@ public class FileUtil {
 		}
 	}
 
+	/**
+	 * append the entries of a map, one "key\tvalue" line each, through an
+	 * appender. The lines are queued in blocks of about 64KB.
+	 */
+	public static void wirteMapToFile(LinkedHashMap<String, Long> result,
+									  AsyncFileAppender appender) {
+		StringBuilder block = new StringBuilder();
+		try {
+			for (Entry<String, Long> entry : result.entrySet()) {
+				block.append(entry.getKey()).append('\t')
+						.append(entry.getValue()).append(LINE_SEPARATOR);
+				if (block.length() >= 64 * 1024) {
+					appender.append(block.toString());
+					block.setLength(0);
+				}
+			}
+			if (block.length() > 0) {
+				appender.append(block.toString());
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
 	public static void wirteMapToFile(LinkedHashMap<String, Long> result,
 									  String resultFile) {
+		if (APPENDERS.containsKey(new File(resultFile).getAbsolutePath())) {
+			LOG.error("cannot truncate " + resultFile
+					+ ", it is open for asynchronous appends");
+			return;
+		}
 		FileOutputStream fos = null;
 		OutputStreamWriter osw = null;
 		BufferedWriter bw = null;
@@ -0,0 +1,112 @@
+package util.file;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash set of 128 bit fingerprints kept in a single long
+ * array, two slots per fingerprint and no per-entry objects. The all-zero
+ * fingerprint marks an empty slot, so it is stored as (0, 1) instead.
+ */
+class FingerprintSet {
+
+	private static final int MIN_CAPACITY = 16;
+
+	private long[] table;
+
+	private int mask;
+
+	private int size;
+
+	FingerprintSet(int expected) {
+		int capacity = MIN_CAPACITY;
+		while (capacity * 3L / 4 < expected) {
+			capacity <<= 1;
+		}
+		allocate(capacity);
+	}
+
+	FingerprintSet() {
+		this(MIN_CAPACITY);
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * bytes currently taken by the table
+	 */
+	long memoryUsage() {
+		return table.length * 8L;
+	}
+
+	/**
+	 * add a fingerprint to the set.
+	 *
+	 * @return true if the set did not already contain it
+	 */
+	boolean add(long hi, long lo) {
+		if (hi == 0 && lo == 0) {
+			lo = 1;
+		}
+		int slot = (int) (lo ^ (lo >>> 32)) & mask;
+		while (true) {
+			int i = slot << 1;
+			long h = table[i];
+			long l = table[i + 1];
+			if (h == 0 && l == 0) {
+				table[i] = hi;
+				table[i + 1] = lo;
+				if (++size > (mask + 1) * 3L / 4) {
+					allocate((mask + 1) << 1);
+				}
+				return true;
+			}
+			if (h == hi && l == lo) {
+				return false;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	boolean contains(long hi, long lo) {
+		if (hi == 0 && lo == 0) {
+			lo = 1;
+		}
+		int slot = (int) (lo ^ (lo >>> 32)) & mask;
+		while (true) {
+			int i = slot << 1;
+			long h = table[i];
+			long l = table[i + 1];
+			if (h == 0 && l == 0) {
+				return false;
+			}
+			if (h == hi && l == lo) {
+				return true;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	void clear() {
+		Arrays.fill(table, 0L);
+		size = 0;
+	}
+
+	private void allocate(int capacity) {
+		if (capacity > (1 << 29)) {
+			throw new IllegalStateException("fingerprint set is full: " + size);
+		}
+		long[] old = table;
+		table = new long[capacity << 1];
+		mask = capacity - 1;
+		size = 0;
+		if (old != null) {
+			for (int i = 0; i < old.length; i += 2) {
+				if (old[i] != 0 || old[i + 1] != 0) {
+					add(old[i], old[i + 1]);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,257 @@
+package util.file;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Open input files whatever their compression. The format of a file is
+ * detected from its first bytes, not from its name, and the file is decoded
+ * on the fly instead of being decompressed to disk first. gzip is supported
+ * out of the box, multi-member files being decoded in parallel by
+ * ParallelGzipInputStream; other formats can be plugged in with register().
+ * Files in no registered format are read as they are.
+ * <p>
+ * Compressed files can only be read sequentially: the operations which map
+ * a file or seek in it, like LineIndex or FileSplitter, refuse them, while
+ * the engines which scan mapped chunks read them through forEachBlock().
+ */
+public class InputFiles {
+
+	/**
+	 * size of the blocks passed by forEachBlock()
+	 */
+	static final int BLOCK_SIZE = 4 * 1024 * 1024;
+
+	/**
+	 * bytes read from the head of a file to detect its format
+	 */
+	private static final int HEAD_SIZE = 16;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final List<Decoder> DECODERS = new CopyOnWriteArrayList<Decoder>();
+
+	static {
+		DECODERS.add(new Decoder() {
+			public String getSuffix() {
+				return ".gz";
+			}
+
+			public boolean accepts(byte[] head, int length) {
+				return length >= 2 && head[0] == 0x1F && head[1] == (byte) 0x8B;
+			}
+
+			public InputStream open(File file) throws IOException {
+				return new ParallelGzipInputStream(file);
+			}
+		});
+	}
+
+	/**
+	 * a compressed format
+	 */
+	public interface Decoder {
+
+		/**
+		 * @return the file name suffix of the format, e.g. ".gz"
+		 */
+		String getSuffix();
+
+		/**
+		 * @param head   the first bytes of a file
+		 * @param length the number of bytes in head, fewer for short files
+		 * @return whether the file is in this format
+		 */
+		boolean accepts(byte[] head, int length);
+
+		/**
+		 * @return a stream of the decoded content of the file
+		 */
+		InputStream open(File file) throws IOException;
+	}
+
+	/**
+	 * receives the decoded content of a file in blocks
+	 */
+	interface BlockHandler {
+
+		/**
+		 * @param block  the content, from position 0, which starts at a line
+		 *               start and ends after a '\n' or at the end of the file
+		 * @param offset the offset of the block in the decoded content
+		 * @return false to stop decoding
+		 */
+		boolean block(ByteBuffer block, long offset) throws IOException;
+	}
+
+	/**
+	 * register a format, which takes precedence over the ones registered
+	 * before.
+	 */
+	public static void register(Decoder decoder) {
+		DECODERS.add(0, decoder);
+	}
+
+	/**
+	 * @param file the file
+	 * @return the format of the file, or null if it is not compressed
+	 * @throws IOException if the file cannot be read
+	 */
+	public static Decoder decoderOf(File file) throws IOException {
+		byte[] head = new byte[HEAD_SIZE];
+		int length = 0;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			int n;
+			while (length < head.length
+					&& (n = raf.read(head, length, head.length - length)) > 0) {
+				length += n;
+			}
+		} finally {
+			raf.close();
+		}
+		for (Decoder decoder : DECODERS) {
+			if (decoder.accepts(head, length)) {
+				return decoder;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return whether the file is in a registered compressed format
+	 * @throws IOException if the file cannot be read
+	 */
+	public static boolean isCompressed(File file) throws IOException {
+		return decoderOf(file) != null;
+	}
+
+	/**
+	 * @param path the path of a file
+	 * @return the path without the suffix of its compressed format, e.g.
+	 * "dump.nt" for a gzip "dump.nt.gz", or the path itself
+	 * @throws IOException if the file cannot be read
+	 */
+	public static String plainPath(String path) throws IOException {
+		Decoder decoder = decoderOf(new File(path));
+		if (decoder != null && path.endsWith(decoder.getSuffix())) {
+			return path.substring(0, path.length()
+					- decoder.getSuffix().length());
+		}
+		return path;
+	}
+
+	/**
+	 * open a file, decoding it if it is compressed.
+	 *
+	 * @param file the file
+	 * @return a stream of its content, to be closed by the caller
+	 * @throws IOException
+	 */
+	public static InputStream open(File file) throws IOException {
+		Decoder decoder = decoderOf(file);
+		return decoder == null ? new FileInputStream(file) : decoder
+				.open(file);
+	}
+
+	/**
+	 * open a file as text in the platform charset, as FileReader does,
+	 * decoding it if it is compressed.
+	 *
+	 * @param file the file
+	 * @return a reader of its content, to be closed by the caller
+	 * @throws IOException
+	 */
+	public static BufferedReader newReader(File file) throws IOException {
+		return newReader(file, BUFFER_SIZE);
+	}
+
+	/**
+	 * like newReader(File), with a buffer of the given size in chars.
+	 */
+	public static BufferedReader newReader(File file, int bufferSize)
+			throws IOException {
+		return newReader(file, Charset.defaultCharset(), bufferSize);
+	}
+
+	/**
+	 * open a file as text, decoding it if it is compressed.
+	 *
+	 * @param file       the file
+	 * @param charset    the charset of the text
+	 * @param bufferSize the size of the reader buffer, in chars
+	 * @return a reader of its content, to be closed by the caller
+	 * @throws IOException
+	 */
+	public static BufferedReader newReader(File file, Charset charset,
+										   int bufferSize) throws IOException {
+		return new BufferedReader(new InputStreamReader(open(file), charset),
+				bufferSize);
+	}
+
+	/**
+	 * decode a file and pass its content to the handler in blocks of about
+	 * BLOCK_SIZE bytes, cut after a '\n' so that no line spans two blocks. A
+	 * block holds a line longer than BLOCK_SIZE whole. Each block has its own
+	 * array, so the handler may keep it.
+	 *
+	 * @param file    the file
+	 * @param handler receives the blocks in order
+	 * @throws IOException
+	 */
+	static void forEachBlock(File file, BlockHandler handler)
+			throws IOException {
+		InputStream in = open(file);
+		try {
+			byte[] block = new byte[BLOCK_SIZE];
+			int length = 0;
+			long offset = 0;
+			while (true) {
+				int n = in.read(block, length, block.length - length);
+				if (n < 0) {
+					if (length > 0) {
+						handler.block(ByteBuffer.wrap(block, 0, length), offset);
+					}
+					return;
+				}
+				length += n;
+				if (length < block.length) {
+					continue;
+				}
+				int cut = length;
+				while (cut > 0 && block[cut - 1] != '\n') {
+					cut--;
+				}
+				if (cut == 0) {
+					// a line longer than the block
+					if (block.length > Integer.MAX_VALUE / 2) {
+						throw new IOException("line longer than 1GB in " + file);
+					}
+					byte[] larger = new byte[block.length * 2];
+					System.arraycopy(block, 0, larger, 0, length);
+					block = larger;
+					continue;
+				}
+				byte[] next = new byte[Math.max(BLOCK_SIZE, 2 * (length - cut))];
+				System.arraycopy(block, cut, next, 0, length - cut);
+				if (!handler.block(ByteBuffer.wrap(block, 0, cut), offset)) {
+					return;
+				}
+				offset += cut;
+				length -= cut;
+				block = next;
+			}
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,219 @@
+package util.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Count the lines of files by memory mapping them and counting '\n' bytes.
+ * Each file is split into byte ranges which are counted in parallel on a
+ * ForkJoinPool, and several files are counted concurrently. A last line
+ * without a trailing '\n' is counted as well, the same as readLine() does.
+ * Compressed files are counted as they are decoded, see InputFiles.
+ */
+public class LineCounter {
+
+	/**
+	 * byte range counted by one task, also the size of one mapping
+	 */
+	static final long CHUNK_SIZE = 32L * 1024 * 1024;
+
+	private static final long LOW7 = 0x7F7F7F7F7F7F7F7FL;
+
+	private static final long NEWLINES = 0x0A0A0A0A0A0A0A0AL;
+
+	private final ForkJoinPool pool;
+
+	public LineCounter(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	public LineCounter() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * count the lines of one file.
+	 *
+	 * @param file the file to count
+	 * @return the number of lines
+	 * @throws IOException
+	 */
+	public long count(File file) throws IOException {
+		List<File> files = new ArrayList<File>(1);
+		files.add(file);
+		return count(files)[0];
+	}
+
+	/**
+	 * count the lines of several files concurrently.
+	 *
+	 * @param files the files to count
+	 * @return the number of lines of each file, in the order of files
+	 * @throws IOException
+	 */
+	public long[] count(List<File> files) throws IOException {
+		List<FileTask> tasks = new ArrayList<FileTask>(files.size());
+		for (File file : files) {
+			FileTask task = new FileTask(file);
+			tasks.add(task);
+			pool.execute(task);
+		}
+		long[] result = new long[files.size()];
+		for (int i = 0; i < tasks.size(); i++) {
+			result[i] = join(tasks.get(i));
+		}
+		return result;
+	}
+
+	private static long join(ForkJoinTask<Long> task) throws IOException {
+		try {
+			return task.join();
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * count the '\n' bytes in the given range of a file channel.
+	 */
+	static long countNewlines(FileChannel channel, long from, long to)
+			throws IOException {
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+				from, to - from);
+		return countNewlines(buffer);
+	}
+
+	/**
+	 * count the '\n' bytes between the position and the limit of the buffer,
+	 * eight bytes at a time. The position of the buffer is not changed.
+	 */
+	static long countNewlines(ByteBuffer buffer) {
+		long count = 0;
+		int i = buffer.position();
+		int limit = buffer.limit();
+		for (; i + 8 <= limit; i += 8) {
+			long word = buffer.getLong(i) ^ NEWLINES;
+			// the high bit of each byte is set iff that byte was '\n'
+			long zeros = ~(((word & LOW7) + LOW7) | word | LOW7);
+			count += Long.bitCount(zeros);
+		}
+		for (; i < limit; i++) {
+			if (buffer.get(i) == '\n') {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static class FileTask extends RecursiveTask<Long> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final File file;
+
+		FileTask(File file) {
+			this.file = file;
+		}
+
+		@Override
+		protected Long compute() {
+			RandomAccessFile raf = null;
+			try {
+				if (InputFiles.isCompressed(file)) {
+					return countDecoded(file);
+				}
+				raf = new RandomAccessFile(file, "r");
+				FileChannel channel = raf.getChannel();
+				long size = channel.size();
+				if (size == 0) {
+					return 0L;
+				}
+				long lines = new RangeTask(channel, 0, size).compute();
+				// a last line without '\n' still counts
+				ByteBuffer last = ByteBuffer.allocate(1);
+				channel.read(last, size - 1);
+				if (last.get(0) != '\n') {
+					lines++;
+				}
+				return lines;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			} finally {
+				if (raf != null) {
+					try {
+						raf.close();
+					} catch (IOException e) {
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * count the lines of a compressed file, as it is decoded
+	 */
+	private static long countDecoded(File file) throws IOException {
+		InputStream in = InputFiles.open(file);
+		try {
+			byte[] buffer = new byte[1024 * 1024];
+			long lines = 0;
+			byte last = '\n';
+			int n;
+			while ((n = in.read(buffer)) >= 0) {
+				if (n > 0) {
+					lines += countNewlines(ByteBuffer.wrap(buffer, 0, n));
+					last = buffer[n - 1];
+				}
+			}
+			// a last line without '\n' still counts
+			return last != '\n' ? lines + 1 : lines;
+		} finally {
+			in.close();
+		}
+	}
+
+	private static class RangeTask extends RecursiveTask<Long> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final FileChannel channel;
+
+		private final long from;
+
+		private final long to;
+
+		RangeTask(FileChannel channel, long from, long to) {
+			this.channel = channel;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Long compute() {
+			if (to - from <= CHUNK_SIZE) {
+				try {
+					return countNewlines(channel, from, to);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+			long middle = from + (to - from) / 2;
+			RangeTask left = new RangeTask(channel, from, middle);
+			RangeTask right = new RangeTask(channel, middle, to);
+			left.fork();
+			long rightCount = right.compute();
+			return left.join() + rightCount;
+		}
+	}
+}
@@ -0,0 +1,348 @@
+package util.file;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import util.common.HashUtil;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Remove the duplicate lines of a file, keeping the first occurrence of each
+ * line in its original position. Only 128 bit fingerprints of the lines are
+ * remembered, in a primitive open-addressing table. When the table would
+ * outgrow the memory budget the fingerprints are partitioned by hash into
+ * bucket files on disk, every bucket is deduplicated on its own, and a last
+ * pass over the input drops the lines found to be repeated.
+ * <p>
+ * Two different lines are only merged if their 128 bit fingerprints collide,
+ * which is negligible for any realistic file.
+ */
+public class LineDeduplicator {
+
+	private static final Log LOG = LogFactory.getLog(LineDeduplicator.class);
+
+	/**
+	 * default memory budget for the fingerprint table: 256MB
+	 */
+	public static final long DEFAULT_MEMORY_BUDGET = 256L * 1024 * 1024;
+
+	private static final int BUFFER_SIZE = 8192 * 100;
+
+	/**
+	 * bytes of one (hi, lo, ordinal) record in a bucket file
+	 */
+	private static final int RECORD_SIZE = 24;
+
+	private static final int MAX_PARTITIONS = 4096;
+
+	private final long memoryBudget;
+
+	private final boolean trim;
+
+	private final File tempDirectory;
+
+	/**
+	 * @param memoryBudget  approximate heap bytes the fingerprint table may use
+	 * @param trim          whether lines are trimmed before they are compared
+	 *                      and written
+	 * @param tempDirectory directory for the bucket files, null for the
+	 *                      default temporary-file directory
+	 */
+	public LineDeduplicator(long memoryBudget, boolean trim, File tempDirectory) {
+		if (memoryBudget <= 0) {
+			throw new IllegalArgumentException("memoryBudget must be positive: "
+					+ memoryBudget);
+		}
+		this.memoryBudget = memoryBudget;
+		this.trim = trim;
+		this.tempDirectory = tempDirectory;
+	}
+
+	public LineDeduplicator(long memoryBudget, boolean trim) {
+		this(memoryBudget, trim, null);
+	}
+
+	public LineDeduplicator() {
+		this(DEFAULT_MEMORY_BUDGET, true, null);
+	}
+
+	/**
+	 * write the distinct lines of input to output, in first-occurrence order.
+	 *
+	 * @param input  the file to deduplicate
+	 * @param output the file to write, overwritten if exists
+	 * @return the number of lines written
+	 * @throws IOException
+	 */
+	public long deduplicate(File input, File output) throws IOException {
+		// a table grows by doubling at 3/4 load, count 32 bytes per entry
+		long maxEntries = Math.max(1024, memoryBudget / 32);
+		long[] estimate = new long[1];
+		long written = deduplicateInMemory(input, output, maxEntries, estimate);
+		if (written >= 0) {
+			return written;
+		}
+		if (InputFiles.isCompressed(input)) {
+			// the size of the file says nothing about its lines: sketch them
+			estimate[0] = new DistinctEstimator().lines(
+					Collections.singletonList(input)).cardinality();
+		}
+		int partitions = (int) Math.min(MAX_PARTITIONS, Math.max(2,
+				2 * (estimate[0] / maxEntries + 1)));
+		LOG.info("distinct lines of " + input + " exceed the memory budget, "
+				+ "partitioning into " + partitions + " buckets");
+		return deduplicatePartitioned(input, output, partitions, maxEntries);
+	}
+
+	private String normalize(String line) {
+		return trim ? line.trim() : line;
+	}
+
+	/**
+	 * @return the lines written, or -1 if the table outgrew maxEntries, in
+	 * which case estimate[0] holds the estimated number of distinct lines
+	 */
+	private long deduplicateInMemory(File input, File output, long maxEntries,
+									 long[] estimate) throws IOException {
+		FingerprintSet seen = new FingerprintSet();
+		long[] fingerprint = new long[2];
+		long charsRead = 0;
+		long written = 0;
+		BufferedReader br = null;
+		BufferedWriter bw = null;
+		try {
+			br = InputFiles.newReader(input, BUFFER_SIZE);
+			bw = new BufferedWriter(new FileWriter(output, false), BUFFER_SIZE);
+			while (true) {
+				String line = br.readLine();
+				if (line == null) {
+					break;
+				}
+				charsRead += line.length() + 1;
+				line = normalize(line);
+				HashUtil.murmur3_128(line, 0, fingerprint);
+				if (seen.add(fingerprint[0], fingerprint[1])) {
+					bw.write(line);
+					bw.newLine();
+					written++;
+					if (seen.size() > maxEntries) {
+						estimate[0] = (long) (seen.size()
+								* ((double) input.length() / charsRead));
+						return -1;
+					}
+				}
+			}
+			return written;
+		} finally {
+			closeQuietly(br);
+			if (bw != null) {
+				bw.close();
+			}
+		}
+	}
+
+	private long deduplicatePartitioned(File input, File output,
+										int partitions, long maxEntries) throws IOException {
+		List<File> buckets = new ArrayList<File>(partitions);
+		List<File> drops = new ArrayList<File>(partitions);
+		try {
+			for (int i = 0; i < partitions; i++) {
+				buckets.add(File.createTempFile("dedup-bucket", ".tmp",
+						tempDirectory));
+			}
+			partition(input, buckets);
+			for (File bucket : buckets) {
+				File drop = File.createTempFile("dedup-drop", ".tmp",
+						tempDirectory);
+				drops.add(drop);
+				findRepeated(bucket, drop, maxEntries);
+				delete(bucket);
+			}
+			return writeFirstOccurrences(input, output, drops);
+		} finally {
+			for (File bucket : buckets) {
+				delete(bucket);
+			}
+			for (File drop : drops) {
+				delete(drop);
+			}
+		}
+	}
+
+	/**
+	 * spread the (fingerprint, line ordinal) records of the input over the
+	 * bucket files. Each bucket receives its records in input order.
+	 */
+	private void partition(File input, List<File> buckets) throws IOException {
+		int partitions = buckets.size();
+		int bufferSize = (int) Math.max(4096,
+				Math.min(65536, memoryBudget / partitions));
+		DataOutputStream[] outs = new DataOutputStream[partitions];
+		BufferedReader br = null;
+		try {
+			for (int i = 0; i < partitions; i++) {
+				outs[i] = new DataOutputStream(new BufferedOutputStream(
+						new FileOutputStream(buckets.get(i)), bufferSize));
+			}
+			br = InputFiles.newReader(input, BUFFER_SIZE);
+			long[] fingerprint = new long[2];
+			long ordinal = 0;
+			while (true) {
+				String line = br.readLine();
+				if (line == null) {
+					break;
+				}
+				HashUtil.murmur3_128(normalize(line), 0, fingerprint);
+				DataOutputStream out = outs[(int) ((fingerprint[0] >>> 1) % partitions)];
+				out.writeLong(fingerprint[0]);
+				out.writeLong(fingerprint[1]);
+				out.writeLong(ordinal++);
+			}
+		} finally {
+			closeQuietly(br);
+			for (DataOutputStream out : outs) {
+				if (out != null) {
+					out.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * write the ascending ordinals of the repeated lines within one bucket.
+	 */
+	private void findRepeated(File bucket, File drop, long maxEntries)
+			throws IOException {
+		long records = bucket.length() / RECORD_SIZE;
+		// the records include the duplicates, so the set grows from the
+		// budget with the distinct fingerprints only
+		FingerprintSet seen = new FingerprintSet((int) Math.min(Math.min(
+				records, maxEntries), 1 << 28));
+		boolean warned = false;
+		DataInputStream in = null;
+		DataOutputStream out = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(bucket), 65536));
+			out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(drop), 65536));
+			for (long i = 0; i < records; i++) {
+				long hi = in.readLong();
+				long lo = in.readLong();
+				long ordinal = in.readLong();
+				if (!seen.add(hi, lo)) {
+					out.writeLong(ordinal);
+				} else if (!warned && seen.size() > maxEntries) {
+					LOG.warn("bucket " + bucket + " holds more than "
+							+ maxEntries
+							+ " distinct fingerprints, above the memory budget");
+					warned = true;
+				}
+			}
+		} finally {
+			closeQuietly(in);
+			if (out != null) {
+				out.close();
+			}
+		}
+	}
+
+	private long writeFirstOccurrences(File input, File output,
+									   List<File> drops) throws IOException {
+		PriorityQueue<OrdinalCursor> heap = new PriorityQueue<OrdinalCursor>(
+				drops.size());
+		List<OrdinalCursor> cursors = new ArrayList<OrdinalCursor>(drops.size());
+		BufferedReader br = null;
+		BufferedWriter bw = null;
+		long written = 0;
+		try {
+			for (File drop : drops) {
+				OrdinalCursor cursor = new OrdinalCursor(drop);
+				cursors.add(cursor);
+				if (cursor.advance()) {
+					heap.add(cursor);
+				}
+			}
+			br = InputFiles.newReader(input, BUFFER_SIZE);
+			bw = new BufferedWriter(new FileWriter(output, false), BUFFER_SIZE);
+			long ordinal = 0;
+			while (true) {
+				String line = br.readLine();
+				if (line == null) {
+					break;
+				}
+				if (!heap.isEmpty() && heap.peek().current == ordinal) {
+					OrdinalCursor cursor = heap.poll();
+					if (cursor.advance()) {
+						heap.add(cursor);
+					}
+				} else {
+					bw.write(normalize(line));
+					bw.newLine();
+					written++;
+				}
+				ordinal++;
+			}
+		} finally {
+			closeQuietly(br);
+			if (bw != null) {
+				bw.close();
+			}
+			for (OrdinalCursor cursor : cursors) {
+				closeQuietly(cursor.in);
+			}
+		}
+		return written;
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	private static void delete(File file) {
+		if (file.exists() && !file.delete()) {
+			file.deleteOnExit();
+		}
+	}
+
+	/**
+	 * the next ordinal to drop from one bucket's drop file
+	 */
+	private static class OrdinalCursor implements Comparable<OrdinalCursor> {
+
+		private final DataInputStream in;
+
+		private long remaining;
+
+		private long current;
+
+		OrdinalCursor(File drop) throws IOException {
+			remaining = drop.length() / 8;
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(drop), 65536));
+		}
+
+		boolean advance() throws IOException {
+			if (remaining == 0) {
+				return false;
+			}
+			remaining--;
+			current = in.readLong();
+			return true;
+		}
+
+		public int compareTo(OrdinalCursor other) {
+			return current < other.current ? -1
+					: (current == other.current ? 0 : 1);
+		}
+	}
+}
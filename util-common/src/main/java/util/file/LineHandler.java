@@ -0,0 +1,17 @@
+package util.file;
+
+import java.io.IOException;
+
+/**
+ * receives the lines produced by a file operation, one at a time.
+ */
+public interface LineHandler {
+
+	/**
+	 * handle one line, without its line terminator.
+	 *
+	 * @param line the line
+	 * @throws IOException if the line cannot be written out
+	 */
+	void handle(String line) throws IOException;
+}
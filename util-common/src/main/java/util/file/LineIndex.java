@@ -0,0 +1,487 @@
+package util.file;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * A sparse index of the line offsets of a file, for reading any line by its
+ * number without reading the lines before it. The file is cut into
+ * line-aligned chunks which are indexed in one parallel pass; every chunk
+ * records how many lines it holds and the offset of every interval-th of
+ * its lines. A lookup finds the chunk by binary search and then skips at
+ * most interval - 1 lines from the nearest sample.
+ * <p>
+ * The index is saved next to the file, as "file.lidx", with the offsets
+ * delta encoded as variable-length integers, and reused by open() as long as
+ * the size and modification time of the file are unchanged. Line numbers
+ * start from 1; lines end with '\n' or "\r\n" and are decoded as UTF-8.
+ * Reading through an index is not thread safe.
+ */
+public class LineIndex implements Closeable {
+
+	private static final Log LOG = LogFactory.getLog(LineIndex.class);
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	public static final String SUFFIX = ".lidx";
+
+	public static final int DEFAULT_INTERVAL = 1024;
+
+	static final long CHUNK_SIZE = 64L * 1024 * 1024;
+
+	private static final int MAGIC = 0x4C494458; // "LIDX"
+
+	private static final int VERSION = 1;
+
+	private final File file;
+
+	private final int interval;
+
+	private final long fileSize;
+
+	private final long lastModified;
+
+	/**
+	 * number of the first line of each chunk, with one more entry holding
+	 * lineCount + 1
+	 */
+	private final long[] chunkFirstLines;
+
+	/**
+	 * index into samples of the first sample of each chunk
+	 */
+	private final int[] chunkSamples;
+
+	private final long[] samples;
+
+	private MappedFileView view;
+
+	private LineIndex(File file, int interval, long fileSize,
+					  long lastModified, long[] chunkFirstLines, int[] chunkSamples,
+					  long[] samples) {
+		this.file = file;
+		this.interval = interval;
+		this.fileSize = fileSize;
+		this.lastModified = lastModified;
+		this.chunkFirstLines = chunkFirstLines;
+		this.chunkSamples = chunkSamples;
+		this.samples = samples;
+	}
+
+	/**
+	 * load the saved index of a file, or build and save it if it is missing
+	 * or out of date. If it cannot be saved it is only kept in memory.
+	 *
+	 * @param file     the file to index
+	 * @param interval the lines between two samples, for a new index
+	 * @return the index
+	 * @throws IOException if the file cannot be read
+	 */
+	public static LineIndex open(File file, int interval) throws IOException {
+		File indexFile = indexFileOf(file);
+		if (indexFile.exists()) {
+			try {
+				LineIndex index = load(file, indexFile);
+				if (index.isValid()) {
+					return index;
+				}
+				LOG.info("line index out of date, rebuilding: " + indexFile);
+			} catch (IOException e) {
+				LOG.warn("cannot load line index " + indexFile + ": " + e);
+			}
+		}
+		LineIndex index = build(file, interval, ForkJoinPool.commonPool());
+		try {
+			index.save(indexFile);
+		} catch (IOException e) {
+			LOG.warn("cannot save line index " + indexFile + ": " + e);
+		}
+		return index;
+	}
+
+	public static LineIndex open(File file) throws IOException {
+		return open(file, DEFAULT_INTERVAL);
+	}
+
+	/**
+	 * @return the file the index of a file is saved to
+	 */
+	public static File indexFileOf(File file) {
+		return new File(file.getPath() + SUFFIX);
+	}
+
+	/**
+	 * index a file without saving the index.
+	 *
+	 * @param file     the file to index
+	 * @param interval the lines between two samples
+	 * @param pool     the pool running the scan
+	 * @return the index
+	 * @throws IOException also if the file is compressed
+	 */
+	public static LineIndex build(File file, int interval, ForkJoinPool pool)
+			throws IOException {
+		if (interval < 1) {
+			throw new IllegalArgumentException("interval must be positive: "
+					+ interval);
+		}
+		if (InputFiles.isCompressed(file)) {
+			throw new IOException("cannot index the lines of compressed "
+					+ file + ", which cannot be read at an offset");
+		}
+		long lastModified = file.lastModified();
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long size = channel.size();
+			List<Long> boundaries = FileSplitter.lineAlignedChunks(channel, size,
+					CHUNK_SIZE);
+			List<ChunkTask> tasks = new ArrayList<ChunkTask>();
+			for (int i = 0; i + 1 < boundaries.size(); i++) {
+				ChunkTask task = new ChunkTask(channel, boundaries.get(i),
+						boundaries.get(i + 1), interval);
+				tasks.add(task);
+				pool.execute(task);
+			}
+			long[] chunkFirstLines = new long[tasks.size() + 1];
+			int[] chunkSamples = new int[tasks.size() + 1];
+			long[][] chunkOffsets = new long[tasks.size()][];
+			long line = 1;
+			long sampleCount = 0;
+			for (int i = 0; i < tasks.size(); i++) {
+				long[] offsets;
+				try {
+					offsets = tasks.get(i).join();
+				} catch (UncheckedIOException e) {
+					throw e.getCause();
+				}
+				chunkFirstLines[i] = line;
+				chunkSamples[i] = (int) sampleCount;
+				chunkOffsets[i] = offsets;
+				// the last entry of a task result is its line count
+				line += offsets[offsets.length - 1];
+				sampleCount += offsets.length - 1;
+				if (sampleCount > Integer.MAX_VALUE - 8) {
+					throw new IllegalArgumentException("interval too small for "
+							+ file);
+				}
+			}
+			chunkFirstLines[tasks.size()] = line;
+			chunkSamples[tasks.size()] = (int) sampleCount;
+			long[] samples = new long[(int) sampleCount];
+			for (int i = 0; i < tasks.size(); i++) {
+				System.arraycopy(chunkOffsets[i], 0, samples, chunkSamples[i],
+						chunkOffsets[i].length - 1);
+			}
+			return new LineIndex(file, interval, size, lastModified,
+					chunkFirstLines, chunkSamples, samples);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * write the index to a file, see open().
+	 *
+	 * @param indexFile the file to write
+	 * @throws IOException
+	 */
+	public void save(File indexFile) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(indexFile), 64 * 1024));
+		try {
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			out.writeInt(interval);
+			out.writeLong(fileSize);
+			out.writeLong(lastModified);
+			out.writeInt(chunkSamples.length - 1);
+			long previous = 0;
+			for (int chunk = 0; chunk + 1 < chunkSamples.length; chunk++) {
+				BinaryCodec.writeVarLong(out, chunkFirstLines[chunk + 1]
+						- chunkFirstLines[chunk]);
+				for (int i = chunkSamples[chunk]; i < chunkSamples[chunk + 1]; i++) {
+					BinaryCodec.writeVarLong(out, samples[i] - previous);
+					previous = samples[i];
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private static LineIndex load(File file, File indexFile)
+			throws IOException {
+		byte[] bytes = new byte[(int) Math.min(Integer.MAX_VALUE - 8,
+				indexFile.length())];
+		DataInputStream in = new DataInputStream(new FileInputStream(indexFile));
+		try {
+			in.readFully(bytes);
+		} finally {
+			in.close();
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		try {
+			if (buffer.getInt() != MAGIC || buffer.get() != VERSION) {
+				throw new IOException("not a line index");
+			}
+			int interval = buffer.getInt();
+			long fileSize = buffer.getLong();
+			long lastModified = buffer.getLong();
+			int chunks = buffer.getInt();
+			if (interval < 1 || chunks < 0 || chunks > buffer.remaining()) {
+				throw new IOException("corrupt line index");
+			}
+			long[] chunkFirstLines = new long[chunks + 1];
+			int[] chunkSamples = new int[chunks + 1];
+			long[] samples = new long[16];
+			int sampleCount = 0;
+			long line = 1;
+			long previous = 0;
+			for (int chunk = 0; chunk < chunks; chunk++) {
+				chunkFirstLines[chunk] = line;
+				chunkSamples[chunk] = sampleCount;
+				long lines = BinaryCodec.readVarLong(buffer);
+				if (lines < 1) {
+					throw new IOException("corrupt line index");
+				}
+				line += lines;
+				for (long i = 0; i < (lines + interval - 1) / interval; i++) {
+					if (sampleCount == samples.length) {
+						samples = Arrays.copyOf(samples, sampleCount * 2);
+					}
+					previous += BinaryCodec.readVarLong(buffer);
+					samples[sampleCount++] = previous;
+				}
+			}
+			chunkFirstLines[chunks] = line;
+			chunkSamples[chunks] = sampleCount;
+			return new LineIndex(file, interval, fileSize, lastModified,
+					chunkFirstLines, chunkSamples, Arrays.copyOf(samples,
+					sampleCount));
+		} catch (RuntimeException e) {
+			throw new IOException("corrupt line index", e);
+		}
+	}
+
+	/**
+	 * @return true if the file still has the size and modification time it
+	 * had when it was indexed
+	 */
+	public boolean isValid() {
+		return file.length() == fileSize && file.lastModified() == lastModified;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return the number of lines of the file
+	 */
+	public long lineCount() {
+		return chunkFirstLines[chunkFirstLines.length - 1] - 1;
+	}
+
+	/**
+	 * find where a line starts.
+	 *
+	 * @param lineNumber from 1 to lineCount() + 1, the latter giving the size
+	 *                   of the file
+	 * @return the byte offset of the line
+	 * @throws IOException
+	 */
+	public long offsetOf(long lineNumber) throws IOException {
+		if (lineNumber < 1 || lineNumber > lineCount() + 1) {
+			throw new IndexOutOfBoundsException("line " + lineNumber + " of "
+					+ lineCount());
+		}
+		if (lineNumber == lineCount() + 1) {
+			return fileSize;
+		}
+		int chunk = Arrays.binarySearch(chunkFirstLines, lineNumber);
+		if (chunk < 0) {
+			chunk = -chunk - 2;
+		}
+		long local = lineNumber - chunkFirstLines[chunk];
+		long offset = samples[chunkSamples[chunk] + (int) (local / interval)];
+		return skipLines(view(), offset, (int) (local % interval));
+	}
+
+	/**
+	 * read one line.
+	 *
+	 * @param lineNumber from 1 to lineCount()
+	 * @return the line, or null if there is no such line
+	 * @throws IOException
+	 */
+	public String readLine(long lineNumber) throws IOException {
+		List<String> lines = readLines(lineNumber, 1);
+		return lines.isEmpty() ? null : lines.get(0);
+	}
+
+	/**
+	 * read consecutive lines. Paging backwards is reading from a smaller line
+	 * number.
+	 *
+	 * @param firstLine the number of the first line, from 1
+	 * @param count     the number of lines wanted
+	 * @return the lines, fewer than count at the end of the file
+	 * @throws IOException
+	 */
+	public List<String> readLines(long firstLine, int count)
+			throws IOException {
+		List<String> lines = new ArrayList<String>(Math.min(count, 1024));
+		if (firstLine < 1 || firstLine > lineCount() || count <= 0) {
+			return lines;
+		}
+		readLines(view(), offsetOf(firstLine), count, lines);
+		return lines;
+	}
+
+	/**
+	 * close the file, if it was opened for reading
+	 */
+	public void close() throws IOException {
+		if (view != null) {
+			view.close();
+			view = null;
+		}
+	}
+
+	private MappedFileView view() throws IOException {
+		if (!isValid()) {
+			throw new IOException(file + " changed since it was indexed");
+		}
+		if (view == null) {
+			view = new MappedFileView(file);
+		}
+		return view;
+	}
+
+	/**
+	 * read and decode up to count lines as UTF-8.
+	 *
+	 * @param position the offset of the first line
+	 * @param lines    receives the lines
+	 * @return the offset of the line after the last one read
+	 */
+	static long readLines(MappedFileView view, long position, int count,
+						  List<String> lines) {
+		long size = view.size();
+		byte[] bytes = new byte[256];
+		for (int i = 0; i < count && position < size; i++) {
+			long newline = view.indexOf((byte) '\n', position, size);
+			long end = newline < 0 ? size : newline;
+			long next = newline < 0 ? size : newline + 1;
+			if (end > position && view.get(end - 1) == '\r') {
+				end--;
+			}
+			int length = (int) (end - position);
+			if (bytes.length < length) {
+				bytes = new byte[Math.max(length, bytes.length * 2)];
+			}
+			view.get(position, bytes, 0, length);
+			lines.add(new String(bytes, 0, length, UTF_8));
+			position = next;
+		}
+		return position;
+	}
+
+	/**
+	 * @return the offset of the line count lines after the one at offset
+	 */
+	static long skipLines(MappedFileView view, long offset, int count) {
+		for (int i = 0; i < count; i++) {
+			long newline = view.indexOf((byte) '\n', offset, view.size());
+			if (newline < 0) {
+				return view.size();
+			}
+			offset = newline + 1;
+		}
+		return offset;
+	}
+
+	/**
+	 * @return the offset of the line count lines before the one at offset,
+	 * or 0 if there are fewer lines before it
+	 */
+	static long backLines(MappedFileView view, long offset, int count) {
+		// offset - 1 is the '\n' ending the previous line
+		long position = offset - 1;
+		for (int i = 0; i < count && position >= 0; i++) {
+			position--;
+			while (position >= 0 && view.get(position) != '\n') {
+				position--;
+			}
+		}
+		return Math.max(0, position + 1);
+	}
+
+	/**
+	 * indexes one chunk: the offsets of its lines 0, interval, 2 * interval...
+	 * followed by its line count
+	 */
+	private static class ChunkTask extends RecursiveTask<long[]> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final FileChannel channel;
+
+		private final long from;
+
+		private final long to;
+
+		private final int interval;
+
+		ChunkTask(FileChannel channel, long from, long to, int interval) {
+			this.channel = channel;
+			this.from = from;
+			this.to = to;
+			this.interval = interval;
+		}
+
+		@Override
+		protected long[] compute() {
+			MappedByteBuffer buffer;
+			try {
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, from, to
+						- from);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			long[] offsets = new long[16];
+			int count = 0;
+			long lines = 0;
+			int limit = buffer.limit();
+			int lineStart = 0;
+			while (lineStart < limit) {
+				if (lines % interval == 0) {
+					if (count + 1 >= offsets.length) {
+						offsets = Arrays.copyOf(offsets, offsets.length * 2);
+					}
+					offsets[count++] = from + lineStart;
+				}
+				lines++;
+				int i = lineStart;
+				while (i < limit && buffer.get(i) != '\n') {
+					i++;
+				}
+				lineStart = i + 1;
+			}
+			offsets[count++] = lines;
+			return Arrays.copyOf(offsets, count);
+		}
+	}
+}
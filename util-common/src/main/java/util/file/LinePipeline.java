@@ -0,0 +1,417 @@
+package util.file;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Process the lines of files in parallel through a chain of map, filter and
+ * flatMap stages, and pass the resulting lines to a sink:
+ * <pre>
+ * long written = LinePipeline.of(new File("dump.nt.gz"))
+ *         .map(trim)
+ *         .filter(notEmpty)
+ *         .writeTo(new File("dump_clean.nt"), false, true);
+ * </pre>
+ * The files are read sequentially by the calling thread, decoding them if
+ * they are compressed (see InputFiles), and directories are expanded to the
+ * files below them. Lines are cut into batches which run through all the
+ * stages on the pool, one task per batch. At most queueSize batches are in
+ * flight, read but not yet passed to the sink, so reading blocks when the
+ * stages or the sink fall behind and the memory used stays bounded.
+ * <p>
+ * The sink is called by one thread at a time, either in input order or in
+ * the order in which batches complete. The stages are called concurrently
+ * and must be thread safe. A pipeline can be run several times but must not
+ * be reconfigured while it runs.
+ */
+public class LinePipeline {
+
+	public static final int DEFAULT_BATCH_SIZE = 1024;
+
+	private static final int BUFFER_SIZE = 8192 * 100;
+
+	private final List<File> files;
+
+	private final List<Stage> stages = new ArrayList<Stage>();
+
+	private Charset charset = Charset.defaultCharset();
+
+	private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+	private int batchSize = DEFAULT_BATCH_SIZE;
+
+	private int queueSize = -1;
+
+	private LinePipeline(List<File> files) {
+		this.files = files;
+	}
+
+	/**
+	 * @param sources the files to read in order; a directory stands for the
+	 *                files below it, sorted by path
+	 * @return a pipeline passing the lines on unchanged
+	 */
+	public static LinePipeline of(File... sources) {
+		List<File> files = new ArrayList<File>();
+		for (File source : sources) {
+			if (source.isDirectory()) {
+				for (DirectoryWalker.Entry entry : new DirectoryWalker()
+						.list(source.toPath())) {
+					files.add(entry.getPath().toFile());
+				}
+			} else {
+				files.add(source);
+			}
+		}
+		return new LinePipeline(files);
+	}
+
+	/**
+	 * @param sources the files to read in order, see of(File...)
+	 */
+	public static LinePipeline of(List<File> sources) {
+		return of(sources.toArray(new File[sources.size()]));
+	}
+
+	/**
+	 * @param charset the charset of the files and of the output of
+	 *                writeTo(), by default the platform charset as for
+	 *                FileReader
+	 */
+	public LinePipeline charset(Charset charset) {
+		this.charset = charset;
+		return this;
+	}
+
+	/**
+	 * @param pool the pool running the stages, by default the common pool
+	 */
+	public LinePipeline pool(ForkJoinPool pool) {
+		this.pool = pool;
+		return this;
+	}
+
+	/**
+	 * @param batchSize the number of input lines per task
+	 */
+	public LinePipeline batchSize(int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batchSize must be positive: "
+					+ batchSize);
+		}
+		this.batchSize = batchSize;
+		return this;
+	}
+
+	/**
+	 * @param queueSize the number of batches in flight, by default twice the
+	 *                  parallelism of the pool
+	 */
+	public LinePipeline queueSize(int queueSize) {
+		if (queueSize < 1) {
+			throw new IllegalArgumentException("queueSize must be positive: "
+					+ queueSize);
+		}
+		this.queueSize = queueSize;
+		return this;
+	}
+
+	/**
+	 * replace every line with the result of the function, dropping the line
+	 * if it is null.
+	 */
+	public LinePipeline map(final Function<String, String> function) {
+		stages.add(new Stage() {
+			public void apply(String line, int next, List<String> out) {
+				String result = function.apply(line);
+				if (result != null) {
+					push(result, next, out);
+				}
+			}
+		});
+		return this;
+	}
+
+	/**
+	 * keep only the lines accepted by the predicate.
+	 */
+	public LinePipeline filter(final Predicate<String> predicate) {
+		stages.add(new Stage() {
+			public void apply(String line, int next, List<String> out) {
+				if (predicate.test(line)) {
+					push(line, next, out);
+				}
+			}
+		});
+		return this;
+	}
+
+	/**
+	 * replace every line with the lines returned by the function, none if it
+	 * returns null.
+	 */
+	public LinePipeline flatMap(
+			final Function<String, ? extends Iterable<String>> function) {
+		stages.add(new Stage() {
+			public void apply(String line, int next, List<String> out) {
+				Iterable<String> results = function.apply(line);
+				if (results != null) {
+					for (String result : results) {
+						push(result, next, out);
+					}
+				}
+			}
+		});
+		return this;
+	}
+
+	/**
+	 * run the pipeline and pass the resulting lines to the handler.
+	 *
+	 * @param handler receives the lines, from one thread at a time
+	 * @param ordered whether the lines are passed in input order, else in
+	 *                the order in which their batches complete
+	 * @return the number of lines passed to the handler
+	 * @throws IOException if a file cannot be read or the handler fails
+	 */
+	public long forEach(LineHandler handler, boolean ordered)
+			throws IOException {
+		int capacity = queueSize > 0 ? queueSize : 2 * pool.getParallelism();
+		Run run = new Run(handler, ordered, capacity);
+		BufferedReader br = null;
+		try {
+			long sequence = 0;
+			List<String> batch = new ArrayList<String>(batchSize);
+			for (File file : files) {
+				br = InputFiles.newReader(file, charset, BUFFER_SIZE);
+				String line;
+				while (run.failure == null && (line = br.readLine()) != null) {
+					batch.add(line);
+					if (batch.size() == batchSize) {
+						run.acquire();
+						pool.execute(new BatchTask(run, sequence++, batch));
+						batch = new ArrayList<String>(batchSize);
+					}
+				}
+				br.close();
+				br = null;
+			}
+			if (!batch.isEmpty()) {
+				run.acquire();
+				pool.execute(new BatchTask(run, sequence, batch));
+			}
+		} finally {
+			if (br != null) {
+				br.close();
+			}
+			// wait until every batch in flight has reached the sink
+			run.permits.acquireUninterruptibly(capacity);
+		}
+		run.rethrow();
+		return run.count;
+	}
+
+	/**
+	 * run the pipeline and write the resulting lines to a file, each
+	 * followed by the platform line separator.
+	 *
+	 * @param output  the file to write
+	 * @param append  whether to append to the file instead of overwriting it
+	 * @param ordered whether the lines are written in input order
+	 * @return the number of lines written
+	 * @throws IOException
+	 */
+	public long writeTo(File output, boolean append, boolean ordered)
+			throws IOException {
+		final BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(output, append), charset), BUFFER_SIZE);
+		try {
+			return forEach(new LineHandler() {
+				public void handle(String line) throws IOException {
+					bw.write(line);
+					bw.newLine();
+				}
+			}, ordered);
+		} finally {
+			bw.close();
+		}
+	}
+
+	/**
+	 * run the pipeline and count the resulting lines.
+	 */
+	public long count() throws IOException {
+		return forEach(new LineHandler() {
+			public void handle(String line) {
+			}
+		}, false);
+	}
+
+	/**
+	 * pass a line to the stage at the index, or collect it after the last
+	 * stage.
+	 */
+	private void push(String line, int stage, List<String> out) {
+		if (stage == stages.size()) {
+			out.add(line);
+		} else {
+			stages.get(stage).apply(line, stage + 1, out);
+		}
+	}
+
+	private interface Stage {
+
+		/**
+		 * @param next the index of the following stage
+		 * @param out  receives the lines leaving the last stage
+		 */
+		void apply(String line, int next, List<String> out);
+	}
+
+	/**
+	 * the state of one run: the batches in flight, those waiting for their
+	 * turn in the ordered sink, and the first failure
+	 */
+	private static class Run {
+
+		private final LineHandler handler;
+
+		private final boolean ordered;
+
+		/**
+		 * one permit per batch which may be in flight
+		 */
+		private final Semaphore permits;
+
+		private final Map<Long, List<String>> waiting = new HashMap<Long, List<String>>();
+
+		private long nextSequence;
+
+		private long count;
+
+		private volatile Throwable failure;
+
+		Run(LineHandler handler, boolean ordered, int capacity) {
+			this.handler = handler;
+			this.ordered = ordered;
+			this.permits = new Semaphore(capacity);
+		}
+
+		/**
+		 * wait until another batch may be put in flight
+		 */
+		void acquire() throws IOException {
+			try {
+				permits.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("interrupted while reading "
+						+ "the pipeline input");
+			}
+		}
+
+		void fail(Throwable t) {
+			if (failure == null) {
+				failure = t;
+			}
+		}
+
+		/**
+		 * pass a completed batch to the handler, or keep it until the
+		 * batches before it are passed. Lines of a failed run are dropped.
+		 *
+		 * @param lines the output of the batch, null if it failed
+		 */
+		synchronized void deliver(long sequence, List<String> lines) {
+			if (!ordered) {
+				write(lines);
+				permits.release();
+				return;
+			}
+			waiting.put(sequence, lines);
+			while (waiting.containsKey(nextSequence)) {
+				write(waiting.remove(nextSequence++));
+				permits.release();
+			}
+		}
+
+		private void write(List<String> lines) {
+			if (lines == null || failure != null) {
+				return;
+			}
+			try {
+				for (String line : lines) {
+					handler.handle(line);
+				}
+				count += lines.size();
+			} catch (IOException e) {
+				fail(e);
+			} catch (RuntimeException e) {
+				fail(e);
+			}
+		}
+
+		void rethrow() throws IOException {
+			Throwable t = failure;
+			if (t == null) {
+				return;
+			}
+			if (t instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) t).getCause();
+			} else if (t instanceof IOException) {
+				throw (IOException) t;
+			} else if (t instanceof RuntimeException) {
+				throw (RuntimeException) t;
+			} else if (t instanceof Error) {
+				throw (Error) t;
+			}
+			throw new IOException(t);
+		}
+	}
+
+	/**
+	 * runs one batch through all the stages and delivers the result
+	 */
+	private class BatchTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Run run;
+
+		private final long sequence;
+
+		private final List<String> batch;
+
+		BatchTask(Run run, long sequence, List<String> batch) {
+			this.run = run;
+			this.sequence = sequence;
+			this.batch = batch;
+		}
+
+		@Override
+		protected void compute() {
+			List<String> out = null;
+			try {
+				if (run.failure == null) {
+					out = new ArrayList<String>(batch.size());
+					for (String line : batch) {
+						push(line, 0, out);
+					}
+				}
+			} catch (Throwable t) {
+				run.fail(t);
+				out = null;
+			}
+			run.deliver(sequence, out);
+		}
+	}
+}
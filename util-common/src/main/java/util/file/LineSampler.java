@@ -0,0 +1,299 @@
+package util.file;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Draw a uniform random sample of the lines of a file, every line having the
+ * same chance to be picked whatever its length or position. A plain file is
+ * sampled through its LineIndex: once the index exists, which is built in
+ * one parallel pass and saved for the next samples, drawing k lines costs k
+ * seeks instead of a pass over the file. Other input is sampled in one
+ * sequential pass by reservoir sampling, with Li's algorithm L: the number
+ * of lines to skip before the next pick is drawn directly, and skipped lines
+ * are only scanned for '\n', never decoded.
+ * <p>
+ * A sampler created with a seed draws the same sample of the same file every
+ * time. Lines end with '\n' or "\r\n" and are decoded as UTF-8. A sampler is
+ * not thread safe.
+ */
+public class LineSampler {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final Random random;
+
+	/**
+	 * @param seed the seed of the random draws, for reproducible samples
+	 */
+	public LineSampler(long seed) {
+		this.random = new Random(seed);
+	}
+
+	public LineSampler() {
+		this.random = new Random();
+	}
+
+	/**
+	 * sample a file, through its LineIndex if it is plain, else by decoding
+	 * it once, see InputFiles.
+	 *
+	 * @param file the file
+	 * @param k    the number of lines wanted
+	 * @return the sampled lines in file order, all the lines if the file has
+	 * no more than k
+	 * @throws IOException
+	 */
+	public List<Line> sample(File file, int k) throws IOException {
+		if (InputFiles.isCompressed(file)) {
+			InputStream in = InputFiles.open(file);
+			try {
+				return sample(in, k);
+			} finally {
+				in.close();
+			}
+		}
+		LineIndex index = LineIndex.open(file);
+		try {
+			return sample(index, k);
+		} finally {
+			index.close();
+		}
+	}
+
+	/**
+	 * sample the lines of an indexed file, reading only the lines picked.
+	 *
+	 * @param index the index of the file
+	 * @param k     the number of lines wanted
+	 * @return the sampled lines in file order, all the lines if the file has
+	 * no more than k
+	 * @throws IOException
+	 */
+	public List<Line> sample(LineIndex index, int k) throws IOException {
+		if (k < 0) {
+			throw new IllegalArgumentException("k must not be negative: " + k);
+		}
+		long count = index.lineCount();
+		long[] picked;
+		if (count <= k) {
+			picked = new long[(int) count];
+			for (int i = 0; i < picked.length; i++) {
+				picked[i] = i + 1;
+			}
+		} else {
+			// Floyd's algorithm: k distinct numbers in k draws
+			Set<Long> chosen = new HashSet<Long>(k * 2);
+			for (long j = count - k + 1; j <= count; j++) {
+				long t = 1 + nextLong(j);
+				chosen.add(chosen.contains(t) ? j : t);
+			}
+			picked = new long[k];
+			int i = 0;
+			for (Long lineNumber : chosen) {
+				picked[i++] = lineNumber;
+			}
+			Arrays.sort(picked);
+		}
+		List<Line> lines = new ArrayList<Line>(picked.length);
+		for (long lineNumber : picked) {
+			lines.add(new Line(lineNumber, index.readLine(lineNumber)));
+		}
+		return lines;
+	}
+
+	/**
+	 * sample a stream in one pass, holding only the k lines kept so far.
+	 *
+	 * @param in the content, read to its end but not closed
+	 * @param k  the number of lines wanted
+	 * @return the sampled lines in file order, all the lines if the stream
+	 * has no more than k
+	 * @throws IOException
+	 */
+	public List<Line> sample(InputStream in, int k) throws IOException {
+		if (k < 0) {
+			throw new IllegalArgumentException("k must not be negative: " + k);
+		}
+		if (k == 0) {
+			return new ArrayList<Line>();
+		}
+		Line[] reservoir = new Line[k];
+		double w = Math.exp(Math.log(nextDouble()) / k);
+		long next = k + skip(w) + 1;
+		long lineNumber = 0;
+		byte[] buffer = new byte[BUFFER_SIZE];
+		LineBuffer line = new LineBuffer();
+		// whether the line being read is kept, false at the start of a line
+		boolean keeping = false;
+		boolean inLine = false;
+		int n;
+		while ((n = in.read(buffer)) >= 0) {
+			int position = 0;
+			while (position < n) {
+				if (!inLine) {
+					inLine = true;
+					lineNumber++;
+					keeping = lineNumber <= k || lineNumber == next;
+					line.clear();
+				}
+				int newline = indexOf(buffer, position, n);
+				int end = newline < 0 ? n : newline;
+				if (keeping) {
+					line.append(buffer, position, end - position);
+				}
+				if (newline < 0) {
+					break;
+				}
+				position = newline + 1;
+				inLine = false;
+				if (keeping) {
+					if (lineNumber <= k) {
+						reservoir[(int) lineNumber - 1] = line.toLine(lineNumber);
+					} else {
+						reservoir[random.nextInt(k)] = line.toLine(lineNumber);
+						w *= Math.exp(Math.log(nextDouble()) / k);
+						next = add(next, skip(w) + 1);
+					}
+				}
+			}
+		}
+		if (inLine && keeping) {
+			// the last line has no terminator
+			if (lineNumber <= k) {
+				reservoir[(int) lineNumber - 1] = line.toLine(lineNumber);
+			} else {
+				reservoir[random.nextInt(k)] = line.toLine(lineNumber);
+			}
+		}
+		List<Line> lines = new ArrayList<Line>(k);
+		for (Line kept : reservoir) {
+			if (kept != null) {
+				lines.add(kept);
+			}
+		}
+		Collections.sort(lines);
+		return lines;
+	}
+
+	/**
+	 * @return the number of lines to skip before the next pick, geometric
+	 * with success probability w
+	 */
+	private long skip(double w) {
+		// the cast saturates at Long.MAX_VALUE for tiny w
+		return (long) Math.floor(Math.log(nextDouble()) / Math.log1p(-w));
+	}
+
+	/**
+	 * @return a double in (0, 1], whose log is finite
+	 */
+	private double nextDouble() {
+		return 1.0 - random.nextDouble();
+	}
+
+	/**
+	 * @return a long uniformly drawn from [0, bound)
+	 */
+	private long nextLong(long bound) {
+		if (bound <= Integer.MAX_VALUE) {
+			return random.nextInt((int) bound);
+		}
+		long bits;
+		long value;
+		do {
+			bits = random.nextLong() >>> 1;
+			value = bits % bound;
+		} while (bits - value + (bound - 1) < 0);
+		return value;
+	}
+
+	private static long add(long a, long b) {
+		return a > Long.MAX_VALUE - b ? Long.MAX_VALUE : a + b;
+	}
+
+	private static int indexOf(byte[] buffer, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (buffer[i] == '\n') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * a sampled line with its number, from 1
+	 */
+	public static class Line implements Comparable<Line>, Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final long lineNumber;
+
+		private final String text;
+
+		Line(long lineNumber, String text) {
+			this.lineNumber = lineNumber;
+			this.text = text;
+		}
+
+		public long getLineNumber() {
+			return lineNumber;
+		}
+
+		/**
+		 * @return the line without its terminator
+		 */
+		public String getText() {
+			return text;
+		}
+
+		public int compareTo(Line other) {
+			return lineNumber < other.lineNumber ? -1
+					: (lineNumber == other.lineNumber ? 0 : 1);
+		}
+
+		@Override
+		public String toString() {
+			return lineNumber + "\t" + text;
+		}
+	}
+
+	/**
+	 * the bytes of the line being kept, which may span several reads
+	 */
+	private static class LineBuffer {
+
+		private byte[] bytes = new byte[256];
+
+		private int length;
+
+		void clear() {
+			length = 0;
+		}
+
+		void append(byte[] source, int from, int count) {
+			if (length + count > bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.max(length + count,
+						bytes.length * 2));
+			}
+			System.arraycopy(source, from, bytes, length, count);
+			length += count;
+		}
+
+		Line toLine(long lineNumber) {
+			int end = length > 0 && bytes[length - 1] == '\r' ? length - 1
+					: length;
+			return new Line(lineNumber, new String(bytes, 0, end, UTF_8));
+		}
+	}
+}
@@ -0,0 +1,208 @@
+package util.file;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.*;
+
+/**
+ * Set difference and intersection between the lines of two files of any
+ * size. Inputs which are not already sorted are sorted externally first,
+ * then both are walked in a single linear merge. Every line of the result is
+ * reported once, in sorted order.
+ */
+public class LineSetOperations {
+
+	private static final Log LOG = LogFactory.getLog(LineSetOperations.class);
+
+	private static final int BUFFER_SIZE = 8192 * 100;
+
+	public enum Operation {
+		/**
+		 * lines of the left file which are not in the right file
+		 */
+		DIFFERENCE,
+		/**
+		 * lines which are in both files
+		 */
+		INTERSECTION
+	}
+
+	private final long memoryBudget;
+
+	private final File tempDirectory;
+
+	/**
+	 * @param memoryBudget  memory budget for sorting an unsorted input
+	 * @param tempDirectory directory for sorted copies and their runs, null
+	 *                      for the default temporary-file directory
+	 */
+	public LineSetOperations(long memoryBudget, File tempDirectory) {
+		this.memoryBudget = memoryBudget;
+		this.tempDirectory = tempDirectory;
+	}
+
+	public LineSetOperations() {
+		this(ExternalSorter.DEFAULT_MEMORY_BUDGET, null);
+	}
+
+	/**
+	 * compute the operation and write the result lines to a file.
+	 *
+	 * @param left      the left file
+	 * @param right     the right file
+	 * @param operation the set operation
+	 * @param output    the file to write, overwritten if exists
+	 * @return the number of result lines
+	 * @throws IOException
+	 */
+	public long compute(File left, File right, Operation operation,
+						File output) throws IOException {
+		BufferedWriter bw = null;
+		try {
+			bw = new BufferedWriter(new FileWriter(output, false), BUFFER_SIZE);
+			final BufferedWriter writer = bw;
+			return compute(left, right, operation, new LineHandler() {
+				public void handle(String line) throws IOException {
+					writer.write(line);
+					writer.newLine();
+				}
+			});
+		} finally {
+			if (bw != null) {
+				bw.close();
+			}
+		}
+	}
+
+	/**
+	 * compute the operation and pass the result lines to a handler.
+	 *
+	 * @param left      the left file
+	 * @param right     the right file
+	 * @param operation the set operation
+	 * @param handler   receives every result line once, in sorted order
+	 * @return the number of result lines
+	 * @throws IOException
+	 */
+	public long compute(File left, File right, Operation operation,
+						LineHandler handler) throws IOException {
+		File sortedLeft = null;
+		File sortedRight = null;
+		BufferedReader leftReader = null;
+		BufferedReader rightReader = null;
+		try {
+			sortedLeft = sortIfNeeded(left);
+			sortedRight = sortIfNeeded(right);
+			leftReader = InputFiles.newReader(sortedLeft != null ? sortedLeft
+					: left, BUFFER_SIZE);
+			rightReader = InputFiles.newReader(sortedRight != null ? sortedRight
+					: right, BUFFER_SIZE);
+			return merge(leftReader, rightReader, operation, handler);
+		} finally {
+			closeQuietly(leftReader);
+			closeQuietly(rightReader);
+			delete(sortedLeft);
+			delete(sortedRight);
+		}
+	}
+
+	private long merge(BufferedReader leftReader, BufferedReader rightReader,
+					   Operation operation, LineHandler handler) throws IOException {
+		long count = 0;
+		String l = nextDistinct(leftReader, null);
+		String r = nextDistinct(rightReader, null);
+		while (l != null) {
+			int c = r == null ? -1 : l.compareTo(r);
+			if (c < 0) {
+				if (operation == Operation.DIFFERENCE) {
+					handler.handle(l);
+					count++;
+				}
+				l = nextDistinct(leftReader, l);
+			} else if (c > 0) {
+				r = nextDistinct(rightReader, r);
+			} else {
+				if (operation == Operation.INTERSECTION) {
+					handler.handle(l);
+					count++;
+				}
+				l = nextDistinct(leftReader, l);
+				r = nextDistinct(rightReader, r);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * read the next line which differs from the previous one, so that
+	 * already sorted inputs may still contain duplicates.
+	 */
+	private static String nextDistinct(BufferedReader br, String previous)
+			throws IOException {
+		while (true) {
+			String line = br.readLine();
+			if (line == null || previous == null || !line.equals(previous)) {
+				return line;
+			}
+		}
+	}
+
+	/**
+	 * @return a sorted temporary copy of the file, or null if the file is
+	 * already sorted
+	 */
+	private File sortIfNeeded(File file) throws IOException {
+		if (isSorted(file)) {
+			return null;
+		}
+		LOG.debug("sorting " + file + " before merging");
+		File sorted = File.createTempFile("setop-sorted", ".tmp", tempDirectory);
+		try {
+			new ExternalSorter(memoryBudget, false, tempDirectory).sort(file,
+					sorted);
+		} catch (IOException e) {
+			delete(sorted);
+			throw e;
+		}
+		return sorted;
+	}
+
+	/**
+	 * check whether the lines of a file are in non-descending order
+	 */
+	static boolean isSorted(File file) throws IOException {
+		BufferedReader br = null;
+		try {
+			br = InputFiles.newReader(file, BUFFER_SIZE);
+			String previous = null;
+			while (true) {
+				String line = br.readLine();
+				if (line == null) {
+					return true;
+				}
+				if (previous != null && previous.compareTo(line) > 0) {
+					return false;
+				}
+				previous = line;
+			}
+		} finally {
+			closeQuietly(br);
+		}
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	private static void delete(File file) {
+		if (file != null && file.exists() && !file.delete()) {
+			file.deleteOnExit();
+		}
+	}
+}
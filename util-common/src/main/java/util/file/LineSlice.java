@@ -0,0 +1,218 @@
+package util.file;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * A line handed out by a LineSource, as a range of bytes in the buffer of
+ * the source, without its terminator. Nothing is copied or decoded until the
+ * content is asked for: tests on the bytes, like startsWith() or indexOf(),
+ * allocate nothing, and toString() decodes the line once.
+ * <p>
+ * A slice is reused by its source for the next line, so it must not be kept
+ * after the source has moved on; keep toString() or a copy of the bytes
+ * instead.
+ */
+public final class LineSlice {
+
+	private final Charset charset;
+
+	private ByteBuffer buffer;
+
+	private int start;
+
+	private int length;
+
+	private long offset;
+
+	private long lineNumber;
+
+	private String decoded;
+
+	private byte[] scratch;
+
+	LineSlice(Charset charset) {
+		this.charset = charset;
+	}
+
+	void set(ByteBuffer buffer, int start, int length, long offset,
+			 long lineNumber) {
+		this.buffer = buffer;
+		this.start = start;
+		this.length = length;
+		this.offset = offset;
+		this.lineNumber = lineNumber;
+		this.decoded = null;
+	}
+
+	/**
+	 * the buffer holding the line, for the engines of this package which
+	 * work on the bytes in place
+	 */
+	ByteBuffer buffer() {
+		return buffer;
+	}
+
+	/**
+	 * @return the index of the first byte of the line in buffer()
+	 */
+	int start() {
+		return start;
+	}
+
+	/**
+	 * @return the number of the line in its source, from 1
+	 */
+	public long lineNumber() {
+		return lineNumber;
+	}
+
+	/**
+	 * @return the byte offset of the line in its source
+	 */
+	public long offset() {
+		return offset;
+	}
+
+	/**
+	 * @return the length of the line in bytes
+	 */
+	public int length() {
+		return length;
+	}
+
+	public boolean isEmpty() {
+		return length == 0;
+	}
+
+	/**
+	 * @param index from 0 to length() - 1
+	 */
+	public byte byteAt(int index) {
+		if (index < 0 || index >= length) {
+			throw new IndexOutOfBoundsException(index + " of " + length);
+		}
+		return buffer.get(start + index);
+	}
+
+	/**
+	 * @param prefix bytes in the charset of the source
+	 */
+	public boolean startsWith(byte[] prefix) {
+		return regionMatches(0, prefix);
+	}
+
+	/**
+	 * @param suffix bytes in the charset of the source
+	 */
+	public boolean endsWith(byte[] suffix) {
+		return regionMatches(length - suffix.length, suffix);
+	}
+
+	/**
+	 * @return the offset of the first occurrence of the bytes in the line, or
+	 * -1 if there is none
+	 */
+	public int indexOf(byte[] pattern) {
+		if (pattern.length == 0) {
+			return 0;
+		}
+		byte first = pattern[0];
+		for (int i = 0; i <= length - pattern.length; i++) {
+			if (buffer.get(start + i) == first && regionMatches(i, pattern)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the offset of the first occurrence of the byte in the line, or
+	 * -1 if there is none
+	 */
+	public int indexOf(byte b) {
+		for (int i = 0; i < length; i++) {
+			if (buffer.get(start + i) == b) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public boolean contains(byte[] pattern) {
+		return indexOf(pattern) >= 0;
+	}
+
+	/**
+	 * @return whether the bytes at the offset of the line are the given ones
+	 */
+	public boolean regionMatches(int offset, byte[] bytes) {
+		if (offset < 0 || offset + bytes.length > length) {
+			return false;
+		}
+		for (int i = 0; i < bytes.length; i++) {
+			if (buffer.get(start + offset + i) != bytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * copy the bytes of the line into an array.
+	 *
+	 * @param dst the array, with room for length() bytes after off
+	 * @param off the offset in the array
+	 */
+	public void copyTo(byte[] dst, int off) {
+		if (buffer.hasArray()) {
+			System.arraycopy(buffer.array(), buffer.arrayOffset() + start, dst,
+					off, length);
+		} else {
+			ByteBuffer source = buffer.duplicate();
+			source.position(start);
+			source.get(dst, off, length);
+		}
+	}
+
+	/**
+	 * @return a copy of the bytes of the line
+	 */
+	public byte[] toBytes() {
+		byte[] bytes = new byte[length];
+		copyTo(bytes, 0);
+		return bytes;
+	}
+
+	/**
+	 * @return a read-only view of the bytes of the line, valid as long as
+	 * the slice
+	 */
+	public ByteBuffer asByteBuffer() {
+		ByteBuffer view = buffer.asReadOnlyBuffer();
+		view.limit(start + length);
+		view.position(start);
+		return view.slice();
+	}
+
+	/**
+	 * @return the line decoded with the charset of the source, decoded once
+	 * per line
+	 */
+	@Override
+	public String toString() {
+		if (decoded == null) {
+			if (buffer.hasArray()) {
+				decoded = new String(buffer.array(), buffer.arrayOffset()
+						+ start, length, charset);
+			} else {
+				if (scratch == null || scratch.length < length) {
+					scratch = new byte[Math.max(length, 256)];
+				}
+				copyTo(scratch, 0);
+				decoded = new String(scratch, 0, length, charset);
+			}
+		}
+		return decoded;
+	}
+}
@@ -0,0 +1,305 @@
+package util.file;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+
+/**
+ * Read the lines of a file, a stream or a mapped region one at a time as
+ * LineSlices, with an explicit charset. The slice handed out is reused for
+ * every line and decoded only on demand, so a scan which tests bytes or
+ * counts lines allocates nothing per line. A plain file is read through its
+ * mappings, a compressed one is decoded as it is read (see InputFiles).
+ * <p>
+ * Lines end with '\n' or "\r\n"; a last line without terminator counts, an
+ * empty one after a final '\n' does not. The charset must encode '\n' and
+ * '\r' as single bytes which occur in no other char, as UTF-8, ASCII and the
+ * ISO-8859 charsets do. A source is not thread safe.
+ */
+public abstract class LineSource implements Closeable {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	final LineSlice slice;
+
+	long lineNumber;
+
+	LineSource(Charset charset) {
+		this.slice = new LineSlice(charset);
+	}
+
+	/**
+	 * open a file, mapping it if it is plain and decoding it as it is read if
+	 * it is compressed.
+	 *
+	 * @param file    the file
+	 * @param charset the charset of its lines
+	 * @return the source, to be closed by the caller
+	 * @throws IOException
+	 */
+	public static LineSource open(File file, Charset charset)
+			throws IOException {
+		if (InputFiles.isCompressed(file)) {
+			return new StreamSource(InputFiles.open(file), charset);
+		}
+		MappedFileView view = new MappedFileView(file);
+		return new MappedSource(view, 0, view.size(), charset, true);
+	}
+
+	/**
+	 * see open(File, Charset)
+	 */
+	public static LineSource open(Path path, Charset charset)
+			throws IOException {
+		return open(path.toFile(), charset);
+	}
+
+	/**
+	 * read the lines of a stream, which is closed with the source.
+	 */
+	public static LineSource open(InputStream in, Charset charset) {
+		return new StreamSource(in, charset);
+	}
+
+	/**
+	 * read the lines of a region of a mapped file. Closing the source leaves
+	 * the view open.
+	 *
+	 * @param view    the view of the file
+	 * @param from    the offset of the first line of the region
+	 * @param to      the end of the region, exclusive
+	 * @param charset the charset of the lines
+	 * @return the source, whose slices have their offsets in the file and
+	 * their line numbers from 1 at from
+	 */
+	public static LineSource open(MappedFileView view, long from, long to,
+								  Charset charset) {
+		return new MappedSource(view, from, Math.min(to, view.size()), charset,
+				false);
+	}
+
+	/**
+	 * move to the next line.
+	 *
+	 * @return the line, in a slice which is reused for the next one, or null
+	 * at the end of the source
+	 * @throws IOException
+	 */
+	public abstract LineSlice next() throws IOException;
+
+	/**
+	 * skip lines without decoding them.
+	 *
+	 * @param count the number of lines to skip
+	 * @return the number of lines skipped, fewer at the end of the source
+	 * @throws IOException
+	 */
+	public long skip(long count) throws IOException {
+		long skipped = 0;
+		while (skipped < count && next() != null) {
+			skipped++;
+		}
+		return skipped;
+	}
+
+	/**
+	 * @return the number of lines read so far, which is the number of the
+	 * last one
+	 */
+	public long lineNumber() {
+		return lineNumber;
+	}
+
+	/**
+	 * lines of a mapped file region, sliced straight out of the mappings
+	 */
+	private static class MappedSource extends LineSource {
+
+		private final MappedFileView view;
+
+		private final long end;
+
+		private final boolean closeView;
+
+		private long position;
+
+		private final ByteBuffer[] segments;
+
+		/**
+		 * holds the rare lines which span two mappings
+		 */
+		private ByteBuffer spanning = ByteBuffer.allocate(256);
+
+		MappedSource(MappedFileView view, long from, long to, Charset charset,
+					 boolean closeView) {
+			super(charset);
+			this.view = view;
+			this.position = from;
+			this.end = to;
+			this.closeView = closeView;
+			this.segments = new ByteBuffer[view.segmentCount()];
+		}
+
+		@Override
+		public LineSlice next() {
+			if (position >= end) {
+				return null;
+			}
+			long start = position;
+			long newline = view.indexOf((byte) '\n', position, end);
+			long lineEnd = newline < 0 ? end : newline;
+			position = newline < 0 ? end : newline + 1;
+			if (lineEnd > start && view.get(lineEnd - 1) == '\r') {
+				lineEnd--;
+			}
+			int length = (int) (lineEnd - start);
+			int segment = (int) (start / MappedFileView.SEGMENT_SIZE);
+			long segmentStart = (long) segment * MappedFileView.SEGMENT_SIZE;
+			if (lineEnd <= segmentStart + MappedFileView.SEGMENT_SIZE) {
+				if (segments[segment] == null) {
+					segments[segment] = view.segment(segment);
+				}
+				slice.set(segments[segment], (int) (start - segmentStart),
+						length, start, ++lineNumber);
+			} else {
+				if (spanning.capacity() < length) {
+					spanning = ByteBuffer.allocate(Math.max(length,
+							spanning.capacity() * 2));
+				}
+				view.get(start, spanning.array(), 0, length);
+				slice.set(spanning, 0, length, start, ++lineNumber);
+			}
+			return slice;
+		}
+
+		@Override
+		public long skip(long count) {
+			long skipped = 0;
+			while (skipped < count && position < end) {
+				long newline = view.indexOf((byte) '\n', position, end);
+				position = newline < 0 ? end : newline + 1;
+				skipped++;
+			}
+			lineNumber += skipped;
+			return skipped;
+		}
+
+		public void close() throws IOException {
+			if (closeView) {
+				view.close();
+			}
+		}
+	}
+
+	/**
+	 * lines of a stream, sliced out of a buffer which grows to hold the
+	 * longest line
+	 */
+	private static class StreamSource extends LineSource {
+
+		private final InputStream in;
+
+		private byte[] buffer = new byte[BUFFER_SIZE];
+
+		private ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+
+		private int position;
+
+		private int limit;
+
+		/**
+		 * the offset in the stream of buffer[0]
+		 */
+		private long bufferOffset;
+
+		private boolean eof;
+
+		StreamSource(InputStream in, Charset charset) {
+			super(charset);
+			this.in = in;
+		}
+
+		@Override
+		public LineSlice next() throws IOException {
+			int newline = findLineEnd();
+			if (newline < 0 && position == limit) {
+				return null;
+			}
+			int start = position;
+			int lineEnd = newline < 0 ? limit : newline;
+			position = newline < 0 ? limit : newline + 1;
+			if (lineEnd > start && buffer[lineEnd - 1] == '\r') {
+				lineEnd--;
+			}
+			slice.set(wrapped, start, lineEnd - start, bufferOffset + start,
+					++lineNumber);
+			return slice;
+		}
+
+		@Override
+		public long skip(long count) throws IOException {
+			long skipped = 0;
+			while (skipped < count) {
+				int newline = findLineEnd();
+				if (newline < 0) {
+					if (position == limit) {
+						break;
+					}
+					position = limit;
+				} else {
+					position = newline + 1;
+				}
+				skipped++;
+			}
+			lineNumber += skipped;
+			return skipped;
+		}
+
+		/**
+		 * fill the buffer until it holds the '\n' ending the line at position
+		 *
+		 * @return the index of the '\n', or -1 if the stream ends first
+		 */
+		private int findLineEnd() throws IOException {
+			int from = position;
+			while (true) {
+				for (int i = from; i < limit; i++) {
+					if (buffer[i] == '\n') {
+						return i;
+					}
+				}
+				if (eof) {
+					return -1;
+				}
+				from = limit - position;
+				if (position > 0) {
+					// move the partial line to the front
+					System.arraycopy(buffer, position, buffer, 0, limit
+							- position);
+					bufferOffset += position;
+					limit -= position;
+					position = 0;
+				} else if (limit == buffer.length) {
+					if (buffer.length > Integer.MAX_VALUE / 2) {
+						throw new IOException("line longer than 1GB");
+					}
+					byte[] larger = new byte[buffer.length * 2];
+					System.arraycopy(buffer, 0, larger, 0, limit);
+					buffer = larger;
+					wrapped = ByteBuffer.wrap(buffer);
+				}
+				int n = in.read(buffer, limit, buffer.length - limit);
+				if (n < 0) {
+					eof = true;
+				} else {
+					limit += n;
+				}
+			}
+		}
+
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package util.file;
+
+import java.nio.charset.Charset;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * A Spliterator over the lines of a memory mapped file. It covers a byte
+ * range which always starts at a line start, and splits by cutting that
+ * range in two at the line start nearest to its middle, so that a parallel
+ * stream gets evenly sized pieces without reading anything twice. Lines are
+ * decoded only when they are handed out, '\n' and "\r\n" end a line.
+ * <p>
+ * The charset must encode '\n' and '\r' as single bytes which occur in no
+ * other char, as UTF-8, ASCII and the ISO-8859 charsets do.
+ */
+class LineSpliterator implements Spliterator<String> {
+
+	/**
+	 * ranges smaller than this are not split any further
+	 */
+	static final long MIN_SPLIT_SIZE = 1024 * 1024;
+
+	private final MappedFileView view;
+
+	private final Charset charset;
+
+	private long position;
+
+	private final long end;
+
+	private byte[] scratch = new byte[256];
+
+	LineSpliterator(MappedFileView view, Charset charset, long from, long to) {
+		this.view = view;
+		this.charset = charset;
+		this.position = from;
+		this.end = to;
+	}
+
+	LineSpliterator(MappedFileView view, Charset charset) {
+		this(view, charset, 0, view.size());
+	}
+
+	public boolean tryAdvance(Consumer<? super String> action) {
+		if (position >= end) {
+			return false;
+		}
+		long newline = view.indexOf((byte) '\n', position, end);
+		long lineEnd = newline < 0 ? end : newline;
+		long next = newline < 0 ? end : newline + 1;
+		if (lineEnd > position && view.get(lineEnd - 1) == '\r') {
+			lineEnd--;
+		}
+		int length = (int) (lineEnd - position);
+		if (scratch.length < length) {
+			scratch = new byte[Math.max(length, scratch.length * 2)];
+		}
+		view.get(position, scratch, 0, length);
+		position = next;
+		action.accept(new String(scratch, 0, length, charset));
+		return true;
+	}
+
+	public Spliterator<String> trySplit() {
+		long remaining = end - position;
+		if (remaining < MIN_SPLIT_SIZE) {
+			return null;
+		}
+		long middle = position + remaining / 2;
+		// the line starting right after the first '\n' at or after middle - 1
+		long newline = view.indexOf((byte) '\n', middle - 1, end);
+		if (newline < 0 || newline + 1 >= end) {
+			return null;
+		}
+		LineSpliterator prefix = new LineSpliterator(view, charset, position,
+				newline + 1);
+		position = newline + 1;
+		return prefix;
+	}
+
+	/**
+	 * the bytes left, an upper bound of the lines left
+	 */
+	public long estimateSize() {
+		return end - position;
+	}
+
+	public int characteristics() {
+		return ORDERED | NONNULL | IMMUTABLE;
+	}
+}
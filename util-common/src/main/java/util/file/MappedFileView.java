@@ -0,0 +1,372 @@
+package util.file;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+/**
+ * A read-only view of a whole file through memory mappings, without copying
+ * its content onto the heap. Files larger than 2GB are covered by several
+ * consecutive mappings stitched together behind a long position. The content
+ * can be read as bytes, as an InputStream, as a Reader, or as a lazily
+ * decoded CharSequence.
+ * <p>
+ * Closing the view closes the file; the mappings themselves are released by
+ * the garbage collector, as the JDK offers no way to unmap them.
+ */
+public class MappedFileView implements Closeable {
+
+	/**
+	 * size of one mapping
+	 */
+	static final int SEGMENT_SIZE = 1 << 30;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final File file;
+
+	private final RandomAccessFile raf;
+
+	private final MappedByteBuffer[] segments;
+
+	private final long size;
+
+	public MappedFileView(File file) throws IOException {
+		this.file = file;
+		this.raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			size = channel.size();
+			int count = (int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+			segments = new MappedByteBuffer[count];
+			for (int i = 0; i < count; i++) {
+				long from = (long) i * SEGMENT_SIZE;
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, from,
+						Math.min(SEGMENT_SIZE, size - from));
+			}
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return the size of the file in bytes
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * @param position a position from 0 to size() - 1
+	 * @return the byte at that position of the file
+	 */
+	public byte get(long position) {
+		return segments[(int) (position / SEGMENT_SIZE)].get(
+				(int) (position % SEGMENT_SIZE));
+	}
+
+	/**
+	 * copy bytes of the file into an array, across mappings if needed.
+	 *
+	 * @param position the position of the first byte to copy
+	 * @param dst      the destination array
+	 * @param off      the offset in the destination
+	 * @param len      the number of bytes, all of them inside the file
+	 */
+	public void get(long position, byte[] dst, int off, int len) {
+		while (len > 0) {
+			ByteBuffer segment = segments[(int) (position / SEGMENT_SIZE)]
+					.duplicate();
+			segment.position((int) (position % SEGMENT_SIZE));
+			int n = Math.min(len, segment.remaining());
+			segment.get(dst, off, n);
+			position += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * find the first occurrence of a byte in a range of the file.
+	 *
+	 * @param b    the byte to look for
+	 * @param from the first position to look at
+	 * @param to   the end of the range, exclusive
+	 * @return the position of the byte, or -1 if it is not in the range
+	 */
+	public long indexOf(byte b, long from, long to) {
+		to = Math.min(to, size);
+		while (from < to) {
+			int segment = (int) (from / SEGMENT_SIZE);
+			long segmentStart = (long) segment * SEGMENT_SIZE;
+			MappedByteBuffer buffer = segments[segment];
+			int end = (int) Math.min(buffer.limit(), to - segmentStart);
+			for (int i = (int) (from - segmentStart); i < end; i++) {
+				if (buffer.get(i) == b) {
+					return segmentStart + i;
+				}
+			}
+			from = segmentStart + end;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the number of mappings covering the file
+	 */
+	public int segmentCount() {
+		return segments.length;
+	}
+
+	/**
+	 * @param index the index of a mapping
+	 * @return a read-only buffer over that mapping, with its own position
+	 */
+	public ByteBuffer segment(int index) {
+		return segments[index].asReadOnlyBuffer();
+	}
+
+	/**
+	 * @return a stream over the whole content, reading straight from the
+	 * mappings
+	 */
+	public InputStream newInputStream() {
+		return new SegmentInputStream();
+	}
+
+	/**
+	 * @param charset the charset of the file
+	 * @return a reader decoding the content as it is read
+	 */
+	public Reader newReader(Charset charset) {
+		return new InputStreamReader(newInputStream(), charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE));
+	}
+
+	/**
+	 * view the UTF-8 content as chars. Nothing is decoded until the sequence
+	 * is used: length() decodes the file once block by block to index where
+	 * each block starts, without keeping the chars, and charAt() decodes and
+	 * caches only the block it needs. The view is not thread safe.
+	 *
+	 * @return the content as a CharSequence
+	 * @throws IllegalStateException from length() if the content exceeds
+	 *                               Integer.MAX_VALUE chars
+	 */
+	public CharSequence asCharSequence() {
+		return new DecodedSequence();
+	}
+
+	public void close() throws IOException {
+		raf.close();
+	}
+
+	private class SegmentInputStream extends InputStream {
+
+		private long position;
+
+		private long mark;
+
+		@Override
+		public int read() {
+			if (position >= size) {
+				return -1;
+			}
+			return get(position++) & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) {
+				return 0;
+			}
+			if (position >= size) {
+				return -1;
+			}
+			ByteBuffer segment = segments[(int) (position / SEGMENT_SIZE)]
+					.duplicate();
+			segment.position((int) (position % SEGMENT_SIZE));
+			int n = Math.min(len, segment.remaining());
+			segment.get(b, off, n);
+			position += n;
+			return n;
+		}
+
+		@Override
+		public long skip(long n) {
+			long skipped = Math.max(0, Math.min(n, size - position));
+			position += skipped;
+			return skipped;
+		}
+
+		@Override
+		public int available() {
+			return (int) Math.min(Integer.MAX_VALUE, size - position);
+		}
+
+		@Override
+		public boolean markSupported() {
+			return true;
+		}
+
+		@Override
+		public synchronized void mark(int readlimit) {
+			mark = position;
+		}
+
+		@Override
+		public synchronized void reset() {
+			position = mark;
+		}
+	}
+
+	/**
+	 * UTF-8 content decoded block by block on demand
+	 */
+	private class DecodedSequence implements CharSequence {
+
+		private static final int BLOCK_SIZE = 64 * 1024;
+
+		/**
+		 * byte offset where each block starts, always at a char start; one
+		 * more entry than blocks, ending with size
+		 */
+		private long[] byteStarts;
+
+		/**
+		 * char index where each block starts; one more entry than blocks
+		 */
+		private int[] charStarts;
+
+		private final CharsetDecoder decoder = UTF_8.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+		private final ByteBuffer bytes = ByteBuffer.allocate(BLOCK_SIZE + 4);
+
+		private CharBuffer chars = CharBuffer.allocate(BLOCK_SIZE + 4);
+
+		private int cachedBlock = -1;
+
+		public int length() {
+			index();
+			return charStarts[charStarts.length - 1];
+		}
+
+		public char charAt(int index) {
+			index();
+			if (index < 0 || index >= charStarts[charStarts.length - 1]) {
+				throw new IndexOutOfBoundsException("index: " + index);
+			}
+			int block = Arrays.binarySearch(charStarts, index);
+			if (block < 0) {
+				block = -block - 2;
+			} else {
+				// skip blocks which decode to no char at all
+				while (block + 1 < charStarts.length - 1
+						&& charStarts[block + 1] == index) {
+					block++;
+				}
+			}
+			if (block != cachedBlock) {
+				decode(block);
+				cachedBlock = block;
+			}
+			return chars.get(index - charStarts[block]);
+		}
+
+		public CharSequence subSequence(int start, int end) {
+			if (start < 0 || end > length() || start > end) {
+				throw new IndexOutOfBoundsException("start: " + start
+						+ ", end: " + end);
+			}
+			StringBuilder sb = new StringBuilder(end - start);
+			for (int i = start; i < end; i++) {
+				sb.append(charAt(i));
+			}
+			return sb.toString();
+		}
+
+		@Override
+		public String toString() {
+			return subSequence(0, length()).toString();
+		}
+
+		private void index() {
+			if (charStarts != null) {
+				return;
+			}
+			int blocks = (int) ((size + BLOCK_SIZE - 1) / BLOCK_SIZE);
+			// boundaries moved back off multi-byte chars may add blocks
+			long[] starts = new long[blocks + blocks / 16 + 2];
+			int count = 0;
+			long position = 0;
+			while (position < size) {
+				if (count + 1 >= starts.length) {
+					starts = Arrays.copyOf(starts, starts.length * 2);
+				}
+				starts[count++] = position;
+				long next = Math.min(size, position + BLOCK_SIZE);
+				// never cut through a multi-byte sequence
+				for (int i = 0; i < 3 && next < size
+						&& (get(next) & 0xC0) == 0x80; i++) {
+					next--;
+				}
+				position = next;
+			}
+			starts[count] = size;
+			byteStarts = Arrays.copyOf(starts, count + 1);
+
+			int[] charIndex = new int[count + 1];
+			long total = 0;
+			for (int block = 0; block < count; block++) {
+				charIndex[block] = (int) total;
+				total += decode(block);
+				if (total > Integer.MAX_VALUE) {
+					throw new IllegalStateException(file
+							+ " holds more than Integer.MAX_VALUE chars");
+				}
+			}
+			charIndex[count] = (int) total;
+			charStarts = charIndex;
+			cachedBlock = count > 0 ? count - 1 : -1;
+		}
+
+		/**
+		 * decode one block into the chars buffer
+		 *
+		 * @return the number of chars decoded
+		 */
+		private int decode(int block) {
+			long from = byteStarts[block];
+			int length = (int) (byteStarts[block + 1] - from);
+			bytes.clear();
+			get(from, bytes.array(), 0, length);
+			bytes.limit(length);
+			chars.clear();
+			decoder.reset();
+			CoderResult result = decoder.decode(bytes, chars, true);
+			if (!result.isUnderflow()) {
+				// cannot happen, a byte never decodes to more than one char
+				throw new IllegalStateException("decoding overflow in block "
+						+ block);
+			}
+			decoder.flush(chars);
+			chars.flip();
+			return chars.remaining();
+		}
+	}
+}
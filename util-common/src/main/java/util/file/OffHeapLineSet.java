@@ -0,0 +1,344 @@
+package util.file;
+
+import util.common.HashUtil;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An open-addressing hash set of lines kept entirely outside the Java heap,
+ * counting how often each line was added. The bytes of the distinct lines are
+ * appended to an arena, each after a header holding the number of its first
+ * line, its count and its length; the table holds a (64 bit xxHash, arena
+ * address) pair per slot, probed linearly. Equal hashes are verified against
+ * the bytes in the arena, so distinct lines are never merged.
+ * <p>
+ * Both arena and table are made of pages allocated either as direct buffers
+ * or, given a directory, as mappings of temporary files there, which lets the
+ * operating system page them out to disk; the heap only holds the arrays of
+ * pages whatever the number of lines. Direct buffers count against
+ * -XX:MaxDirectMemorySize and are released by the garbage collector, mapped
+ * pages are unmapped by it too while their files are deleted on close().
+ */
+class OffHeapLineSet implements Closeable {
+
+	private static final int ARENA_PAGE_BITS = 24;
+
+	private static final int TABLE_PAGE_BITS = 26;
+
+	/**
+	 * first line number (8), count (8) and length (4) of an entry
+	 */
+	private static final int HEADER_SIZE = 20;
+
+	/**
+	 * hash (8) and arena address + 1 (8), 0 marking an empty slot
+	 */
+	private static final int SLOT_SIZE = 16;
+
+	private static final int MIN_CAPACITY = 1 << 16;
+
+	private final File directory;
+
+	private final Pages arena;
+
+	private final long arenaPageSize;
+
+	private long arenaSize;
+
+	private Pages table;
+
+	private ByteBuffer[] tablePages;
+
+	private int slotPageBits;
+
+	private long capacity;
+
+	private long size;
+
+	/**
+	 * @param directory the directory of the temporary files holding the
+	 *                  pages, null for direct buffers
+	 */
+	OffHeapLineSet(File directory) throws IOException {
+		this.directory = directory;
+		this.arena = new Pages(ARENA_PAGE_BITS, directory, "lineset-arena");
+		this.arenaPageSize = 1L << ARENA_PAGE_BITS;
+		allocateTable(MIN_CAPACITY);
+	}
+
+	/**
+	 * @return the number of distinct lines
+	 */
+	long size() {
+		return size;
+	}
+
+	/**
+	 * add a line, or count one more occurrence of it.
+	 *
+	 * @param bytes      the buffer holding the line
+	 * @param start      the index of the line in the buffer
+	 * @param length     the length of the line
+	 * @param lineNumber the number of the line, recorded if it is new
+	 * @return -1 if the line is new, else the number of its first occurrence
+	 */
+	long add(ByteBuffer bytes, int start, int length, long lineNumber)
+			throws IOException {
+		long hash = HashUtil.xxHash64(bytes, start, length, 0);
+		long mask = capacity - 1;
+		long slot = hash & mask;
+		while (true) {
+			ByteBuffer page = tablePages[(int) (slot >>> slotPageBits)];
+			int at = (int) (slot & ((1L << slotPageBits) - 1)) * SLOT_SIZE;
+			long address = page.getLong(at + 8) - 1;
+			if (address < 0) {
+				page.putLong(at, hash);
+				page.putLong(at + 8, append(bytes, start, length, lineNumber) + 1);
+				if (++size > capacity * 3 / 4) {
+					allocateTable(capacity << 1);
+				}
+				return -1;
+			}
+			if (page.getLong(at) == hash && matches(address, bytes, start, length)) {
+				ByteBuffer entry = arena.page((int) (address >>> ARENA_PAGE_BITS));
+				int offset = (int) (address & (arenaPageSize - 1));
+				entry.putLong(offset + 8, entry.getLong(offset + 8) + 1);
+				return entry.getLong(offset);
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * visit the lines in the order they were first added.
+	 */
+	void forEach(Visitor visitor) throws IOException {
+		byte[] bytes = new byte[256];
+		long address = 0;
+		while (address < arenaSize) {
+			address = headerAddress(address);
+			ByteBuffer page = arena.page((int) (address >>> ARENA_PAGE_BITS));
+			int offset = (int) (address & (arenaPageSize - 1));
+			long firstLine = page.getLong(offset);
+			long count = page.getLong(offset + 8);
+			int length = page.getInt(offset + 16);
+			if (bytes.length < length) {
+				bytes = new byte[Math.max(length, bytes.length * 2)];
+			}
+			read(address + HEADER_SIZE, bytes, length);
+			visitor.visit(firstLine, count, bytes, length);
+			address += HEADER_SIZE + length;
+		}
+	}
+
+	/**
+	 * release the pages, deleting their files if they are mapped
+	 */
+	public void close() throws IOException {
+		try {
+			arena.close();
+		} finally {
+			table.close();
+		}
+	}
+
+	/**
+	 * @return the address where an entry at address starts, moved to the
+	 * next page if its header would span two pages
+	 */
+	private long headerAddress(long address) {
+		long left = arenaPageSize - (address & (arenaPageSize - 1));
+		return left < HEADER_SIZE ? address + left : address;
+	}
+
+	/**
+	 * @return the address of the new entry
+	 */
+	private long append(ByteBuffer bytes, int start, int length,
+						long lineNumber) throws IOException {
+		long address = headerAddress(arenaSize);
+		ByteBuffer page = arena.page((int) (address >>> ARENA_PAGE_BITS));
+		int offset = (int) (address & (arenaPageSize - 1));
+		page.putLong(offset, lineNumber);
+		page.putLong(offset + 8, 1);
+		page.putInt(offset + 16, length);
+		long to = address + HEADER_SIZE;
+		int done = 0;
+		while (done < length) {
+			page = arena.page((int) (to >>> ARENA_PAGE_BITS));
+			offset = (int) (to & (arenaPageSize - 1));
+			int n = (int) Math.min(length - done, arenaPageSize - offset);
+			for (int i = 0; i < n; i++) {
+				page.put(offset + i, bytes.get(start + done + i));
+			}
+			done += n;
+			to += n;
+		}
+		arenaSize = to;
+		return address;
+	}
+
+	private boolean matches(long address, ByteBuffer bytes, int start,
+							int length) throws IOException {
+		ByteBuffer page = arena.page((int) (address >>> ARENA_PAGE_BITS));
+		int offset = (int) (address & (arenaPageSize - 1));
+		if (page.getInt(offset + 16) != length) {
+			return false;
+		}
+		long from = address + HEADER_SIZE;
+		int done = 0;
+		while (done < length) {
+			page = arena.page((int) (from >>> ARENA_PAGE_BITS));
+			offset = (int) (from & (arenaPageSize - 1));
+			int n = (int) Math.min(length - done, arenaPageSize - offset);
+			int i = 0;
+			if (page.order() == bytes.order()) {
+				for (; i + 8 <= n; i += 8) {
+					if (page.getLong(offset + i) != bytes.getLong(start + done + i)) {
+						return false;
+					}
+				}
+			}
+			for (; i < n; i++) {
+				if (page.get(offset + i) != bytes.get(start + done + i)) {
+					return false;
+				}
+			}
+			done += n;
+			from += n;
+		}
+		return true;
+	}
+
+	private void read(long from, byte[] dst, int length) throws IOException {
+		int done = 0;
+		while (done < length) {
+			ByteBuffer page = arena.page((int) (from >>> ARENA_PAGE_BITS))
+					.duplicate();
+			int offset = (int) (from & (arenaPageSize - 1));
+			int n = (int) Math.min(length - done, arenaPageSize - offset);
+			page.position(offset);
+			page.get(dst, done, n);
+			done += n;
+			from += n;
+		}
+	}
+
+	/**
+	 * allocate a table of the capacity, moving the slots of the current one
+	 * over by their stored hashes, without reading the arena
+	 */
+	private void allocateTable(long newCapacity) throws IOException {
+		long bytes = newCapacity * SLOT_SIZE;
+		int pageBits = Math.min(TABLE_PAGE_BITS,
+				63 - Long.numberOfLeadingZeros(bytes));
+		Pages newTable = new Pages(pageBits, directory, "lineset-table");
+		ByteBuffer[] newPages = new ByteBuffer[(int) (bytes >>> pageBits)];
+		for (int i = 0; i < newPages.length; i++) {
+			newPages[i] = newTable.page(i);
+		}
+		int newSlotPageBits = pageBits - 4;
+		long newMask = newCapacity - 1;
+		if (table != null) {
+			for (ByteBuffer page : tablePages) {
+				for (int at = 0; at < page.capacity(); at += SLOT_SIZE) {
+					long address = page.getLong(at + 8);
+					if (address == 0) {
+						continue;
+					}
+					long hash = page.getLong(at);
+					long slot = hash & newMask;
+					while (true) {
+						ByteBuffer target = newPages[(int) (slot >>> newSlotPageBits)];
+						int to = (int) (slot & ((1L << newSlotPageBits) - 1))
+								* SLOT_SIZE;
+						if (target.getLong(to + 8) == 0) {
+							target.putLong(to, hash);
+							target.putLong(to + 8, address);
+							break;
+						}
+						slot = (slot + 1) & newMask;
+					}
+				}
+			}
+			table.close();
+		}
+		table = newTable;
+		tablePages = newPages;
+		slotPageBits = newSlotPageBits;
+		capacity = newCapacity;
+	}
+
+	/**
+	 * receives the lines of the set
+	 */
+	interface Visitor {
+
+		/**
+		 * @param firstLine the number of the first occurrence of the line
+		 * @param count     the occurrences of the line
+		 * @param bytes     the bytes of the line, reused for the next one
+		 * @param length    the number of bytes in the array
+		 */
+		void visit(long firstLine, long count, byte[] bytes, int length)
+				throws IOException;
+	}
+
+	/**
+	 * equally sized, zero-filled pages allocated on first use
+	 */
+	private static class Pages implements Closeable {
+
+		private final int pageBits;
+
+		private final File file;
+
+		private final RandomAccessFile raf;
+
+		private ByteBuffer[] pages = new ByteBuffer[16];
+
+		Pages(int pageBits, File directory, String prefix) throws IOException {
+			this.pageBits = pageBits;
+			if (directory == null) {
+				file = null;
+				raf = null;
+			} else {
+				file = File.createTempFile(prefix, ".tmp", directory);
+				file.deleteOnExit();
+				raf = new RandomAccessFile(file, "rw");
+			}
+		}
+
+		ByteBuffer page(int index) throws IOException {
+			if (index >= pages.length) {
+				ByteBuffer[] larger = new ByteBuffer[Math.max(index + 1,
+						pages.length * 2)];
+				System.arraycopy(pages, 0, larger, 0, pages.length);
+				pages = larger;
+			}
+			if (pages[index] == null) {
+				long size = 1L << pageBits;
+				if (raf == null) {
+					pages[index] = ByteBuffer.allocateDirect((int) size);
+				} else {
+					// mapping past the end of the file extends it sparsely
+					pages[index] = raf.getChannel().map(
+							FileChannel.MapMode.READ_WRITE, index * size, size);
+				}
+			}
+			return pages[index];
+		}
+
+		public void close() throws IOException {
+			pages = new ByteBuffer[0];
+			if (raf != null) {
+				raf.close();
+				if (!file.delete()) {
+					file.deleteOnExit();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,581 @@
+package util.file;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Decompress a gzip file, decoding its members in parallel when it has
+ * several, like the concatenated gzip parts of a split dump or BGZF files.
+ * The compressed file is cut into 1MB ranges. For each range a task looks
+ * for the first gzip header it holds and decodes, ahead of the reader, the
+ * members starting in the range. Since a header may also occur by chance
+ * inside compressed data, the reader only keeps the output of a task whose
+ * first member starts exactly where the members before it ended; otherwise
+ * it decodes the range itself. Every member is checked against its CRC32.
+ * <p>
+ * Range tasks are submitted while the reader decodes, up to 256MB of
+ * compressed data past it, until the parallelism of the pool + 1 of them
+ * have found a member; ranges without a header cost only their scan. So
+ * the members following a large one are found and decoded ahead too.
+ * <p>
+ * Memory stays bounded because a task decodes at most 16MB of a member
+ * ahead of the reader and leaves the rest to it. Members decoding to up to
+ * about 16MB, like BGZF blocks or small split parts, are therefore decoded
+ * fully in parallel. Of larger members, like the parts of a dump split into
+ * a few large pieces, only the first 16MB are decoded ahead and the rest is
+ * decoded by the reader at the speed of one core, as is a file holding one
+ * member written by gzip itself. Like GZIPInputStream, bytes after the last
+ * member which do not form a gzip header are ignored. The stream is not
+ * thread safe.
+ */
+public class ParallelGzipInputStream extends InputStream {
+
+	/**
+	 * compressed bytes searched for a member start by one task
+	 */
+	static final int RANGE_SIZE = 1024 * 1024;
+
+	/**
+	 * decoded bytes a task produces before it leaves the rest to the reader
+	 */
+	static final int SPECULATIVE_LIMIT = 16 * 1024 * 1024;
+
+	/**
+	 * ranges scanned ahead of the offset the reader decodes at: 256MB
+	 */
+	private static final int SCAN_AHEAD = 256;
+
+	private static final int BLOCK_SIZE = 256 * 1024;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final int HEADER_SIZE = 10;
+
+	private static final int FHCRC = 2;
+
+	private static final int FEXTRA = 4;
+
+	private static final int FNAME = 8;
+
+	private static final int FCOMMENT = 16;
+
+	private final File file;
+
+	private final RandomAccessFile raf;
+
+	private final FileChannel channel;
+
+	private final long size;
+
+	private final ForkJoinPool pool;
+
+	private final int rangeCount;
+
+	/**
+	 * the number of tasks which may hold a member ahead of the reader
+	 */
+	private final int window;
+
+	/**
+	 * the tasks submitted and not released, see RangeTask.release()
+	 */
+	private final AtomicInteger active = new AtomicInteger();
+
+	/**
+	 * the tasks submitted, for consecutive ranges from nextRange
+	 */
+	private final ArrayDeque<RangeTask> pending = new ArrayDeque<RangeTask>();
+
+	private int nextRange;
+
+	private int nextSubmit;
+
+	/**
+	 * where the next member starts: everything before it is decoded or
+	 * being decoded by the current decoder
+	 */
+	private long position;
+
+	private List<byte[]> blocks = Collections.emptyList();
+
+	private int blockIndex;
+
+	private int blockOffset;
+
+	private MemberDecoder decoder;
+
+	private final byte[] single = new byte[1];
+
+	/**
+	 * @param file a gzip file
+	 * @param pool the pool decoding ahead of the reader
+	 * @throws IOException if the file cannot be opened
+	 */
+	public ParallelGzipInputStream(File file, ForkJoinPool pool)
+			throws IOException {
+		this.file = file;
+		this.pool = pool;
+		this.raf = new RandomAccessFile(file, "r");
+		this.channel = raf.getChannel();
+		this.size = channel.size();
+		this.rangeCount = (int) Math.max(1, (size + RANGE_SIZE - 1)
+				/ RANGE_SIZE);
+		// a single range is decoded by the reader alone
+		this.window = rangeCount == 1 ? 0 : pool.getParallelism() + 1;
+	}
+
+	public ParallelGzipInputStream(File file) throws IOException {
+		this(file, ForkJoinPool.commonPool());
+	}
+
+	@Override
+	public int read() throws IOException {
+		int n;
+		do {
+			n = read(single, 0, 1);
+		} while (n == 0);
+		return n < 0 ? -1 : single[0] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		while (true) {
+			if (blockIndex < blocks.size()) {
+				byte[] block = blocks.get(blockIndex);
+				int n = Math.min(len, block.length - blockOffset);
+				System.arraycopy(block, blockOffset, b, off, n);
+				blockOffset += n;
+				if (blockOffset == block.length) {
+					// let the block be collected
+					blocks.set(blockIndex++, null);
+					blockOffset = 0;
+				}
+				return n;
+			}
+			if (decoder != null) {
+				submitAhead(decoder.offset());
+				int n = decoder.read(b, off, len);
+				if (n >= 0) {
+					return n;
+				}
+				position = decoder.end;
+				decoder = null;
+			}
+			if (!nextRange()) {
+				return -1;
+			}
+		}
+	}
+
+	@Override
+	public int available() {
+		return blockIndex < blocks.size() ? blocks.get(blockIndex).length
+				- blockOffset : 0;
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (RangeTask task : pending) {
+			task.cancel(false);
+			task.release();
+		}
+		pending.clear();
+		blocks = Collections.emptyList();
+		decoder = null;
+		raf.close();
+	}
+
+	private long rangeStart(int range) {
+		return (long) range * RANGE_SIZE;
+	}
+
+	private long rangeEnd(int range) {
+		return Math.min(size, rangeStart(range + 1));
+	}
+
+	/**
+	 * move on to the first range not covered yet, taking the output of its
+	 * task if it started at the right member
+	 *
+	 * @return false at the end of the file
+	 */
+	private boolean nextRange() throws IOException {
+		while (nextRange < rangeCount && rangeEnd(nextRange) <= position) {
+			if (!pending.isEmpty() && pending.peek().range == nextRange) {
+				RangeTask task = pending.poll();
+				task.cancel(false);
+				task.release();
+			}
+			nextRange++;
+		}
+		if (nextRange >= rangeCount || position >= size) {
+			return false;
+		}
+		submitAhead(position);
+
+		Segment segment = null;
+		if (!pending.isEmpty()) {
+			RangeTask task = pending.poll();
+			segment = task.join();
+			task.release();
+		}
+		long limit = rangeEnd(nextRange++);
+		blocks = Collections.emptyList();
+		blockIndex = 0;
+		blockOffset = 0;
+		if (segment != null && segment.start == position) {
+			if (segment.error != null) {
+				throw new IOException("cannot decompress " + file
+						+ " at offset " + position, segment.error);
+			}
+			blocks = segment.blocks;
+			decoder = segment.decoder;
+		} else {
+			decoder = new MemberDecoder(position, limit);
+		}
+		return true;
+	}
+
+	/**
+	 * submit tasks for the ranges after nextRange until window of them may
+	 * hold a member, or SCAN_AHEAD ranges past the offset are covered
+	 *
+	 * @param offset where the reader decodes
+	 */
+	private void submitAhead(long offset) {
+		nextSubmit = Math.max(nextSubmit, nextRange);
+		long last = Math.min(rangeCount, offset / RANGE_SIZE + SCAN_AHEAD);
+		while (nextSubmit < last && active.get() < window) {
+			RangeTask task = new RangeTask(nextSubmit++);
+			active.incrementAndGet();
+			pending.add(task);
+			pool.execute(task);
+		}
+	}
+
+	/**
+	 * @return the first offset in [from, to) which looks like the start of
+	 * a gzip member, or -1
+	 */
+	private long findHeader(long from, long to) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate((int) (to - from)
+				+ HEADER_SIZE - 1);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, from + buffer.position()) < 0) {
+				break;
+			}
+		}
+		int limit = buffer.position();
+		for (int i = 0; i + HEADER_SIZE <= limit && from + i < to; i++) {
+			if (buffer.get(i) == 0x1F && buffer.get(i + 1) == (byte) 0x8B
+					&& buffer.get(i + 2) == 8 && (buffer.get(i + 3) & 0xE0) == 0) {
+				return from + i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * decodes the members which start in [start, limit), the first of them
+	 * starting at start
+	 */
+	private class MemberDecoder {
+
+		private final long start;
+
+		private final long limit;
+
+		private final Inflater inflater = new Inflater(true);
+
+		private final CRC32 crc = new CRC32();
+
+		private final byte[] input = new byte[BUFFER_SIZE];
+
+		/**
+		 * the file offset of input[0]
+		 */
+		private long inputOffset;
+
+		private int inputPosition;
+
+		private int inputLength;
+
+		private boolean inMember;
+
+		private long memberStart;
+
+		private long memberSize;
+
+		private boolean done;
+
+		/**
+		 * once done, where the member after the last one decoded starts
+		 */
+		long end;
+
+		MemberDecoder(long start, long limit) {
+			this.start = start;
+			this.limit = limit;
+			this.inputOffset = start;
+		}
+
+		/**
+		 * @return the offset of the next compressed byte to decode
+		 */
+		long offset() {
+			return inputOffset + inputPosition;
+		}
+
+		/**
+		 * @return the number of bytes decoded, or -1 once done
+		 */
+		int read(byte[] b, int off, int len) throws IOException {
+			while (!done) {
+				if (!inMember) {
+					long offset = inputOffset + inputPosition;
+					if (offset > start && (offset >= limit || !startsMember())) {
+						finish(offset >= limit ? offset : size);
+						break;
+					}
+					memberStart = offset;
+					readHeader();
+					inflater.reset();
+					crc.reset();
+					memberSize = 0;
+					inMember = true;
+				}
+				if (inflater.finished()) {
+					inputPosition = inputLength - inflater.getRemaining();
+					readTrailer();
+					inMember = false;
+					continue;
+				}
+				if (inflater.needsInput()) {
+					if (inputPosition == inputLength) {
+						fill();
+					}
+					inflater.setInput(input, inputPosition, inputLength
+							- inputPosition);
+				}
+				int n;
+				try {
+					n = inflater.inflate(b, off, len);
+				} catch (DataFormatException e) {
+					throw new ZipException("corrupt gzip member at "
+							+ memberStart + ": " + e.getMessage());
+				}
+				inputPosition = inputLength - inflater.getRemaining();
+				if (n > 0) {
+					crc.update(b, off, n);
+					memberSize += n;
+					return n;
+				}
+				if (inflater.needsDictionary()) {
+					throw new ZipException("gzip member at " + memberStart
+							+ " needs a dictionary");
+				}
+			}
+			return -1;
+		}
+
+		private void finish(long end) {
+			this.end = end;
+			done = true;
+			inflater.end();
+		}
+
+		/**
+		 * whether a member starts at the current offset; bytes which do not
+		 * form a header are ignored, like GZIPInputStream does
+		 */
+		private boolean startsMember() throws IOException {
+			long offset = inputOffset + inputPosition;
+			if (size - offset < HEADER_SIZE) {
+				return false;
+			}
+			while (inputLength - inputPosition < HEADER_SIZE) {
+				fill();
+			}
+			return input[inputPosition] == 0x1F
+					&& input[inputPosition + 1] == (byte) 0x8B
+					&& input[inputPosition + 2] == 8;
+		}
+
+		private void readHeader() throws IOException {
+			if (nextByte() != 0x1F || nextByte() != 0x8B) {
+				throw new ZipException("not in gzip format at " + memberStart);
+			}
+			if (nextByte() != 8) {
+				throw new ZipException("unsupported compression method at "
+						+ memberStart);
+			}
+			int flags = nextByte();
+			// MTIME, XFL and OS
+			skip(6);
+			if ((flags & FEXTRA) != 0) {
+				skip(nextByte() | nextByte() << 8);
+			}
+			if ((flags & FNAME) != 0) {
+				while (nextByte() != 0) {
+				}
+			}
+			if ((flags & FCOMMENT) != 0) {
+				while (nextByte() != 0) {
+				}
+			}
+			if ((flags & FHCRC) != 0) {
+				skip(2);
+			}
+		}
+
+		private void readTrailer() throws IOException {
+			long expectedCrc = readInt();
+			long expectedSize = readInt();
+			if (expectedCrc != crc.getValue()
+					|| expectedSize != (memberSize & 0xFFFFFFFFL)) {
+				throw new ZipException("corrupt gzip member at " + memberStart
+						+ ": checksum or size mismatch");
+			}
+		}
+
+		private long readInt() throws IOException {
+			return (nextByte() | nextByte() << 8 | nextByte() << 16
+					| (long) nextByte() << 24) & 0xFFFFFFFFL;
+		}
+
+		private void skip(int n) throws IOException {
+			for (int i = 0; i < n; i++) {
+				nextByte();
+			}
+		}
+
+		private int nextByte() throws IOException {
+			if (inputPosition == inputLength) {
+				fill();
+			}
+			return input[inputPosition++] & 0xFF;
+		}
+
+		/**
+		 * read more input, keeping the bytes not consumed yet
+		 */
+		private void fill() throws IOException {
+			int remaining = inputLength - inputPosition;
+			System.arraycopy(input, inputPosition, input, 0, remaining);
+			inputOffset += inputPosition;
+			inputPosition = 0;
+			inputLength = remaining;
+			ByteBuffer buffer = ByteBuffer.wrap(input, remaining, input.length
+					- remaining);
+			int n = channel.read(buffer, inputOffset + remaining);
+			if (n < 0) {
+				throw new EOFException("unexpected end of " + file);
+			}
+			inputLength += n;
+		}
+	}
+
+	/**
+	 * the output of one task: the blocks decoded from the first member start
+	 * of a range, and the decoder to go on with if it is not done
+	 */
+	private static class Segment {
+
+		/**
+		 * where the first member was found, -1 if none was
+		 */
+		long start = -1;
+
+		List<byte[]> blocks = Collections.emptyList();
+
+		MemberDecoder decoder;
+
+		IOException error;
+	}
+
+	private class RangeTask extends RecursiveTask<Segment> {
+
+		private static final long serialVersionUID = 1L;
+
+		final int range;
+
+		private final AtomicBoolean released = new AtomicBoolean();
+
+		RangeTask(int range) {
+			this.range = range;
+		}
+
+		/**
+		 * give the place of the task in the window back, once: when it finds
+		 * no usable member, or when the reader is done with it
+		 */
+		void release() {
+			if (released.compareAndSet(false, true)) {
+				active.decrementAndGet();
+			}
+		}
+
+		@Override
+		protected Segment compute() {
+			Segment segment = new Segment();
+			try {
+				long from = rangeStart(range);
+				long to = rangeEnd(range);
+				segment.start = range == 0 ? 0 : findHeader(from, to);
+				if (segment.start < 0) {
+					release();
+					return segment;
+				}
+				MemberDecoder decoder = new MemberDecoder(segment.start, to);
+				List<byte[]> blocks = new ArrayList<byte[]>();
+				byte[] block = new byte[BLOCK_SIZE];
+				int length = 0;
+				long decoded = 0;
+				while (decoded < SPECULATIVE_LIMIT) {
+					int n = decoder.read(block, length, block.length - length);
+					if (n < 0) {
+						break;
+					}
+					length += n;
+					decoded += n;
+					if (length == block.length) {
+						blocks.add(block);
+						block = new byte[BLOCK_SIZE];
+						length = 0;
+					}
+				}
+				if (length > 0) {
+					blocks.add(Arrays.copyOf(block, length));
+				}
+				segment.blocks = blocks;
+				segment.decoder = decoder;
+			} catch (IOException e) {
+				segment.error = e;
+				// most likely a header found by chance inside a member
+				release();
+			}
+			return segment;
+		}
+	}
+}
@@ -0,0 +1,322 @@
+package util.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Validate that a file only holds printable ASCII (32 to 126) besides its
+ * line terminators. The file is memory mapped in line-aligned chunks which
+ * are scanned in parallel, eight bytes at a time while they are clean; the
+ * first offending byte of every line is reported with its line number and
+ * byte offset. No line is ever decoded. Compressed files are scanned as
+ * they are decoded, see InputFiles, and the offsets are then those of the
+ * decoded content.
+ */
+public class SpecialCharScanner {
+
+	static final long CHUNK_SIZE = 64L * 1024 * 1024;
+
+	private static final long HIGH = 0x8080808080808080L;
+
+	private static final long SPACES = 0x2020202020202020L;
+
+	private static final long DELETES = 0x7F7F7F7F7F7F7F7FL;
+
+	private static final long ONES = 0x0101010101010101L;
+
+	private final int maxHits;
+
+	private final ForkJoinPool pool;
+
+	/**
+	 * @param maxHits stop after this many offending lines, 0 for no limit
+	 * @param pool    the pool running the scan
+	 */
+	public SpecialCharScanner(int maxHits, ForkJoinPool pool) {
+		this.maxHits = maxHits <= 0 ? Integer.MAX_VALUE : maxHits;
+		this.pool = pool;
+	}
+
+	public SpecialCharScanner(int maxHits) {
+		this(maxHits, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * scan a file for special chars.
+	 *
+	 * @param file the file to scan
+	 * @return the lines holding special chars, in file order
+	 * @throws IOException
+	 */
+	public Report scan(File file) throws IOException {
+		final Collector collector = new Collector();
+		if (InputFiles.isCompressed(file)) {
+			InputFiles.forEachBlock(file, new InputFiles.BlockHandler() {
+				public boolean block(ByteBuffer block, long offset) {
+					return collector.add(scan(block), offset);
+				}
+			});
+			return new Report(collector.hits, collector.truncated);
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			List<Long> boundaries = FileSplitter.lineAlignedChunks(channel,
+					channel.size(), CHUNK_SIZE);
+			List<ChunkTask> tasks = new ArrayList<ChunkTask>();
+			for (int i = 0; i + 1 < boundaries.size(); i++) {
+				ChunkTask task = new ChunkTask(channel, boundaries.get(i),
+						boundaries.get(i + 1));
+				tasks.add(task);
+				pool.execute(task);
+			}
+
+			for (ChunkTask task : tasks) {
+				ChunkResult chunk;
+				try {
+					chunk = task.join();
+				} catch (UncheckedIOException e) {
+					throw e.getCause();
+				}
+				if (!collector.add(chunk, task.from)) {
+					// the chunks still running cannot add anything
+					for (ChunkTask rest : tasks) {
+						rest.cancel(false);
+					}
+					break;
+				}
+			}
+			return new Report(collector.hits, collector.truncated);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * scan one chunk, which starts at a line start.
+	 */
+	ChunkResult scan(ByteBuffer buffer) {
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		ChunkResult result = new ChunkResult();
+		int limit = buffer.limit();
+		long line = 1;
+		boolean lineReported = false;
+		int i = 0;
+		while (i < limit) {
+			if (i + 8 <= limit) {
+				long word = buffer.getLong(i);
+				// no byte >= 128, < 32 or == 127: nothing to look at
+				if ((word & HIGH) == 0 && ((word - SPACES) & HIGH) == 0
+						&& zeroBytes(word ^ DELETES) == 0) {
+					i += 8;
+					continue;
+				}
+			}
+			int end = Math.min(i + 8, limit);
+			for (; i < end; i++) {
+				int b = buffer.get(i) & 0xFF;
+				if (b == '\n') {
+					line++;
+					lineReported = false;
+					result.newlines++;
+				} else if ((b < 32 || b > 126) && !lineReported
+						&& !(b == '\r' && i + 1 < limit && buffer.get(i + 1) == '\n')) {
+					lineReported = true;
+					if (result.count == maxHits) {
+						result.truncated = true;
+						return result;
+					}
+					result.add(line, i, b);
+				}
+			}
+		}
+		return result;
+	}
+
+	private static long zeroBytes(long x) {
+		return (x - ONES) & ~x & HIGH;
+	}
+
+	/**
+	 * the outcome of a scan
+	 */
+	public static class Report {
+
+		private final List<Hit> hits;
+
+		private final boolean truncated;
+
+		Report(List<Hit> hits, boolean truncated) {
+			this.hits = Collections.unmodifiableList(hits);
+			this.truncated = truncated;
+		}
+
+		/**
+		 * @return the offending lines found, in file order
+		 */
+		public List<Hit> getHits() {
+			return hits;
+		}
+
+		/**
+		 * @return true if the scan stopped at maxHits before the end of the file
+		 */
+		public boolean isTruncated() {
+			return truncated;
+		}
+
+		/**
+		 * @return true if no special char was found
+		 */
+		public boolean isClean() {
+			return hits.isEmpty();
+		}
+	}
+
+	/**
+	 * the first special char of one line
+	 */
+	public static class Hit {
+
+		private final long lineNumber;
+
+		private final long byteOffset;
+
+		private final int value;
+
+		Hit(long lineNumber, long byteOffset, int value) {
+			this.lineNumber = lineNumber;
+			this.byteOffset = byteOffset;
+			this.value = value;
+		}
+
+		/**
+		 * @return the line number, starting from 1
+		 */
+		public long getLineNumber() {
+			return lineNumber;
+		}
+
+		/**
+		 * @return the offset of the byte in the file
+		 */
+		public long getByteOffset() {
+			return byteOffset;
+		}
+
+		/**
+		 * @return the unsigned value of the byte
+		 */
+		public int getValue() {
+			return value;
+		}
+
+		@Override
+		public String toString() {
+			return "line#" + lineNumber + " offset " + byteOffset + ": 0x"
+					+ Integer.toHexString(value);
+		}
+	}
+
+	/**
+	 * the hits of one chunk, with line numbers relative to the chunk
+	 */
+	static class ChunkResult {
+
+		long[] lines = new long[16];
+
+		int[] offsets = new int[16];
+
+		int[] values = new int[16];
+
+		int count;
+
+		long newlines;
+
+		boolean truncated;
+
+		void add(long line, int offset, int value) {
+			if (count == lines.length) {
+				lines = Arrays.copyOf(lines, count * 2);
+				offsets = Arrays.copyOf(offsets, count * 2);
+				values = Arrays.copyOf(values, count * 2);
+			}
+			lines[count] = line;
+			offsets[count] = offset;
+			values[count] = value;
+			count++;
+		}
+	}
+
+	/**
+	 * gathers the hits of the chunks, in file order
+	 */
+	private class Collector {
+
+		final List<Hit> hits = new ArrayList<Hit>();
+
+		boolean truncated;
+
+		long linesBefore;
+
+		/**
+		 * @param chunk the result of the next chunk
+		 * @param from  the offset of the chunk in the file
+		 * @return false once the later chunks cannot add anything
+		 */
+		boolean add(ChunkResult chunk, long from) {
+			for (int i = 0; i < chunk.count; i++) {
+				if (hits.size() == maxHits) {
+					truncated = true;
+					return false;
+				}
+				hits.add(new Hit(linesBefore + chunk.lines[i], from
+						+ chunk.offsets[i], chunk.values[i]));
+			}
+			if (chunk.truncated) {
+				truncated = true;
+				return false;
+			}
+			linesBefore += chunk.newlines;
+			return true;
+		}
+	}
+
+	private class ChunkTask extends RecursiveTask<ChunkResult> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final FileChannel channel;
+
+		private final long from;
+
+		private final long to;
+
+		ChunkTask(FileChannel channel, long from, long to) {
+			this.channel = channel;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected ChunkResult compute() {
+			try {
+				return scan(channel.map(FileChannel.MapMode.READ_ONLY, from, to
+						- from));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+}
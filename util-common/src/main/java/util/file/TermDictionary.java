@@ -0,0 +1,216 @@
+package util.file;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Map terms (byte strings such as URIs) to dense int IDs 0, 1, 2... in the
+ * order they are first added. Every distinct term is stored once, in a paged
+ * byte arena, and the lookup table is an open-addressing array of IDs, so the
+ * heap cost per term is its bytes plus about 20 bytes, with no object per
+ * term. Sets of terms can then be kept as BitSets of their IDs.
+ */
+public class TermDictionary {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final int PAGE_BITS = 24;
+
+	/**
+	 * size of one arena page, also the longest term accepted: 16MB
+	 */
+	static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+	private byte[][] pages = new byte[1][];
+
+	private int pageCount;
+
+	private int pageUsed = PAGE_SIZE;
+
+	/**
+	 * arena address of each term: page << PAGE_BITS | offset
+	 */
+	private long[] addresses = new long[1024];
+
+	private int[] lengths = new int[1024];
+
+	private int[] hashes = new int[1024];
+
+	private int size;
+
+	/**
+	 * ID + 1 per slot, 0 for an empty slot
+	 */
+	private int[] slots = new int[2048];
+
+	private byte[] scratch = new byte[256];
+
+	/**
+	 * @return the number of distinct terms
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * add a term, if not already there.
+	 *
+	 * @return the ID of the term
+	 */
+	public int add(byte[] term, int off, int len) {
+		int hash = ByteKeyCounter.hash(term, off, len);
+		int slot = find(term, off, len, hash);
+		if (slots[slot] != 0) {
+			return slots[slot] - 1;
+		}
+		int id = append(term, off, len, hash);
+		slots[slot] = id + 1;
+		if (size * 4L > slots.length * 3L) {
+			rehash(slots.length * 2);
+		}
+		return id;
+	}
+
+	/**
+	 * add the term held in buffer[from, to), if not already there.
+	 *
+	 * @return the ID of the term
+	 */
+	public int add(ByteBuffer buffer, int from, int to) {
+		int len = copy(buffer, from, to);
+		return add(scratch, 0, len);
+	}
+
+	/**
+	 * add a term, if not already there.
+	 *
+	 * @return the ID of the term
+	 */
+	public int add(String term) {
+		byte[] bytes = term.getBytes(UTF_8);
+		return add(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * @return the ID of the term, or -1 if it was never added
+	 */
+	public int lookup(byte[] term, int off, int len) {
+		int slot = find(term, off, len, ByteKeyCounter.hash(term, off, len));
+		return slots[slot] - 1;
+	}
+
+	/**
+	 * @return the ID of the term, or -1 if it was never added
+	 */
+	public int lookup(String term) {
+		byte[] bytes = term.getBytes(UTF_8);
+		return lookup(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * @return the term of an ID, decoded as UTF-8
+	 */
+	public String term(int id) {
+		if (id < 0 || id >= size) {
+			throw new IndexOutOfBoundsException("id: " + id);
+		}
+		long address = addresses[id];
+		return new String(pages[(int) (address >>> PAGE_BITS)],
+				(int) (address & (PAGE_SIZE - 1)), lengths[id], UTF_8);
+	}
+
+	/**
+	 * @return the approximate heap bytes taken by the dictionary
+	 */
+	public long memoryUsage() {
+		return (long) pageCount * PAGE_SIZE + addresses.length * 16L
+				+ slots.length * 4L;
+	}
+
+	private int copy(ByteBuffer buffer, int from, int to) {
+		int len = to - from;
+		if (scratch.length < len) {
+			scratch = new byte[Math.max(len, scratch.length * 2)];
+		}
+		for (int i = 0; i < len; i++) {
+			scratch[i] = buffer.get(from + i);
+		}
+		return len;
+	}
+
+	/**
+	 * @return the slot holding the term, or the empty slot where it belongs
+	 */
+	private int find(byte[] term, int off, int len, int hash) {
+		int mask = slots.length - 1;
+		int slot = hash & mask;
+		while (true) {
+			int id = slots[slot] - 1;
+			if (id < 0 || (hashes[id] == hash && lengths[id] == len
+					&& equals(id, term, off, len))) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private boolean equals(int id, byte[] term, int off, int len) {
+		long address = addresses[id];
+		byte[] page = pages[(int) (address >>> PAGE_BITS)];
+		int start = (int) (address & (PAGE_SIZE - 1));
+		for (int i = 0; i < len; i++) {
+			if (page[start + i] != term[off + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int append(byte[] term, int off, int len, int hash) {
+		if (len > PAGE_SIZE) {
+			throw new IllegalArgumentException("term longer than " + PAGE_SIZE
+					+ " bytes");
+		}
+		if (size == Integer.MAX_VALUE - 1) {
+			throw new IllegalStateException("dictionary is full");
+		}
+		if (pageUsed + len > PAGE_SIZE) {
+			if (pageCount == pages.length) {
+				pages = Arrays.copyOf(pages, pageCount * 2);
+			}
+			pages[pageCount++] = new byte[PAGE_SIZE];
+			pageUsed = 0;
+		}
+		int page = pageCount - 1;
+		System.arraycopy(term, off, pages[page], pageUsed, len);
+
+		int id = size++;
+		if (id == addresses.length) {
+			int capacity = (int) Math.min(Integer.MAX_VALUE - 8, id * 2L);
+			addresses = Arrays.copyOf(addresses, capacity);
+			lengths = Arrays.copyOf(lengths, capacity);
+			hashes = Arrays.copyOf(hashes, capacity);
+		}
+		addresses[id] = (long) page << PAGE_BITS | pageUsed;
+		lengths[id] = len;
+		hashes[id] = hash;
+		pageUsed += len;
+		return id;
+	}
+
+	private void rehash(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalStateException("dictionary is full");
+		}
+		slots = new int[capacity];
+		int mask = capacity - 1;
+		for (int id = 0; id < size; id++) {
+			int slot = hashes[id] & mask;
+			while (slots[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = id + 1;
+		}
+	}
+}
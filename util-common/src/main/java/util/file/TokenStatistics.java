@@ -0,0 +1,393 @@
+package util.file;
+
+import util.common.HeavyHitters;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Count how often each value of one space separated column occurs in the
+ * lines of a set of files, e.g. the predicates of N-Triples files. Files are
+ * memory mapped and cut into line-aligned chunks which are scanned in
+ * parallel on a ForkJoinPool. The column is located by scanning bytes
+ * instead of splitting the line, every chunk counts into its own primitive
+ * ByteKeyCounter, and the counters are merged when the tasks join.
+ * Compressed files are scanned block by block as they are decoded, see
+ * InputFiles.
+ * <p>
+ * The column value is taken the same way as line.split(" ")[column]; lines
+ * which do not have that column are skipped. Values are decoded as UTF-8.
+ */
+public class TokenStatistics {
+
+	public static final int SUBJECT = 0;
+
+	public static final int PREDICATE = 1;
+
+	public static final int OBJECT = 2;
+
+	/**
+	 * size of the chunks scanned by one task
+	 */
+	static final long CHUNK_SIZE = 64L * 1024 * 1024;
+
+	/**
+	 * bits of a first-seen position which hold the offset inside a file
+	 */
+	private static final int OFFSET_BITS = 40;
+
+	private final int column;
+
+	private final ForkJoinPool pool;
+
+	/**
+	 * @param column the index of the space separated column to count
+	 * @param pool   the pool running the scan
+	 */
+	public TokenStatistics(int column, ForkJoinPool pool) {
+		if (column < 0) {
+			throw new IllegalArgumentException("column must not be negative: "
+					+ column);
+		}
+		this.column = column;
+		this.pool = pool;
+	}
+
+	public TokenStatistics(int column) {
+		this(column, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * count the column values of the files.
+	 *
+	 * @param files       the files to scan
+	 * @param sortByCount if true the result is ordered by descending count,
+	 *                    otherwise by first occurrence as a sequential scan of
+	 *                    the files would meet them
+	 * @return the count of each value
+	 * @throws IOException
+	 */
+	public LinkedHashMap<String, Long> count(List<File> files,
+											 boolean sortByCount) throws IOException {
+		final ByteKeyCounter counter = countRaw(files);
+		Integer[] order = new Integer[counter.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		if (sortByCount) {
+			Arrays.sort(order, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					int c = Long.compare(counter.count(b), counter.count(a));
+					return c != 0 ? c : Long.compare(counter.firstSeen(a),
+							counter.firstSeen(b));
+				}
+			});
+		} else {
+			Arrays.sort(order, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					return Long.compare(counter.firstSeen(a),
+							counter.firstSeen(b));
+				}
+			});
+		}
+		LinkedHashMap<String, Long> result = new LinkedHashMap<String, Long>(
+				order.length * 4 / 3 + 1);
+		for (Integer entry : order) {
+			result.put(counter.key(entry), counter.count(entry));
+		}
+		return result;
+	}
+
+	/**
+	 * find the most frequent column values of the files in bounded memory.
+	 * Every chunk is summarized on its own and the partial summaries are
+	 * merged when the tasks join.
+	 *
+	 * @param files   the files to scan
+	 * @param k       the number of values wanted
+	 * @param epsilon the overestimate allowed for a count, relative to the
+	 *                number of values scanned
+	 * @param delta   the probability that a count exceeds it
+	 * @return the summary, see HeavyHitters.top()
+	 * @throws IOException
+	 */
+	public HeavyHitters top(List<File> files, final int k,
+							final double epsilon, final double delta)
+			throws IOException {
+		HeavyHitters result = scanAll(files, new PartialScan<HeavyHitters>() {
+
+			public HeavyHitters scan(Chunk chunk) throws IOException {
+				final HeavyHitters summary = new HeavyHitters(k, epsilon, delta);
+				TokenStatistics.this.scan(chunk, new ValueHandler() {
+					public void value(ByteBuffer buffer, int from, int to,
+									  long position) {
+						summary.offer(buffer, from, to);
+					}
+				});
+				return summary;
+			}
+
+			public HeavyHitters merge(HeavyHitters left, HeavyHitters right) {
+				left.merge(right);
+				return left;
+			}
+		});
+		return result != null ? result : new HeavyHitters(k, epsilon, delta);
+	}
+
+	/**
+	 * count the column values of the files into one merged counter
+	 */
+	ByteKeyCounter countRaw(List<File> files) throws IOException {
+		ByteKeyCounter result = scanAll(files, new PartialScan<ByteKeyCounter>() {
+
+			public ByteKeyCounter scan(Chunk chunk) throws IOException {
+				ByteKeyCounter counter = new ByteKeyCounter();
+				TokenStatistics.this.scan(chunk, counter);
+				return counter;
+			}
+
+			public ByteKeyCounter merge(ByteKeyCounter left,
+										ByteKeyCounter right) {
+				if (left.size() >= right.size()) {
+					left.merge(right);
+					return left;
+				}
+				right.merge(left);
+				return right;
+			}
+		});
+		return result != null ? result : new ByteKeyCounter();
+	}
+
+	/**
+	 * scan all the chunks of the files and merge their partial results. The
+	 * files are mapped and cut into line-aligned chunks scanned in parallel,
+	 * except the compressed ones, whose blocks are scanned as they are
+	 * decoded.
+	 *
+	 * @return the merged result, or null if the files are empty
+	 */
+	private <T> T scanAll(List<File> files, final PartialScan<T> partial)
+			throws IOException {
+		if (files.size() >= (1 << (63 - OFFSET_BITS))) {
+			throw new IllegalArgumentException("too many files: " + files.size());
+		}
+		List<RandomAccessFile> opened = new ArrayList<RandomAccessFile>();
+		try {
+			List<Chunk> chunks = new ArrayList<Chunk>();
+			final List<T> decoded = new ArrayList<T>(1);
+			for (int f = 0; f < files.size(); f++) {
+				final int file = f;
+				if (InputFiles.isCompressed(files.get(f))) {
+					InputFiles.forEachBlock(files.get(f),
+							new InputFiles.BlockHandler() {
+								public boolean block(ByteBuffer block, long offset)
+										throws IOException {
+									T result = partial.scan(new Chunk(block,
+											file, offset));
+									decoded.add(decoded.isEmpty() ? result
+											: partial.merge(decoded.remove(0),
+											result));
+									return true;
+								}
+							});
+					continue;
+				}
+				RandomAccessFile raf = new RandomAccessFile(files.get(f), "r");
+				opened.add(raf);
+				FileChannel channel = raf.getChannel();
+				List<Long> boundaries = FileSplitter.lineAlignedChunks(channel,
+						channel.size(), CHUNK_SIZE);
+				for (int i = 0; i + 1 < boundaries.size(); i++) {
+					chunks.add(new Chunk(channel, f, boundaries.get(i),
+							boundaries.get(i + 1)));
+				}
+			}
+			T result = decoded.isEmpty() ? null : decoded.get(0);
+			if (!chunks.isEmpty()) {
+				T mapped;
+				try {
+					mapped = pool.invoke(new MergeTask<T>(chunks, 0,
+							chunks.size(), partial));
+				} catch (UncheckedIOException e) {
+					throw e.getCause();
+				}
+				result = result == null ? mapped : partial.merge(result, mapped);
+			}
+			return result;
+		} finally {
+			close(opened);
+		}
+	}
+
+	private static void close(List<RandomAccessFile> opened) {
+		for (RandomAccessFile raf : opened) {
+			try {
+				raf.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	/**
+	 * scan the lines of one chunk and count their column values
+	 */
+	void scan(Chunk chunk, final ByteKeyCounter counter) throws IOException {
+		scan(chunk, new ValueHandler() {
+			public void value(ByteBuffer buffer, int from, int to, long position) {
+				counter.add(buffer, from, to, position, 1);
+			}
+		});
+	}
+
+	/**
+	 * scan the lines of one chunk and pass their column values to a handler
+	 */
+	void scan(Chunk chunk, ValueHandler handler) throws IOException {
+		ByteBuffer buffer = chunk.buffer();
+		long base = ((long) chunk.file << OFFSET_BITS) + chunk.from;
+		int limit = buffer.limit();
+		int i = 0;
+		while (i < limit) {
+			int tokenStart = column == 0 ? i : -1;
+			int tokenEnd = -1;
+			int spaces = 0;
+			byte b;
+			while (i < limit && (b = buffer.get(i)) != '\n') {
+				if (b == ' ') {
+					if (spaces == column) {
+						tokenEnd = i;
+						// the rest of the line does not matter
+						while (i < limit && buffer.get(i) != '\n') {
+							i++;
+						}
+						break;
+					}
+					spaces++;
+					if (spaces == column) {
+						tokenStart = i + 1;
+					}
+				}
+				i++;
+			}
+			if (tokenStart >= 0) {
+				boolean last = tokenEnd < 0;
+				if (last) {
+					tokenEnd = i;
+					if (tokenEnd > tokenStart && buffer.get(tokenEnd - 1) == '\r') {
+						tokenEnd--;
+					}
+				}
+				// split() drops a trailing empty column
+				if (tokenEnd > tokenStart || !last) {
+					handler.value(buffer, tokenStart, tokenEnd, base + tokenStart);
+				}
+			}
+			i++;
+		}
+	}
+
+	/**
+	 * receives the column values found by a scan
+	 */
+	interface ValueHandler {
+
+		void value(ByteBuffer buffer, int from, int to, long position);
+	}
+
+	/**
+	 * a line-aligned range of a file, mapped from its channel or decoded
+	 */
+	static class Chunk {
+
+		final FileChannel channel;
+
+		final ByteBuffer decoded;
+
+		final int file;
+
+		final long from;
+
+		final long to;
+
+		Chunk(FileChannel channel, int file, long from, long to) {
+			this.channel = channel;
+			this.decoded = null;
+			this.file = file;
+			this.from = from;
+			this.to = to;
+		}
+
+		Chunk(ByteBuffer decoded, int file, long from) {
+			this.channel = null;
+			this.decoded = decoded;
+			this.file = file;
+			this.from = from;
+			this.to = from + decoded.limit();
+		}
+
+		ByteBuffer buffer() throws IOException {
+			return decoded != null ? decoded : channel.map(
+					FileChannel.MapMode.READ_ONLY, from, to - from);
+		}
+	}
+
+	/**
+	 * computes a partial result per chunk and merges partial results
+	 */
+	private interface PartialScan<T> {
+
+		T scan(Chunk chunk) throws IOException;
+
+		T merge(T left, T right);
+	}
+
+	/**
+	 * scans a range of chunks, splitting it in halves, and merges the
+	 * partial results of the halves
+	 */
+	private static class MergeTask<T> extends RecursiveTask<T> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<Chunk> chunks;
+
+		private final int lo;
+
+		private final int hi;
+
+		private final PartialScan<T> partial;
+
+		MergeTask(List<Chunk> chunks, int lo, int hi, PartialScan<T> partial) {
+			this.chunks = chunks;
+			this.lo = lo;
+			this.hi = hi;
+			this.partial = partial;
+		}
+
+		@Override
+		protected T compute() {
+			if (hi - lo == 1) {
+				try {
+					return partial.scan(chunks.get(lo));
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+			int middle = (lo + hi) >>> 1;
+			MergeTask<T> left = new MergeTask<T>(chunks, lo, middle, partial);
+			MergeTask<T> right = new MergeTask<T>(chunks, middle, hi, partial);
+			left.fork();
+			T rightResult = right.compute();
+			return partial.merge(left.join(), rightResult);
+		}
+	}
+}
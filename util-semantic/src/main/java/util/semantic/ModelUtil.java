@@ -6,9 +6,11 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.jena.riot.Lang;
 import org.apache.jena.riot.RDFDataMgr;
+import util.file.MappedFileView;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.Map;
 
@@ -56,4 +58,35 @@ public class ModelUtil {
 		return model;
 	}
 
+	/**
+	 * build a model from a mapped file view, the content is parsed straight
+	 * from the mappings without being copied into a String
+	 *
+	 * @param view
+	 * @param originalLang
+	 * @param prefixes
+	 * @return
+	 */
+	public static Model modeling(MappedFileView view, Lang originalLang,
+								 Map<String, String> prefixes) {
+		if (view == null) {
+			return null;
+		}
+
+		Model model = ModelFactory.createDefaultModel();
+
+		if (prefixes != null && !prefixes.isEmpty()) {
+			model.setNsPrefixes(prefixes);
+		}
+
+		InputStream is = view.newInputStream();
+		RDFDataMgr.read(model, is, originalLang);
+		try {
+			is.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return model;
+	}
+
 }
@@ -7,10 +7,12 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.jena.riot.Lang;
 import org.apache.jena.riot.RDFDataMgr;
 import org.apache.jena.riot.RDFLanguages;
+import util.file.MappedFileView;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.Map;
 
@@ -60,6 +62,37 @@ public class TripleUtil {
 		return model;
 	}
 
+	/**
+	 * build a model from a mapped file view, the content is parsed straight
+	 * from the mappings without being copied into a String
+	 *
+	 * @param view
+	 * @param originalLang
+	 * @param prefixes
+	 * @return
+	 */
+	private static Model modeling(MappedFileView view, Lang originalLang,
+								  Map<String, String> prefixes) {
+		if (view == null) {
+			return null;
+		}
+
+		Model model = ModelFactory.createDefaultModel();
+
+		if (prefixes != null && !prefixes.isEmpty()) {
+			model.setNsPrefixes(prefixes);
+		}
+
+		InputStream is = view.newInputStream();
+		RDFDataMgr.read(model, is, originalLang);
+		try {
+			is.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return model;
+	}
+
 	/**
 	 * convert the original content as the expected language.
 	 *
@@ -123,6 +156,42 @@ public class TripleUtil {
 		return convert(originalContent, originalLangStr, expectLangStr, null);
 	}
 
+	/**
+	 * convert the content of a mapped file view as the expected language,
+	 * without reading the file into a String first.
+	 *
+	 * @param view
+	 * @param originalLang
+	 * @param expectLang
+	 * @param prefixes
+	 * @return
+	 */
+	public static String convert(MappedFileView view, Lang originalLang,
+								 Lang expectLang, Map<String, String> prefixes) {
+		Model model = modeling(view, originalLang, prefixes);
+		if (model == null) {
+			LOG.error("build model failed");
+			return null;
+		}
+		String result = asText(model, expectLang);
+		model.close();
+		return result;
+	}
+
+	/**
+	 * convert the content of a mapped file view as the expected language,
+	 * without reading the file into a String first.
+	 *
+	 * @param view
+	 * @param originalLang
+	 * @param expectLang
+	 * @return
+	 */
+	public static String convert(MappedFileView view, Lang originalLang,
+								 Lang expectLang) {
+		return convert(view, originalLang, expectLang, null);
+	}
+
 	/**
 	 * Return a string that has the model represented as the specified language
 	 *